@@ -1,16 +1,27 @@
 package moe.haruue.util;
 
+import android.annotation.TargetApi;
 import android.app.Activity;
 import android.app.Application;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.util.ArrayList;
+import java.util.HashMap;
 
 import moe.haruue.util.abstracts.HaruueActivity;
 
 /**
  * Activity 管理器<br>
- *     请在 {@link Application} 子类中进行初始化，使用 {@link ActivityCollector#initialize()} <br>
+ *     请在 {@link Application} 子类中进行初始化，使用 {@link ActivityCollector#initialize(Application)} ，
+ *     API 14 及以上会通过 {@link Application.ActivityLifecycleCallbacks} 自动管理所有 Activity<br>
+ *     API 14 以下或使用 {@link ActivityCollector#initialize()} 初始化时，
  *     您可以让 Activity 继承 {@link HaruueActivity} 或者在每个 {@link Activity} 里加入 <code>
  *
  *         \@Override
@@ -25,33 +36,82 @@ import moe.haruue.util.abstracts.HaruueActivity;
  *             ActivityCollector.pop(this);
  *         }
  *
- *     </code>
+ *     </code><br>
+ *     Activity 以弱引用保存在按对象身份索引的双向链表中，push、pop、peek 都是 O(1) 的，重复 push 或 pop 没有影响；
+ *     {@link #getActivities()} 等读取操作使用修改后第一次读取时生成的快照，可以在任意线程中调用<br>
+ *     使用 {@link #watchLeaks(long)} 开启泄漏检测后，已经 destroy 的 Activity 在一段时间后仍未被回收时会通过 {@link OnLeakListener} 报告
  *
  * @author Haruue Icymoon haruue@caoyue.com.cn
  */
 public class ActivityCollector {
 
+    /**
+     * Activity 泄漏回调，在后台线程中调用
+     */
+    public interface OnLeakListener {
+        /**
+         * 一个已经 destroy 的 Activity 在 GC 后仍然可达
+         * @param activity 泄漏的 Activity ，请不要长期持有
+         * @param destroyedMillis 距离 destroy 的时间，毫秒
+         */
+        void onActivityLeaked(Activity activity, long destroyedMillis);
+    }
+
+    private static final String TAG = "ActivityCollector";
+
+    private static final Node[] EMPTY = new Node[0];
+
     private static ActivityCollector manager;
 
-    private ArrayList<Activity> activities = new ArrayList<>(0);
+    private final ReferenceQueue<Activity> queue = new ReferenceQueue<>();
+    /**
+     * 按 {@link System#identityHashCode(Object)} 索引，散列相同的节点通过 {@link Node#sameHash} 串起来
+     */
+    private final HashMap<Integer, Node> index = new HashMap<>();
+    private Node head;
+    private Node tail;
+    private int size;
+    /**
+     * 从栈底到栈顶的快照，修改后置为 null ，下次读取时重新生成
+     */
+    private volatile Node[] snapshot = EMPTY;
 
-    private ActivityCollector() {
+    private volatile long leakWatchMillis;
+    private volatile OnLeakListener leakListener;
 
+    private ActivityCollector() {
+        leakListener = new OnLeakListener() {
+            @Override
+            public void onActivityLeaked(Activity activity, long destroyedMillis) {
+                Log.w(TAG, activity.getClass().getName() + " leaked: still reachable " + destroyedMillis + "ms after onDestroy");
+            }
+        };
     }
 
     /**
-     * 加入 {@link Application#onCreate()} 中以进行初始化
+     * 加入 {@link Application#onCreate()} 中以进行初始化，需要手动调用 {@link #push(Activity)} 和 {@link #pop(Activity)}
      */
     public static void initialize() {
         manager = new ActivityCollector();
     }
 
+    /**
+     * 加入 {@link Application#onCreate()} 中以进行初始化，API 14 及以上自动管理所有 Activity
+     * @param application {@link Application} 实例
+     */
+    public static void initialize(Application application) {
+        initialize();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+            LifecycleTracker.register(application);
+        }
+    }
+
     /**
      * 加入 {@link Activity#onCreate(Bundle)} 中来让 {@link ActivityCollector} 管理这个 Activity
      * @param activity Activity 中的 this 引用
      */
     public static void push(Activity activity) {
-        manager.activities.add(activity);
+        manager.pushInternal(activity);
     }
 
     /**
@@ -59,37 +119,50 @@ public class ActivityCollector {
      * @param activity Activity 中的 this 引用
      */
     public static void pop(Activity activity) {
-        manager.activities.remove(activity);
+        if (manager.popInternal(activity)) {
+            manager.watch(activity);
+        }
     }
 
     /**
      * 返回当前的 Activity
-     * @return 当前 Activity
+     * @return 当前 Activity ，没有时返回 null
      */
+    @Nullable
     public static Activity peek() {
-        return manager.activities.get(manager.activities.size() - 1);
+        return manager.peekInternal(0);
     }
 
     /**
      * 结束当前 Activity
      */
     public static void finishCurrentActivity() {
-        manager.activities.get(manager.activities.size() - 1).finish();
+        Activity activity = manager.peekInternal(0);
+        if (activity != null) {
+            activity.finish();
+        }
     }
 
     /**
      * 结束上一个 Activity
      */
     public static void finishPreviousActivity() {
-        manager.activities.get(manager.activities.size() - 2).finish();
+        Activity activity = manager.peekInternal(1);
+        if (activity != null) {
+            activity.finish();
+        }
     }
 
     /**
-     * 结束所有的 Activity
+     * 结束所有的 Activity ，遍历的是调用时的快照，结束过程中 Activity 的变化不会影响遍历
      */
     public static void finishAllActivity() {
-        for (Activity a: manager.activities) {
-            a.finish();
+        Node[] nodes = manager.snapshot();
+        for (int i = nodes.length - 1; i >= 0; i--) {
+            Activity a = nodes[i].get();
+            if (a != null && !a.isFinishing()) {
+                a.finish();
+            }
         }
     }
 
@@ -103,10 +176,254 @@ public class ActivityCollector {
 
     /**
      * 获取 Activity Array 的拷贝，对该拷贝的任何更改都不会影响到 {@link ActivityCollector}
-     * @return Activity Array 的一个拷贝
+     * @return Activity Array 的一个拷贝，从栈底到栈顶
      */
     public static ArrayList<Activity> getActivities() {
-        return new ArrayList<>(manager.activities);
+        Node[] nodes = manager.snapshot();
+        ArrayList<Activity> result = new ArrayList<>(nodes.length);
+        for (Node node : nodes) {
+            Activity a = node.get();
+            if (a != null) {
+                result.add(a);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取当前管理的 Activity 数量
+     * @return 数量
+     */
+    public static int size() {
+        return manager.sizeInternal();
+    }
+
+    /**
+     * 开启泄漏检测，需要先初始化 {@link ThreadUtils}<br>
+     *     Activity destroy 后经过指定时间仍然可达时会触发一次 GC ，GC 后仍然可达则报告泄漏；GC 有开销，建议只在调试版本开启
+     * @param delayMillis destroy 后等待的时间，毫秒，传入 0 关闭检测
+     */
+    public static void watchLeaks(long delayMillis) {
+        manager.leakWatchMillis = delayMillis;
+    }
+
+    /**
+     * 设置泄漏回调，默认以 warning 级别输出到 log
+     * @param listener 泄漏回调，传入 null 则不处理
+     */
+    public static void setOnLeakListener(@Nullable OnLeakListener listener) {
+        manager.leakListener = listener;
+    }
+
+    private synchronized void pushInternal(Activity activity) {
+        expunge();
+        if (find(activity) != null) {
+            return;
+        }
+        Node node = new Node(activity, queue);
+        node.prev = tail;
+        if (tail == null) {
+            head = node;
+        } else {
+            tail.next = node;
+        }
+        tail = node;
+        node.sameHash = index.put(node.hash, node);
+        size++;
+        snapshot = null;
+    }
+
+    private synchronized boolean popInternal(Activity activity) {
+        expunge();
+        Node node = find(activity);
+        if (node == null) {
+            return false;
+        }
+        unlink(node);
+        node.clear();
+        return true;
+    }
+
+    private synchronized int sizeInternal() {
+        expunge();
+        return size;
+    }
+
+    @Nullable
+    private synchronized Activity peekInternal(int depth) {
+        expunge();
+        Node node = tail;
+        for (int i = 0; i < depth && node != null; i++) {
+            node = node.prev;
+        }
+        return node == null ? null : node.get();
+    }
+
+    private Node[] snapshot() {
+        Node[] nodes = snapshot;
+        if (nodes != null) {
+            return nodes;
+        }
+        synchronized (this) {
+            expunge();
+            if (snapshot == null) {
+                nodes = new Node[size];
+                int i = 0;
+                for (Node node = head; node != null; node = node.next) {
+                    nodes[i++] = node;
+                }
+                snapshot = nodes;
+            }
+            return snapshot;
+        }
+    }
+
+    /**
+     * 在索引中查找，调用时需要持有锁
+     */
+    @Nullable
+    private Node find(Activity activity) {
+        for (Node node = index.get(System.identityHashCode(activity)); node != null; node = node.sameHash) {
+            if (node.get() == activity) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 从链表和索引中移除，调用时需要持有锁
+     */
+    private void unlink(Node node) {
+        if (node.prev == null) {
+            head = node.next;
+        } else {
+            node.prev.next = node.next;
+        }
+        if (node.next == null) {
+            tail = node.prev;
+        } else {
+            node.next.prev = node.prev;
+        }
+        node.prev = null;
+        node.next = null;
+        Node first = index.get(node.hash);
+        if (first == node) {
+            if (node.sameHash == null) {
+                index.remove(node.hash);
+            } else {
+                index.put(node.hash, node.sameHash);
+            }
+        } else {
+            while (first != null && first.sameHash != node) {
+                first = first.sameHash;
+            }
+            if (first != null) {
+                first.sameHash = node.sameHash;
+            }
+        }
+        node.sameHash = null;
+        size--;
+        snapshot = null;
+    }
+
+    /**
+     * 移除没有 pop 就被回收的 Activity ，调用时需要持有锁
+     */
+    private void expunge() {
+        Reference<? extends Activity> ref;
+        while ((ref = queue.poll()) != null) {
+            Node node = (Node) ref;
+            // pop 时主动 clear 的节点已经移除，不会进入队列
+            if (node.prev != null || node.next != null || head == node) {
+                unlink(node);
+            }
+        }
+    }
+
+    private void watch(Activity activity) {
+        final long delay = leakWatchMillis;
+        if (delay <= 0 || ThreadUtils.peekExecutorEngine() == null) {
+            return;
+        }
+        final WeakReference<Activity> ref = new WeakReference<>(activity);
+        final long destroyed = SystemClock.uptimeMillis();
+        ThreadUtils.schedule(null, delay, new Runnable() {
+            @Override
+            public void run() {
+                if (ref.get() == null) {
+                    return;
+                }
+                Runtime.getRuntime().gc();
+                System.runFinalization();
+                Activity leaked = ref.get();
+                OnLeakListener listener = leakListener;
+                if (leaked != null && listener != null) {
+                    listener.onActivityLeaked(leaked, SystemClock.uptimeMillis() - destroyed);
+                }
+            }
+        });
+    }
+
+    private static final class Node extends WeakReference<Activity> {
+
+        final int hash;
+        Node prev;
+        Node next;
+        Node sameHash;
+
+        Node(Activity activity, ReferenceQueue<Activity> queue) {
+            super(activity, queue);
+            hash = System.identityHashCode(activity);
+        }
+
+    }
+
+    /**
+     * 单独的类，避免 API 14 以下加载 {@link Application.ActivityLifecycleCallbacks}
+     */
+    @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+    private static final class LifecycleTracker implements Application.ActivityLifecycleCallbacks {
+
+        static void register(Application application) {
+            application.registerActivityLifecycleCallbacks(new LifecycleTracker());
+        }
+
+        @Override
+        public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            push(activity);
+        }
+
+        @Override
+        public void onActivityStarted(Activity activity) {
+
+        }
+
+        @Override
+        public void onActivityResumed(Activity activity) {
+
+        }
+
+        @Override
+        public void onActivityPaused(Activity activity) {
+
+        }
+
+        @Override
+        public void onActivityStopped(Activity activity) {
+
+        }
+
+        @Override
+        public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+
+        }
+
+        @Override
+        public void onActivityDestroyed(Activity activity) {
+            pop(activity);
+        }
+
     }
 
 }
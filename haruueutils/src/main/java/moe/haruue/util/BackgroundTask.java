@@ -0,0 +1,107 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 提交到 {@link ExecutorEngine} 中的后台任务<br>
+ *     由 {@link ThreadUtils#runInBackground(Runnable)} 等方法返回，可以用 {@link #cancel(boolean)} 取消：
+ *     尚在队列中的任务会被直接移出队列，正在运行的任务会被中断
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class BackgroundTask extends FutureTask<Void> implements Comparable<BackgroundTask> {
+
+    /**
+     * 低优先级，适合预加载等可有可无的任务
+     */
+    public static final int PRIORITY_LOW = -10;
+    /**
+     * 默认优先级
+     */
+    public static final int PRIORITY_NORMAL = 0;
+    /**
+     * 高优先级，适合用户正在等待结果的任务
+     */
+    public static final int PRIORITY_HIGH = 10;
+
+    private static final AtomicLong sequencer = new AtomicLong(0);
+
+    private final int priority;
+    private final long sequence;
+    private final ExecutorEngine.Pool pool;
+    private volatile boolean bound;
+
+    BackgroundTask(Runnable runnable, ExecutorEngine.Pool pool, int priority) {
+        super(runnable, null);
+        this.pool = pool;
+        this.priority = priority;
+        this.sequence = sequencer.getAndIncrement();
+    }
+
+    /**
+     * 获取任务的优先级
+     * @return 优先级，数值越大越先执行
+     */
+    public int getPriority() {
+        return priority;
+    }
+
+    /**
+     * 获取任务所在的线程池
+     * @return 任务所在的线程池
+     */
+    public ExecutorEngine.Pool getPool() {
+        return pool;
+    }
+
+    /**
+     * 获取与任务绑定的对象
+     * @return 绑定的对象，如果没有绑定或对象已被回收，返回 null
+     */
+    @Nullable
+    public Object getBoundObject() {
+        return bound ? ThreadUtils.findObjectByTask(this) : null;
+    }
+
+    /**
+     * 将任务与对象绑定，绑定只弱引用该对象
+     * @param object 需要绑定的对象
+     */
+    void bindTo(Object object) {
+        bound = true;
+        ThreadUtils.bindTaskWithObject(this, object);
+    }
+
+    /**
+     * 与直接使用 {@link Thread} 时一致，未捕获的异常交给当前线程的 {@link Thread.UncaughtExceptionHandler} 处理，而不是被静默吞掉
+     */
+    @Override
+    protected void setException(Throwable t) {
+        super.setException(t);
+        if (!isCancelled()) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, t);
+        }
+    }
+
+    @Override
+    protected void done() {
+        if (bound) {
+            ThreadUtils.unbindTask(this);
+        }
+    }
+
+    /**
+     * 优先级高的排在前面，优先级相同时先提交的排在前面
+     */
+    @Override
+    public int compareTo(BackgroundTask another) {
+        if (priority != another.priority) {
+            return priority > another.priority ? -1 : 1;
+        }
+        return sequence < another.sequence ? -1 : (sequence == another.sequence ? 0 : 1);
+    }
+
+}
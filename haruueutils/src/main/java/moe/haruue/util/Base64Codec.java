@@ -0,0 +1,684 @@
+package moe.haruue.util;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Base64 编码/解码<br>
+ *     直接在预先分配好大小的数组或 {@link ByteBuffer} 上操作，不经过中间的 {@link StringBuffer} 或字符串转换<br>
+ *     提供以下几种配置，可以用 {@link #withoutPadding()} 、{@link #withLineLength(int)} 、{@link #strict()} 、{@link #lenient()} 派生新的配置：
+ *     <ul>
+ *         <li>{@link #STANDARD} ：RFC 4648 标准字母表，带填充，严格解码</li>
+ *         <li>{@link #URL_SAFE} ：RFC 4648 URL 安全字母表（- 和 _），带填充，严格解码</li>
+ *         <li>{@link #MIME} ：RFC 2045，每 76 个字符以 CRLF 换行，宽松解码</li>
+ *     </ul>
+ *     严格模式下遇到非法字符或错误的填充会抛出 {@link IllegalArgumentException} ；宽松模式下忽略所有非法字符（包括非 ASCII 字符），遇到 = 即结束，并同时接受两种字母表<br>
+ *     需要处理大文件时可使用 {@link #wrap(OutputStream)} 和 {@link #wrap(InputStream)} 进行流式编码/解码<br>
+ *     所有实例都是不可变且线程安全的
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class Base64Codec {
+
+    private static final String STANDARD_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+    private static final String URL_SAFE_ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_";
+    private static final byte[] LINE_SEPARATOR = {'\r', '\n'};
+    private static final int MIME_LINE_LENGTH = 76;
+    private static final int STREAM_BUFFER_SIZE = 4096;
+
+    /**
+     * RFC 4648 标准字母表，带填充，严格解码
+     */
+    public static final Base64Codec STANDARD = new Base64Codec(false, true, 0, true);
+    /**
+     * RFC 4648 URL 安全字母表，带填充，严格解码
+     */
+    public static final Base64Codec URL_SAFE = new Base64Codec(true, true, 0, true);
+    /**
+     * RFC 2045 MIME ，每 76 个字符以 CRLF 换行，宽松解码
+     */
+    public static final Base64Codec MIME = new Base64Codec(false, true, MIME_LINE_LENGTH, false);
+
+    private final boolean urlSafe;
+    private final boolean padding;
+    private final int lineLength;
+    private final boolean strict;
+    private final byte[] encodeTable;
+    private final byte[] decodeTable;
+
+    private Base64Codec(boolean urlSafe, boolean padding, int lineLength, boolean strict) {
+        this.urlSafe = urlSafe;
+        this.padding = padding;
+        this.lineLength = lineLength;
+        this.strict = strict;
+        String alphabet = urlSafe ? URL_SAFE_ALPHABET : STANDARD_ALPHABET;
+        encodeTable = new byte[64];
+        decodeTable = new byte[256];
+        Arrays.fill(decodeTable, (byte) -1);
+        for (int i = 0; i < 64; i++) {
+            encodeTable[i] = (byte) alphabet.charAt(i);
+            decodeTable[alphabet.charAt(i)] = (byte) i;
+        }
+        if (!strict) {
+            // 宽松模式同时接受两种字母表
+            decodeTable['+'] = decodeTable['-'] = 62;
+            decodeTable['/'] = decodeTable['_'] = 63;
+        }
+    }
+
+    /**
+     * 派生一个不带填充的配置，解码时填充变为可选
+     * @return 新的配置
+     */
+    public Base64Codec withoutPadding() {
+        return new Base64Codec(urlSafe, false, lineLength, strict);
+    }
+
+    /**
+     * 派生一个按指定长度换行（CRLF）的配置
+     * @param lineLength 每行的字符数，会向下取整到 4 的倍数，0 表示不换行
+     * @return 新的配置
+     */
+    public Base64Codec withLineLength(int lineLength) {
+        return new Base64Codec(urlSafe, padding, Math.max(0, lineLength / 4 * 4), strict);
+    }
+
+    /**
+     * 派生一个严格解码的配置
+     * @return 新的配置
+     */
+    public Base64Codec strict() {
+        return new Base64Codec(urlSafe, padding, lineLength, true);
+    }
+
+    /**
+     * 派生一个宽松解码的配置
+     * @return 新的配置
+     */
+    public Base64Codec lenient() {
+        return new Base64Codec(urlSafe, padding, lineLength, false);
+    }
+
+    /**
+     * 计算编码结果的长度
+     * @param length 原始数据的长度
+     * @return 编码结果的长度，包括换行符
+     */
+    public int getEncodedLength(int length) {
+        long chars = padding ? (length + 2L) / 3 * 4 : (length * 4L + 2) / 3;
+        if (lineLength > 0 && chars > 0) {
+            chars += (chars - 1) / lineLength * LINE_SEPARATOR.length;
+        }
+        if (chars > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("input is too large");
+        }
+        return (int) chars;
+    }
+
+    /**
+     * 编码
+     * @param data 原始数据
+     * @return 编码结果的 ASCII 字节
+     */
+    public byte[] encode(byte[] data) {
+        byte[] out = new byte[getEncodedLength(data.length)];
+        encode(data, 0, data.length, out, 0);
+        return out;
+    }
+
+    /**
+     * 编码到调用者提供的数组
+     * @param data 原始数据
+     * @param offset 原始数据的起始位置
+     * @param length 原始数据的长度
+     * @param out 输出数组，需要至少 {@link #getEncodedLength(int)} 的空间
+     * @param outOffset 输出的起始位置
+     * @return 写入的字节数
+     */
+    public int encode(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        Encoder encoder = new Encoder();
+        int k = encoder.feed(data, offset, length, out, outOffset);
+        return encoder.finish(out, k) - outOffset;
+    }
+
+    /**
+     * 编码到字符串
+     * @param data 原始数据
+     * @return 编码结果
+     */
+    public String encodeToString(byte[] data) {
+        byte[] out = encode(data);
+        char[] chars = new char[out.length];
+        for (int i = 0; i < out.length; i++) {
+            chars[i] = (char) out[i];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * 编码 {@link ByteBuffer} 中剩余的数据，完成后 src 的 position 移动到 limit
+     * @param src 原始数据
+     * @return 编码结果，position 为 0
+     */
+    public ByteBuffer encode(ByteBuffer src) {
+        ByteBuffer dst = ByteBuffer.allocate(getEncodedLength(src.remaining()));
+        encode(src, dst);
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * 编码 {@link ByteBuffer} 中剩余的数据并写入另一个 {@link ByteBuffer}
+     * @param src 原始数据，完成后 position 移动到 limit
+     * @param dst 输出，需要至少 {@link #getEncodedLength(int)} 的剩余空间
+     * @return 写入的字节数
+     */
+    public int encode(ByteBuffer src, ByteBuffer dst) {
+        int start = dst.position();
+        Encoder encoder = new Encoder();
+        if (src.hasArray() && dst.hasArray()) {
+            int k = encoder.feed(src.array(), src.arrayOffset() + src.position(), src.remaining(), dst.array(), dst.arrayOffset() + dst.position());
+            k = encoder.finish(dst.array(), k);
+            src.position(src.limit());
+            dst.position(k - dst.arrayOffset());
+        } else {
+            byte[] in = new byte[Math.min(STREAM_BUFFER_SIZE, Math.max(3, src.remaining()))];
+            byte[] out = new byte[encoder.maxOutput(in.length)];
+            while (src.hasRemaining()) {
+                int n = Math.min(in.length, src.remaining());
+                src.get(in, 0, n);
+                dst.put(out, 0, encoder.feed(in, 0, n, out, 0));
+            }
+            dst.put(out, 0, encoder.finish(out, 0));
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * 解码
+     * @param data Base64 的 ASCII 字节
+     * @return 解码结果
+     * @throws IllegalArgumentException 严格模式下输入不合法
+     */
+    public byte[] decode(byte[] data) {
+        return decode(data, 0, data.length);
+    }
+
+    /**
+     * 解码数组的一部分
+     * @param data Base64 的 ASCII 字节
+     * @param offset 起始位置
+     * @param length 长度
+     * @return 解码结果
+     * @throws IllegalArgumentException 严格模式下输入不合法
+     */
+    public byte[] decode(byte[] data, int offset, int length) {
+        int trailing = 0;
+        while (trailing < 2 && trailing < length && data[offset + length - 1 - trailing] == '=') {
+            trailing++;
+        }
+        byte[] out = new byte[estimateDecodedLength(length, trailing)];
+        int n = decode(data, offset, length, out, 0);
+        return n == out.length ? out : Arrays.copyOf(out, n);
+    }
+
+    /**
+     * 解码到调用者提供的数组
+     * @param data Base64 的 ASCII 字节
+     * @param offset 起始位置
+     * @param length 长度
+     * @param out 输出数组，需要至少 length * 3 / 4 + 2 的空间
+     * @param outOffset 输出的起始位置
+     * @return 写入的字节数
+     * @throws IllegalArgumentException 严格模式下输入不合法
+     */
+    public int decode(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        Decoder decoder = new Decoder();
+        int k = decoder.feed(data, offset, length, out, outOffset);
+        return decoder.finish(out, k) - outOffset;
+    }
+
+    /**
+     * 解码字符串，直接读取字符，不会先转换成字节数组
+     * @param s Base64 字符串
+     * @return 解码结果
+     * @throws IllegalArgumentException 严格模式下输入不合法
+     */
+    public byte[] decode(CharSequence s) {
+        int length = s.length();
+        int trailing = 0;
+        while (trailing < 2 && trailing < length && s.charAt(length - 1 - trailing) == '=') {
+            trailing++;
+        }
+        byte[] out = new byte[estimateDecodedLength(length, trailing)];
+        Decoder decoder = new Decoder();
+        int k = 0;
+        for (int i = 0; i < length && !decoder.finished; i++) {
+            k = decoder.accept(s.charAt(i), out, k);
+        }
+        k = decoder.finish(out, k);
+        return k == out.length ? out : Arrays.copyOf(out, k);
+    }
+
+    /**
+     * 解码 {@link ByteBuffer} 中剩余的数据，完成后 src 的 position 移动到 limit
+     * @param src Base64 的 ASCII 字节
+     * @return 解码结果，position 为 0
+     * @throws IllegalArgumentException 严格模式下输入不合法
+     */
+    public ByteBuffer decode(ByteBuffer src) {
+        ByteBuffer dst = ByteBuffer.allocate(estimateDecodedLength(src.remaining(), 0));
+        decode(src, dst);
+        dst.flip();
+        return dst;
+    }
+
+    /**
+     * 解码 {@link ByteBuffer} 中剩余的数据并写入另一个 {@link ByteBuffer}
+     * @param src Base64 的 ASCII 字节，完成后 position 移动到 limit
+     * @param dst 输出，需要至少 src.remaining() * 3 / 4 + 2 的剩余空间
+     * @return 写入的字节数
+     * @throws IllegalArgumentException 严格模式下输入不合法
+     */
+    public int decode(ByteBuffer src, ByteBuffer dst) {
+        int start = dst.position();
+        Decoder decoder = new Decoder();
+        if (src.hasArray() && dst.hasArray()) {
+            int k = decoder.feed(src.array(), src.arrayOffset() + src.position(), src.remaining(), dst.array(), dst.arrayOffset() + dst.position());
+            k = decoder.finish(dst.array(), k);
+            src.position(src.limit());
+            dst.position(k - dst.arrayOffset());
+        } else {
+            byte[] in = new byte[Math.min(STREAM_BUFFER_SIZE, Math.max(4, src.remaining()))];
+            byte[] out = new byte[in.length / 4 * 3 + 3];
+            while (src.hasRemaining()) {
+                int n = Math.min(in.length, src.remaining());
+                src.get(in, 0, n);
+                dst.put(out, 0, decoder.feed(in, 0, n, out, 0));
+            }
+            dst.put(out, 0, decoder.finish(out, 0));
+        }
+        return dst.position() - start;
+    }
+
+    /**
+     * 包装一个输出流，写入的数据会被编码后写入该流，关闭时写入剩余的数据和填充并关闭该流
+     * @param out 需要写入 Base64 文本的输出流
+     * @return 编码输出流
+     */
+    public OutputStream wrap(OutputStream out) {
+        return new EncoderOutputStream(out);
+    }
+
+    /**
+     * 包装一个输入流，从该流读取 Base64 文本并解码
+     * @param in 提供 Base64 文本的输入流
+     * @return 解码输入流，严格模式下输入不合法时抛出 {@link IOException}
+     */
+    public InputStream wrap(InputStream in) {
+        return new DecoderInputStream(in);
+    }
+
+    /**
+     * 估算解码后的长度，不会小于实际长度
+     * @param trailingPadding 末尾 = 的数量，只有长度是 4 的倍数时才是真正的填充；
+     *     宽松模式下遇到 = 即停止解码，其它情况不能据此减少长度
+     */
+    private static int estimateDecodedLength(int length, int trailingPadding) {
+        if (length % 4 != 0) {
+            trailingPadding = 0;
+        }
+        int full = length / 4 * 3;
+        switch (length % 4) {
+            case 2:
+                full += 1;
+                break;
+            case 3:
+                full += 2;
+                break;
+            default:
+                break;
+        }
+        return Math.max(0, full - trailingPadding);
+    }
+
+    /**
+     * 带状态的编码器，流式编码时保存不足 3 字节的剩余数据和当前行的长度
+     */
+    private final class Encoder {
+
+        private int pending;
+        private int pendingCount;
+        private int lineColumn;
+
+        /**
+         * feed 或 finish 一次最多输出的字节数
+         */
+        int maxOutput(int length) {
+            int chars = ((pendingCount + length) / 3 + 1) * 4;
+            return lineLength > 0 ? chars + (chars / lineLength + 1) * LINE_SEPARATOR.length : chars;
+        }
+
+        int feed(byte[] src, int offset, int length, byte[] dst, int k) {
+            int i = offset;
+            int end = offset + length;
+            while (pendingCount > 0 && pendingCount < 3 && i < end) {
+                pending = (pending << 8) | (src[i++] & 0xff);
+                pendingCount++;
+            }
+            if (pendingCount == 3) {
+                k = writeQuantum(pending, dst, k);
+                pending = 0;
+                pendingCount = 0;
+            }
+            byte[] table = encodeTable;
+            for (; i + 3 <= end; i += 3) {
+                int bits = (src[i] & 0xff) << 16 | (src[i + 1] & 0xff) << 8 | (src[i + 2] & 0xff);
+                if (lineLength > 0) {
+                    k = writeQuantum(bits, dst, k);
+                } else {
+                    dst[k++] = table[bits >>> 18];
+                    dst[k++] = table[(bits >>> 12) & 0x3f];
+                    dst[k++] = table[(bits >>> 6) & 0x3f];
+                    dst[k++] = table[bits & 0x3f];
+                }
+            }
+            while (i < end) {
+                pending = (pending << 8) | (src[i++] & 0xff);
+                pendingCount++;
+            }
+            return k;
+        }
+
+        int finish(byte[] dst, int k) {
+            if (pendingCount == 0) {
+                return k;
+            }
+            k = separatorIfNeeded(dst, k);
+            byte[] table = encodeTable;
+            if (pendingCount == 1) {
+                int bits = pending << 16;
+                dst[k++] = table[bits >>> 18];
+                dst[k++] = table[(bits >>> 12) & 0x3f];
+                if (padding) {
+                    dst[k++] = '=';
+                    dst[k++] = '=';
+                }
+            } else {
+                int bits = pending << 8;
+                dst[k++] = table[bits >>> 18];
+                dst[k++] = table[(bits >>> 12) & 0x3f];
+                dst[k++] = table[(bits >>> 6) & 0x3f];
+                if (padding) {
+                    dst[k++] = '=';
+                }
+            }
+            pending = 0;
+            pendingCount = 0;
+            return k;
+        }
+
+        private int writeQuantum(int bits, byte[] dst, int k) {
+            k = separatorIfNeeded(dst, k);
+            byte[] table = encodeTable;
+            dst[k++] = table[bits >>> 18];
+            dst[k++] = table[(bits >>> 12) & 0x3f];
+            dst[k++] = table[(bits >>> 6) & 0x3f];
+            dst[k++] = table[bits & 0x3f];
+            lineColumn += 4;
+            return k;
+        }
+
+        /**
+         * 换行符只在下一组字符之前写入，因此结尾不会有多余的换行
+         */
+        private int separatorIfNeeded(byte[] dst, int k) {
+            if (lineLength > 0 && lineColumn >= lineLength) {
+                for (byte b : LINE_SEPARATOR) {
+                    dst[k++] = b;
+                }
+                lineColumn = 0;
+            }
+            return k;
+        }
+
+    }
+
+    /**
+     * 带状态的解码器，流式解码时保存不足 4 个字符的剩余数据
+     */
+    private final class Decoder {
+
+        private int bits;
+        private int count;
+        private int paddingCount;
+        boolean finished;
+
+        int feed(byte[] src, int offset, int length, byte[] dst, int k) {
+            int i = offset;
+            int end = offset + length;
+            byte[] table = decodeTable;
+            while (i < end && !finished) {
+                // 快速路径：一次处理 4 个合法字符
+                if (count == 0 && paddingCount == 0) {
+                    while (i + 4 <= end) {
+                        int b0 = table[src[i] & 0xff];
+                        int b1 = table[src[i + 1] & 0xff];
+                        int b2 = table[src[i + 2] & 0xff];
+                        int b3 = table[src[i + 3] & 0xff];
+                        if ((b0 | b1 | b2 | b3) < 0) {
+                            break;
+                        }
+                        int v = b0 << 18 | b1 << 12 | b2 << 6 | b3;
+                        dst[k++] = (byte) (v >> 16);
+                        dst[k++] = (byte) (v >> 8);
+                        dst[k++] = (byte) v;
+                        i += 4;
+                    }
+                    if (i >= end) {
+                        break;
+                    }
+                }
+                k = accept(src[i++] & 0xff, dst, k);
+            }
+            return k;
+        }
+
+        /**
+         * 处理一个字符
+         */
+        int accept(int c, byte[] dst, int k) {
+            int v = c < 256 ? decodeTable[c] : -1;
+            if (v >= 0) {
+                if (paddingCount > 0) {
+                    if (strict) {
+                        throw new IllegalArgumentException("unexpected character after padding: " + (char) c);
+                    }
+                    finished = true;
+                    return k;
+                }
+                bits = (bits << 6) | v;
+                if (++count == 4) {
+                    dst[k++] = (byte) (bits >> 16);
+                    dst[k++] = (byte) (bits >> 8);
+                    dst[k++] = (byte) bits;
+                    bits = 0;
+                    count = 0;
+                }
+            } else if (c == '=') {
+                if (!strict) {
+                    finished = true;
+                } else if (count < 2 || count + ++paddingCount > 4) {
+                    throw new IllegalArgumentException("illegal padding");
+                }
+            } else if (strict && !(lineLength > 0 && (c == '\r' || c == '\n'))) {
+                throw new IllegalArgumentException("illegal base64 character: " + (char) c);
+            }
+            return k;
+        }
+
+        int finish(byte[] dst, int k) {
+            if (strict) {
+                if (count == 1) {
+                    throw new IllegalArgumentException("truncated base64 input");
+                }
+                if (count > 1 && (paddingCount > 0 || padding) && count + paddingCount != 4) {
+                    throw new IllegalArgumentException("missing padding");
+                }
+            }
+            if (count == 2) {
+                dst[k++] = (byte) (bits >> 4);
+            } else if (count == 3) {
+                dst[k++] = (byte) (bits >> 10);
+                dst[k++] = (byte) (bits >> 2);
+            }
+            bits = 0;
+            count = 0;
+            paddingCount = 0;
+            finished = true;
+            return k;
+        }
+
+    }
+
+    private final class EncoderOutputStream extends FilterOutputStream {
+
+        private final Encoder encoder = new Encoder();
+        private final byte[] buffer = new byte[encoder.maxOutput(STREAM_BUFFER_SIZE)];
+        private boolean closed;
+
+        EncoderOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("stream closed");
+            }
+            while (len > 0) {
+                int n = Math.min(len, STREAM_BUFFER_SIZE);
+                out.write(buffer, 0, encoder.feed(b, off, n, buffer, 0));
+                off += n;
+                len -= n;
+            }
+        }
+
+        /**
+         * 写入剩余数据和填充后关闭，关闭前只能 flush 已经完整编码的部分
+         */
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            out.write(buffer, 0, encoder.finish(buffer, 0));
+            out.close();
+        }
+
+    }
+
+    private final class DecoderInputStream extends FilterInputStream {
+
+        private final Decoder decoder = new Decoder();
+        private final byte[] inBuffer = new byte[STREAM_BUFFER_SIZE];
+        private final byte[] outBuffer = new byte[STREAM_BUFFER_SIZE / 4 * 3 + 3];
+        private int outPosition;
+        private int outLimit;
+        private boolean eof;
+
+        DecoderInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!fill()) {
+                return -1;
+            }
+            return outBuffer[outPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!fill()) {
+                return -1;
+            }
+            int n = Math.min(len, outLimit - outPosition);
+            System.arraycopy(outBuffer, outPosition, b, off, n);
+            outPosition += n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = 0;
+            while (skipped < n && fill()) {
+                int step = (int) Math.min(n - skipped, outLimit - outPosition);
+                outPosition += step;
+                skipped += step;
+            }
+            return skipped;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return outLimit - outPosition;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public synchronized void mark(int readlimit) {
+
+        }
+
+        @Override
+        public synchronized void reset() throws IOException {
+            throw new IOException("mark/reset not supported");
+        }
+
+        /**
+         * 保证输出缓冲区中有数据
+         * @return 没有更多数据时返回 false
+         */
+        private boolean fill() throws IOException {
+            while (outPosition >= outLimit) {
+                if (eof) {
+                    return false;
+                }
+                outPosition = 0;
+                try {
+                    int n = decoder.finished ? -1 : in.read(inBuffer);
+                    if (n == -1) {
+                        eof = true;
+                        outLimit = decoder.finish(outBuffer, 0);
+                    } else {
+                        outLimit = decoder.feed(inBuffer, 0, n, outBuffer, 0);
+                    }
+                } catch (IllegalArgumentException e) {
+                    throw new IOException(e);
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,563 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 对象的紧凑二进制编码<br>
+ *     每个值以一个类型标记开头，之后是 {@link BinaryWriter} 格式的内容，支持：
+ *     <ul>
+ *         <li>null 、装箱的基本类型、String</li>
+ *         <li>基本类型数组和对象数组</li>
+ *         <li>枚举（按类名和常量名保存）</li>
+ *         <li>{@link List} 、{@link Set} 、{@link Map} （解码为 ArrayList 、LinkedHashSet 、LinkedHashMap）</li>
+ *         <li>通过 {@link #register(Class, int, Adapter)} 注册的类，按注册时指定的编号保存，不受混淆影响</li>
+ *     </ul>
+ *     编码时按值的类在分派表中查找，不使用反射；注册应在 Application 启动时完成，之后可以在多个线程中同时编码/解码
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class BinaryCodec {
+
+    /**
+     * 自定义类的编码方式，嵌套的对象可以用 {@link BinaryCodec#write(BinaryWriter, Object)} 和 {@link BinaryCodec#read(BinaryReader)} 读写
+     * @param <T> 类型
+     */
+    public interface Adapter<T> {
+
+        void write(BinaryWriter out, T value);
+
+        T read(BinaryReader in);
+
+    }
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_FALSE = 1;
+    private static final int TAG_TRUE = 2;
+    private static final int TAG_BYTE = 3;
+    private static final int TAG_SHORT = 4;
+    private static final int TAG_CHAR = 5;
+    private static final int TAG_INT = 6;
+    private static final int TAG_LONG = 7;
+    private static final int TAG_FLOAT = 8;
+    private static final int TAG_DOUBLE = 9;
+    private static final int TAG_STRING = 10;
+    private static final int TAG_BOOLEAN_ARRAY = 11;
+    private static final int TAG_BYTE_ARRAY = 12;
+    private static final int TAG_SHORT_ARRAY = 13;
+    private static final int TAG_CHAR_ARRAY = 14;
+    private static final int TAG_INT_ARRAY = 15;
+    private static final int TAG_LONG_ARRAY = 16;
+    private static final int TAG_FLOAT_ARRAY = 17;
+    private static final int TAG_DOUBLE_ARRAY = 18;
+    private static final int TAG_OBJECT_ARRAY = 19;
+    private static final int TAG_ENUM = 20;
+    private static final int TAG_LIST = 21;
+    private static final int TAG_SET = 22;
+    private static final int TAG_MAP = 23;
+    private static final int TAG_REGISTERED = 24;
+
+    /**
+     * 内置类型的分派表，静态初始化后不再修改
+     */
+    private static final Map<Class<?>, Integer> BUILTIN_TAGS = new HashMap<>();
+    private static final ConcurrentHashMap<Class<?>, Registration<?>> registrationsByClass = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, Registration<?>> registrationsById = new ConcurrentHashMap<>();
+
+    static {
+        BUILTIN_TAGS.put(Boolean.class, TAG_FALSE);
+        BUILTIN_TAGS.put(Byte.class, TAG_BYTE);
+        BUILTIN_TAGS.put(Short.class, TAG_SHORT);
+        BUILTIN_TAGS.put(Character.class, TAG_CHAR);
+        BUILTIN_TAGS.put(Integer.class, TAG_INT);
+        BUILTIN_TAGS.put(Long.class, TAG_LONG);
+        BUILTIN_TAGS.put(Float.class, TAG_FLOAT);
+        BUILTIN_TAGS.put(Double.class, TAG_DOUBLE);
+        BUILTIN_TAGS.put(String.class, TAG_STRING);
+        BUILTIN_TAGS.put(boolean[].class, TAG_BOOLEAN_ARRAY);
+        BUILTIN_TAGS.put(byte[].class, TAG_BYTE_ARRAY);
+        BUILTIN_TAGS.put(short[].class, TAG_SHORT_ARRAY);
+        BUILTIN_TAGS.put(char[].class, TAG_CHAR_ARRAY);
+        BUILTIN_TAGS.put(int[].class, TAG_INT_ARRAY);
+        BUILTIN_TAGS.put(long[].class, TAG_LONG_ARRAY);
+        BUILTIN_TAGS.put(float[].class, TAG_FLOAT_ARRAY);
+        BUILTIN_TAGS.put(double[].class, TAG_DOUBLE_ARRAY);
+    }
+
+    private static final class Registration<T> {
+
+        final Class<T> type;
+        final int id;
+        final Adapter<T> adapter;
+
+        Registration(Class<T> type, int id, Adapter<T> adapter) {
+            this.type = type;
+            this.id = id;
+            this.adapter = adapter;
+        }
+
+    }
+
+    private BinaryCodec() {
+
+    }
+
+    /**
+     * 注册自定义类，只匹配这个类本身，不匹配子类
+     * @param type 类
+     * @param id 编号，保存在编码结果中，不能重复，修改后无法解码之前的数据
+     * @param adapter 编码方式
+     * @param <T> 类型
+     * @throws IllegalArgumentException 类或编号已被注册
+     */
+    public static synchronized <T> void register(Class<T> type, int id, Adapter<T> adapter) {
+        if (BUILTIN_TAGS.containsKey(type) || registrationsByClass.containsKey(type)) {
+            throw new IllegalArgumentException(type.getName() + " is already registered");
+        }
+        if (registrationsById.containsKey(id)) {
+            throw new IllegalArgumentException("id " + id + " is already used by " + registrationsById.get(id).type.getName());
+        }
+        Registration<T> registration = new Registration<>(type, id, adapter);
+        registrationsById.put(id, registration);
+        registrationsByClass.put(type, registration);
+    }
+
+    /**
+     * 是否能够编码这个对象，只检查对象本身的类，不检查集合中的元素
+     * @param value 对象
+     * @return 是否能够编码
+     */
+    public static boolean isSupported(@Nullable Object value) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        return BUILTIN_TAGS.containsKey(type) || registrationsByClass.containsKey(type) || value instanceof Enum
+                || type.isArray() || value instanceof List || value instanceof Set || value instanceof Map;
+    }
+
+    /**
+     * 解码后是否能得到与原来相同的类型：集合只接受 ArrayList 、HashSet 、LinkedHashSet 、HashMap 、LinkedHashMap （HashSet 和 HashMap 解码为其子类），
+     *     并递归检查其中的元素；注册的类由其 {@link Adapter} 负责
+     * @param value 对象
+     * @return 是否能得到相同的类型
+     */
+    static boolean preservesType(@Nullable Object value) {
+        if (value == null) {
+            return true;
+        }
+        Class<?> type = value.getClass();
+        if (BUILTIN_TAGS.containsKey(type) || registrationsByClass.containsKey(type) || value instanceof Enum) {
+            return true;
+        }
+        if (type.isArray()) {
+            for (Object element : (Object[]) value) {
+                if (!preservesType(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (type == ArrayList.class || type == HashSet.class || type == LinkedHashSet.class) {
+            for (Object element : (Collection<?>) value) {
+                if (!preservesType(element)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (type == HashMap.class || type == LinkedHashMap.class) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!preservesType(entry.getKey()) || !preservesType(entry.getValue())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 编码
+     * @param value 对象
+     * @return 编码结果
+     * @throws IllegalArgumentException 对象或其中的元素不被支持
+     */
+    public static byte[] encode(@Nullable Object value) {
+        BinaryWriter out = new BinaryWriter();
+        write(out, value);
+        return out.toByteArray();
+    }
+
+    /**
+     * 解码
+     * @param data {@link #encode(Object)} 的结果
+     * @param <T> 类型，自动强制类型转换
+     * @return 对象
+     * @throws IllegalArgumentException 数据格式错误或含有未注册的类
+     */
+    public static <T> T decode(byte[] data) {
+        BinaryReader in = new BinaryReader(data);
+        T value = read(in);
+        if (in.hasRemaining()) {
+            throw new IllegalArgumentException(in.remaining() + " trailing bytes");
+        }
+        return value;
+    }
+
+    /**
+     * 编码为 Base64 字符串
+     * @param value 对象
+     * @return Base64 字符串
+     */
+    public static String encodeToString(@Nullable Object value) {
+        return Base64Codec.STANDARD.encodeToString(encode(value));
+    }
+
+    /**
+     * 解码 {@link #encodeToString(Object)} 的结果
+     * @param s Base64 字符串
+     * @param <T> 类型，自动强制类型转换
+     * @return 对象
+     */
+    public static <T> T decodeString(CharSequence s) {
+        return decode(Base64Codec.STANDARD.decode(s));
+    }
+
+    /**
+     * 写入一个带类型标记的值
+     * @param out 写入器
+     * @param value 值
+     */
+    public static void write(BinaryWriter out, @Nullable Object value) {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+        Class<?> type = value.getClass();
+        Integer tag = BUILTIN_TAGS.get(type);
+        if (tag != null) {
+            writeBuiltin(out, tag, value);
+            return;
+        }
+        Registration<?> registration = registrationsByClass.get(type);
+        if (registration != null) {
+            out.writeByte(TAG_REGISTERED);
+            out.writeVarInt(registration.id);
+            writeRegistered(out, registration, value);
+        } else if (value instanceof Enum) {
+            Enum<?> e = (Enum<?>) value;
+            out.writeByte(TAG_ENUM);
+            out.writeString(e.getDeclaringClass().getName());
+            out.writeString(e.name());
+        } else if (type.isArray()) {
+            checkComponentType(type.getComponentType());
+            Object[] array = (Object[]) value;
+            out.writeByte(TAG_OBJECT_ARRAY);
+            out.writeString(type.getComponentType().getName());
+            out.writeVarInt(array.length);
+            for (Object element : array) {
+                write(out, element);
+            }
+        } else if (value instanceof List) {
+            out.writeByte(TAG_LIST);
+            writeCollection(out, (Collection<?>) value);
+        } else if (value instanceof Set) {
+            out.writeByte(TAG_SET);
+            writeCollection(out, (Collection<?>) value);
+        } else if (value instanceof Map) {
+            Map<?, ?> map = (Map<?, ?>) value;
+            out.writeByte(TAG_MAP);
+            out.writeVarInt(map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                write(out, entry.getKey());
+                write(out, entry.getValue());
+            }
+        } else {
+            throw new IllegalArgumentException("unsupported class " + type.getName());
+        }
+    }
+
+    /**
+     * List 、Set 、Map 总是解码为 {@link ArrayList} 、{@link LinkedHashSet} 、{@link LinkedHashMap} ，
+     * 数组的元素类型必须能够容纳它们，否则编码成功但无法解码
+     * @throws IllegalArgumentException 元素类型不能容纳解码结果
+     */
+    private static void checkComponentType(Class<?> componentType) {
+        if (registrationsByClass.containsKey(componentType)) {
+            return;
+        }
+        if ((List.class.isAssignableFrom(componentType) && !componentType.isAssignableFrom(ArrayList.class))
+                || (Set.class.isAssignableFrom(componentType) && !componentType.isAssignableFrom(LinkedHashSet.class))
+                || (Map.class.isAssignableFrom(componentType) && !componentType.isAssignableFrom(LinkedHashMap.class))) {
+            throw new IllegalArgumentException("unsupported array component type " + componentType.getName());
+        }
+    }
+
+    private static <T> void writeRegistered(BinaryWriter out, Registration<T> registration, Object value) {
+        registration.adapter.write(out, registration.type.cast(value));
+    }
+
+    private static void writeCollection(BinaryWriter out, Collection<?> collection) {
+        out.writeVarInt(collection.size());
+        for (Object element : collection) {
+            write(out, element);
+        }
+    }
+
+    private static void writeBuiltin(BinaryWriter out, int tag, Object value) {
+        switch (tag) {
+            case TAG_FALSE:
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+                return;
+            case TAG_BYTE:
+                out.writeByte(tag).writeByte((Byte) value);
+                return;
+            case TAG_SHORT:
+                out.writeByte(tag).writeSignedVarInt((Short) value);
+                return;
+            case TAG_CHAR:
+                out.writeByte(tag).writeVarInt((Character) value);
+                return;
+            case TAG_INT:
+                out.writeByte(tag).writeSignedVarInt((Integer) value);
+                return;
+            case TAG_LONG:
+                out.writeByte(tag).writeSignedVarLong((Long) value);
+                return;
+            case TAG_FLOAT:
+                out.writeByte(tag).writeFloat((Float) value);
+                return;
+            case TAG_DOUBLE:
+                out.writeByte(tag).writeDouble((Double) value);
+                return;
+            case TAG_STRING:
+                out.writeByte(tag).writeString((String) value);
+                return;
+            case TAG_BYTE_ARRAY:
+                out.writeByte(tag).writeByteArray((byte[]) value);
+                return;
+            default:
+                break;
+        }
+        out.writeByte(tag);
+        int length = Array.getLength(value);
+        out.writeVarInt(length);
+        switch (tag) {
+            case TAG_BOOLEAN_ARRAY:
+                for (boolean b : (boolean[]) value) {
+                    out.writeBoolean(b);
+                }
+                break;
+            case TAG_SHORT_ARRAY:
+                for (short s : (short[]) value) {
+                    out.writeSignedVarInt(s);
+                }
+                break;
+            case TAG_CHAR_ARRAY:
+                for (char c : (char[]) value) {
+                    out.writeVarInt(c);
+                }
+                break;
+            case TAG_INT_ARRAY:
+                for (int i : (int[]) value) {
+                    out.writeSignedVarInt(i);
+                }
+                break;
+            case TAG_LONG_ARRAY:
+                for (long l : (long[]) value) {
+                    out.writeSignedVarLong(l);
+                }
+                break;
+            case TAG_FLOAT_ARRAY:
+                for (float f : (float[]) value) {
+                    out.writeFloat(f);
+                }
+                break;
+            case TAG_DOUBLE_ARRAY:
+                for (double d : (double[]) value) {
+                    out.writeDouble(d);
+                }
+                break;
+            default:
+                throw new IllegalStateException("unknown tag " + tag);
+        }
+    }
+
+    /**
+     * 读取一个带类型标记的值
+     * @param in 读取器
+     * @param <T> 类型，自动强制类型转换
+     * @return 值
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T read(BinaryReader in) {
+        return (T) readValue(in);
+    }
+
+    private static Object readValue(BinaryReader in) {
+        int tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_SHORT:
+                return (short) in.readSignedVarInt();
+            case TAG_CHAR:
+                return (char) in.readVarInt();
+            case TAG_INT:
+                return in.readSignedVarInt();
+            case TAG_LONG:
+                return in.readSignedVarLong();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_STRING:
+                return in.readString();
+            case TAG_BYTE_ARRAY:
+                return in.readByteArray();
+            case TAG_BOOLEAN_ARRAY: {
+                boolean[] array = new boolean[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readBoolean();
+                }
+                return array;
+            }
+            case TAG_SHORT_ARRAY: {
+                short[] array = new short[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (short) in.readSignedVarInt();
+                }
+                return array;
+            }
+            case TAG_CHAR_ARRAY: {
+                char[] array = new char[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = (char) in.readVarInt();
+                }
+                return array;
+            }
+            case TAG_INT_ARRAY: {
+                int[] array = new int[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readSignedVarInt();
+                }
+                return array;
+            }
+            case TAG_LONG_ARRAY: {
+                long[] array = new long[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readSignedVarLong();
+                }
+                return array;
+            }
+            case TAG_FLOAT_ARRAY: {
+                float[] array = new float[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readFloat();
+                }
+                return array;
+            }
+            case TAG_DOUBLE_ARRAY: {
+                double[] array = new double[readLength(in)];
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = in.readDouble();
+                }
+                return array;
+            }
+            case TAG_OBJECT_ARRAY: {
+                Class<?> componentType = loadClass(in.readString());
+                Object[] array = (Object[]) Array.newInstance(componentType, readLength(in));
+                for (int i = 0; i < array.length; i++) {
+                    try {
+                        array[i] = readValue(in);
+                    } catch (ArrayStoreException e) {
+                        throw new IllegalArgumentException("element " + i + " is not a " + componentType.getName(), e);
+                    }
+                }
+                return array;
+            }
+            case TAG_ENUM:
+                return readEnum(loadClass(in.readString()), in.readString());
+            case TAG_LIST: {
+                int size = readLength(in);
+                List<Object> list = new ArrayList<>(size);
+                for (int i = 0; i < size; i++) {
+                    list.add(readValue(in));
+                }
+                return list;
+            }
+            case TAG_SET: {
+                int size = readLength(in);
+                Set<Object> set = new LinkedHashSet<>(size * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    set.add(readValue(in));
+                }
+                return set;
+            }
+            case TAG_MAP: {
+                int size = readLength(in);
+                Map<Object, Object> map = new LinkedHashMap<>(size * 4 / 3 + 1);
+                for (int i = 0; i < size; i++) {
+                    Object key = readValue(in);
+                    map.put(key, readValue(in));
+                }
+                return map;
+            }
+            case TAG_REGISTERED: {
+                int id = in.readVarInt();
+                Registration<?> registration = registrationsById.get(id);
+                if (registration == null) {
+                    throw new IllegalArgumentException("no class registered with id " + id);
+                }
+                return registration.adapter.read(in);
+            }
+            default:
+                throw new IllegalArgumentException("unknown tag " + tag);
+        }
+    }
+
+    /**
+     * 读取长度，每个元素至少占一个字节，长度超过剩余字节数时数据一定是错误的
+     */
+    private static int readLength(BinaryReader in) {
+        int length = in.readVarInt();
+        if (length < 0 || length > in.remaining()) {
+            throw new IllegalArgumentException("illegal length " + length);
+        }
+        return length;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static Object readEnum(Class<?> type, String name) {
+        if (!type.isEnum()) {
+            throw new IllegalArgumentException(type.getName() + " is not an enum");
+        }
+        return Enum.valueOf((Class) type, name);
+    }
+
+    private static Class<?> loadClass(String name) {
+        try {
+            return Class.forName(name, false, BinaryCodec.class.getClassLoader());
+        } catch (ClassNotFoundException e) {
+            throw new IllegalArgumentException("class not found: " + name, e);
+        }
+    }
+
+}
@@ -0,0 +1,164 @@
+package moe.haruue.util;
+
+import java.nio.charset.Charset;
+
+/**
+ * 读取 {@link BinaryWriter} 写入的数据<br>
+ *     数据不完整或格式错误时抛出 {@link IllegalArgumentException} ；不是线程安全的
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class BinaryReader {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    public BinaryReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BinaryReader(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length + ", size " + data.length);
+        }
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    private void require(int count) {
+        if (count < 0 || limit - position < count) {
+            throw new IllegalArgumentException("truncated data at " + position);
+        }
+    }
+
+    public byte readByte() {
+        require(1);
+        return data[position++];
+    }
+
+    public boolean readBoolean() {
+        return readByte() != 0;
+    }
+
+    public int readVarInt() {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            value |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint at " + position);
+    }
+
+    public int readSignedVarInt() {
+        int value = readVarInt();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            value |= (long) (b & 0x7f) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed varint at " + position);
+    }
+
+    public long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    public int readFixedInt() {
+        require(4);
+        byte[] b = data;
+        int p = position;
+        position = p + 4;
+        return (b[p] & 0xff) | (b[p + 1] & 0xff) << 8 | (b[p + 2] & 0xff) << 16 | b[p + 3] << 24;
+    }
+
+    public long readFixedLong() {
+        long low = readFixedInt() & 0xffffffffL;
+        return low | (long) readFixedInt() << 32;
+    }
+
+    public float readFloat() {
+        return Float.intBitsToFloat(readFixedInt());
+    }
+
+    public double readDouble() {
+        return Double.longBitsToDouble(readFixedLong());
+    }
+
+    /**
+     * 读取 {@link BinaryWriter#writeByteArray(byte[])} 写入的数据
+     * @return 数据
+     */
+    public byte[] readByteArray() {
+        return readRaw(readVarInt());
+    }
+
+    /**
+     * 读取原始字节，与 {@link BinaryWriter#writeRaw(byte[], int, int)} 对应
+     * @param length 字节数
+     * @return 数据
+     */
+    public byte[] readRaw(int length) {
+        require(length);
+        byte[] result = new byte[length];
+        System.arraycopy(data, position, result, 0, length);
+        position += length;
+        return result;
+    }
+
+    public String readString() {
+        int length = readVarInt();
+        require(length);
+        int start = position;
+        int end = start + length;
+        // ASCII 的快速路径
+        char[] chars = null;
+        for (int i = start; i < end; i++) {
+            if (data[i] < 0) {
+                position = end;
+                return new String(data, start, length, UTF_8);
+            }
+            if (chars == null) {
+                chars = new char[length];
+            }
+            chars[i - start] = (char) data[i];
+        }
+        position = end;
+        return chars == null ? "" : new String(chars);
+    }
+
+    /**
+     * 跳过若干字节
+     * @param count 字节数
+     */
+    public void skip(int count) {
+        require(count);
+        position += count;
+    }
+
+    /**
+     * 剩余未读的字节数
+     * @return 字节数
+     */
+    public int remaining() {
+        return limit - position;
+    }
+
+    public boolean hasRemaining() {
+        return position < limit;
+    }
+
+}
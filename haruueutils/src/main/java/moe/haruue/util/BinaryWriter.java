@@ -0,0 +1,218 @@
+package moe.haruue.util;
+
+import java.util.Arrays;
+
+/**
+ * 紧凑的二进制写入器，与 {@link BinaryReader} 配合使用<br>
+ *     整数使用变长编码（LEB128，有符号数先做 ZigZag 变换），小的数只占一个字节；浮点数按小端序写入；
+ *     字符串写入长度前缀和 UTF-8 字节，编码直接写入缓冲区，不经过中间的 byte[]<br>
+ *     缓冲区自动增长，可以用 {@link #reset()} 清空后重复使用；不是线程安全的
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class BinaryWriter {
+
+    private byte[] buffer;
+    private int position;
+
+    public BinaryWriter() {
+        this(64);
+    }
+
+    /**
+     * @param capacity 初始容量
+     */
+    public BinaryWriter(int capacity) {
+        buffer = new byte[Math.max(capacity, 16)];
+    }
+
+    private void ensureCapacity(int extra) {
+        int required = position + extra;
+        if (required < 0) {
+            throw new OutOfMemoryError("BinaryWriter too large");
+        }
+        if (required > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(required, buffer.length * 2));
+        }
+    }
+
+    public BinaryWriter writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter writeBoolean(boolean value) {
+        return writeByte(value ? 1 : 0);
+    }
+
+    /**
+     * 写入无符号变长整数，负数会占用 5 个字节，请使用 {@link #writeSignedVarInt(int)}
+     * @param value 值
+     * @return 本实例
+     */
+    public BinaryWriter writeVarInt(int value) {
+        ensureCapacity(5);
+        while ((value & ~0x7f) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    /**
+     * 写入有符号变长整数，绝对值小的负数也只占很少的字节
+     * @param value 值
+     * @return 本实例
+     */
+    public BinaryWriter writeSignedVarInt(int value) {
+        return writeVarInt((value << 1) ^ (value >> 31));
+    }
+
+    public BinaryWriter writeVarLong(long value) {
+        ensureCapacity(10);
+        while ((value & ~0x7fL) != 0) {
+            buffer[position++] = (byte) ((value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+        return this;
+    }
+
+    public BinaryWriter writeSignedVarLong(long value) {
+        return writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * 写入定长 4 字节小端序整数
+     * @param value 值
+     * @return 本实例
+     */
+    public BinaryWriter writeFixedInt(int value) {
+        ensureCapacity(4);
+        buffer[position++] = (byte) value;
+        buffer[position++] = (byte) (value >> 8);
+        buffer[position++] = (byte) (value >> 16);
+        buffer[position++] = (byte) (value >> 24);
+        return this;
+    }
+
+    /**
+     * 写入定长 8 字节小端序整数
+     * @param value 值
+     * @return 本实例
+     */
+    public BinaryWriter writeFixedLong(long value) {
+        writeFixedInt((int) value);
+        return writeFixedInt((int) (value >> 32));
+    }
+
+    public BinaryWriter writeFloat(float value) {
+        return writeFixedInt(Float.floatToIntBits(value));
+    }
+
+    public BinaryWriter writeDouble(double value) {
+        return writeFixedLong(Double.doubleToLongBits(value));
+    }
+
+    /**
+     * 写入长度前缀和原始字节
+     * @param data 数据
+     * @return 本实例
+     */
+    public BinaryWriter writeByteArray(byte[] data) {
+        return writeByteArray(data, 0, data.length);
+    }
+
+    public BinaryWriter writeByteArray(byte[] data, int offset, int length) {
+        writeVarInt(length);
+        return writeRaw(data, offset, length);
+    }
+
+    /**
+     * 写入原始字节，不带长度
+     * @return 本实例
+     */
+    public BinaryWriter writeRaw(byte[] data, int offset, int length) {
+        ensureCapacity(length);
+        System.arraycopy(data, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * 写入 UTF-8 字节数前缀和 UTF-8 编码的字符串，不成对的代理字符写为 ?
+     * @param s 字符串
+     * @return 本实例
+     */
+    public BinaryWriter writeString(String s) {
+        int length = s.length();
+        int utf8Length = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                utf8Length++;
+            } else if (c < 0x800) {
+                utf8Length += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                utf8Length += 4;
+                i++;
+            } else if (c >= '\uD800' && c <= '\uDFFF') {
+                utf8Length++;
+            } else {
+                utf8Length += 3;
+            }
+        }
+        writeVarInt(utf8Length);
+        ensureCapacity(utf8Length);
+        byte[] b = buffer;
+        int p = position;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                b[p++] = (byte) c;
+            } else if (c < 0x800) {
+                b[p++] = (byte) (0xc0 | (c >> 6));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, s.charAt(++i));
+                b[p++] = (byte) (0xf0 | (cp >> 18));
+                b[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                b[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (c >= '\uD800' && c <= '\uDFFF') {
+                b[p++] = '?';
+            } else {
+                b[p++] = (byte) (0xe0 | (c >> 12));
+                b[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                b[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        position = p;
+        return this;
+    }
+
+    /**
+     * 已写入的字节数
+     * @return 字节数
+     */
+    public int size() {
+        return position;
+    }
+
+    /**
+     * 清空已写入的数据，保留缓冲区
+     */
+    public void reset() {
+        position = 0;
+    }
+
+    /**
+     * 复制已写入的数据
+     * @return 已写入的数据
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+}
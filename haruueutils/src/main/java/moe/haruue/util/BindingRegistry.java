@@ -0,0 +1,313 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对象与线程（或任务）之间的绑定表<br>
+ *     同时维护 对象 -> 条目 的正向索引和 条目 -> 对象 的反向索引，两个方向的查找都是 O(1) 的<br>
+ *     对象和条目都以弱引用按同一性保存：条目（例如捕获了 Activity 的 Runnable）不会通过这张表让对象保持可达，
+ *     对象被回收后与它绑定的条目会自动清除，不会造成 Activity 泄漏；
+ *     尚未完成的条目由线程池或计时器持有，不会因为弱引用而丢失<br>
+ *     内部使用 {@link ConcurrentHashMap} ，没有全局锁
+ * @param <T> 被绑定的条目类型，如 {@link Thread}
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+class BindingRegistry<T> {
+
+    /**
+     * 每绑定这么多次就清理一次失效的条目
+     */
+    private static final int REAP_INTERVAL = 64;
+
+    private final ConcurrentHashMap<Object, Binding> forward = new ConcurrentHashMap<>();
+    /**
+     * 键为条目的 {@link WeakIdentityKey}
+     */
+    private final ConcurrentHashMap<Object, Binding> reverse = new ConcurrentHashMap<>();
+    private final ReferenceQueue<Object> queue = new ReferenceQueue<>();
+    private final ReferenceQueue<Object> itemQueue = new ReferenceQueue<>();
+    private final AtomicInteger bindCount = new AtomicInteger(0);
+
+    /**
+     * 判断一个条目是否已经失效，失效的条目会被自动清除
+     * @param item 条目
+     * @return 是否失效
+     */
+    protected boolean isStale(T item) {
+        return false;
+    }
+
+    /**
+     * 绑定条目和对象，一个条目只能绑定一个对象，重复绑定会替换之前的对象
+     * @param item 条目
+     * @param object 对象
+     */
+    void bind(T item, Object object) {
+        expungeClearedKeys();
+        WeakIdentityKey itemKey = new WeakIdentityKey(item, itemQueue);
+        Binding binding;
+        do {
+            binding = obtainBinding(object);
+            Binding old = reverse.put(itemKey, binding);
+            if (old != null && old != binding) {
+                old.items.remove(itemKey);
+            }
+            binding.items.add(itemKey);
+            // 与 unbindObject 并发时 binding 可能已被移除，此时重新绑定
+        } while (forward.get(binding.key) != binding && reverse.get(itemKey) == binding);
+        if (reverse.get(itemKey) != binding) {
+            // 已被并发的 unbindObject 解除，不在已移除的 binding 中留下条目
+            binding.items.remove(itemKey);
+        }
+        if (bindCount.incrementAndGet() % REAP_INTERVAL == 0) {
+            reap();
+        }
+    }
+
+    /**
+     * 解除条目的绑定
+     * @param item 条目
+     */
+    void unbind(T item) {
+        unbindKey(new LookupKey(item));
+    }
+
+    private void unbindKey(Object itemKey) {
+        Binding binding = reverse.remove(itemKey);
+        if (binding != null) {
+            binding.items.remove(itemKey);
+        }
+    }
+
+    /**
+     * 解除对象绑定的所有条目
+     * @param object 对象
+     */
+    void unbindObject(Object object) {
+        Binding binding = forward.remove(new LookupKey(object));
+        if (binding != null) {
+            for (WeakIdentityKey itemKey : binding.items) {
+                reverse.remove(itemKey, binding);
+            }
+        }
+    }
+
+    /**
+     * 查找与对象绑定的所有有效条目
+     * @param object 对象
+     * @return 条目列表，没有时返回空列表
+     */
+    ArrayList<T> find(Object object) {
+        expungeClearedKeys();
+        Binding binding = forward.get(new LookupKey(object));
+        if (binding == null) {
+            return new ArrayList<>(0);
+        }
+        ArrayList<T> list = new ArrayList<>(binding.items.size());
+        for (WeakIdentityKey itemKey : binding.items) {
+            T item = itemOf(itemKey);
+            if (item == null) {
+                binding.items.remove(itemKey);
+                unbindKey(itemKey);
+            } else if (!unbindIfStale(itemKey, item)) {
+                list.add(item);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 查找条目绑定的对象
+     * @param item 条目
+     * @return 绑定的对象，没有绑定或对象已被回收时返回 null
+     */
+    @Nullable
+    Object findObject(T item) {
+        Binding binding = reverse.get(new LookupKey(item));
+        return binding == null ? null : binding.key.get();
+    }
+
+    /**
+     * 清除所有失效的条目和已被回收的对象
+     */
+    void reap() {
+        expungeClearedKeys();
+        for (Object itemKey : reverse.keySet()) {
+            T item = itemOf(itemKey);
+            if (item == null) {
+                unbindKey(itemKey);
+            } else {
+                unbindIfStale(itemKey, item);
+            }
+        }
+    }
+
+    /**
+     * 条目失效时解除绑定；解除后再检查一次，并发地重新变为有效（例如防抖器再次开始计时）的条目会恢复绑定
+     * @return 是否已解除绑定
+     */
+    private boolean unbindIfStale(Object itemKey, T item) {
+        if (!isStale(item)) {
+            return false;
+        }
+        Binding binding = reverse.get(itemKey);
+        if (binding == null || !reverse.remove(itemKey, binding)) {
+            return true;
+        }
+        binding.items.remove(itemKey);
+        if (!isStale(item) && forward.get(binding.key) == binding) {
+            WeakIdentityKey restored = new WeakIdentityKey(item, itemQueue);
+            if (reverse.putIfAbsent(restored, binding) == null) {
+                binding.items.add(restored);
+            }
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * 获取所有已绑定条目的快照
+     * @return 条目列表
+     */
+    ArrayList<T> items() {
+        ArrayList<T> list = new ArrayList<>(reverse.size());
+        for (Object itemKey : reverse.keySet()) {
+            T item = itemOf(itemKey);
+            if (item != null) {
+                list.add(item);
+            }
+        }
+        return list;
+    }
+
+    /**
+     * 获取绑定的条目总数
+     * @return 条目总数
+     */
+    int size() {
+        expungeClearedKeys();
+        return reverse.size();
+    }
+
+    @SuppressWarnings("unchecked")
+    @Nullable
+    private T itemOf(Object itemKey) {
+        return (T) referentOf(itemKey);
+    }
+
+    private Binding obtainBinding(Object object) {
+        Binding binding = forward.get(new LookupKey(object));
+        if (binding == null) {
+            Binding created = new Binding(new WeakIdentityKey(object, queue));
+            binding = forward.putIfAbsent(created.key, created);
+            if (binding == null) {
+                binding = created;
+            }
+        }
+        return binding;
+    }
+
+    private void expungeClearedKeys() {
+        Object key;
+        while ((key = queue.poll()) != null) {
+            Binding binding = forward.remove(key);
+            if (binding != null) {
+                for (WeakIdentityKey itemKey : binding.items) {
+                    reverse.remove(itemKey, binding);
+                }
+            }
+        }
+        while ((key = itemQueue.poll()) != null) {
+            unbindKey(key);
+        }
+    }
+
+    /**
+     * 取得键所指向的对象，键可以是 {@link LookupKey} 或 {@link WeakIdentityKey}
+     */
+    @Nullable
+    static Object referentOf(Object key) {
+        if (key instanceof WeakIdentityKey) {
+            return ((WeakIdentityKey) key).get();
+        } else if (key instanceof LookupKey) {
+            return ((LookupKey) key).object;
+        }
+        return null;
+    }
+
+    /**
+     * 一个对象和与之绑定的所有条目的弱引用
+     */
+    private static final class Binding {
+
+        final WeakIdentityKey key;
+        final Set<WeakIdentityKey> items = Collections.newSetFromMap(new ConcurrentHashMap<WeakIdentityKey, Boolean>(4));
+
+        Binding(WeakIdentityKey key) {
+            this.key = key;
+        }
+
+    }
+
+    /**
+     * 用于查找的临时键，强引用对象，按同一性比较
+     */
+    static final class LookupKey {
+
+        private final Object object;
+        private final int hash;
+
+        LookupKey(Object object) {
+            this.object = object;
+            this.hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o != null && referentOf(o) == object);
+        }
+
+    }
+
+    /**
+     * 保存在表中的键，弱引用对象，按同一性比较，对象被回收后只与自己相等
+     */
+    static final class WeakIdentityKey extends WeakReference<Object> {
+
+        private final int hash;
+
+        WeakIdentityKey(Object object, @Nullable ReferenceQueue<Object> queue) {
+            super(object, queue);
+            this.hash = System.identityHashCode(object);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            Object referent = get();
+            return referent != null && o != null && referentOf(o) == referent;
+        }
+
+    }
+
+}
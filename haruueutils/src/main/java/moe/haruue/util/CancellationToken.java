@@ -0,0 +1,110 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+
+/**
+ * 取消标记<br>
+ *     每条 {@link Task} 链共用一个取消标记，标记与创建任务时传入的对象绑定（只保存弱引用），
+ *     对该对象调用 {@link ThreadUtils#interruptThreadsByObject(Object, boolean)} 会取消这个标记，
+ *     此后链上所有未完成的任务都会以取消状态结束，尚未运行的 UI 线程回调也会被丢弃
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class CancellationToken {
+
+    private final WeakReference<Object> owner;
+    private volatile boolean cancelled;
+    private final Set<Task<?>> pending = new HashSet<>(2);
+
+    CancellationToken(@Nullable Object owner) {
+        this.owner = owner == null ? null : new WeakReference<>(owner);
+    }
+
+    /**
+     * 是否已被取消
+     * @return 是否已被取消
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 如果已被取消，抛出 {@link CancellationException}，可在耗时的后台任务中定期调用
+     * @throws CancellationException 已被取消
+     */
+    public void throwIfCancelled() throws CancellationException {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * 取消所有使用此标记的任务
+     */
+    public void cancel() {
+        ArrayList<Task<?>> tasks;
+        synchronized (this) {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            tasks = new ArrayList<>(pending);
+            pending.clear();
+        }
+        for (Task<?> task : tasks) {
+            task.completeCancelled();
+        }
+    }
+
+    /**
+     * 获取绑定的对象
+     * @return 绑定的对象，没有绑定或已被回收时返回 null
+     */
+    @Nullable
+    Object getOwner() {
+        return owner == null ? null : owner.get();
+    }
+
+    /**
+     * 登记一个使用此标记且尚未完成的任务，第一个任务登记时与对象绑定
+     * @param task 尚未完成的任务
+     * @return 登记成功返回 true，已被取消时返回 false
+     */
+    boolean attach(Task<?> task) {
+        boolean bind;
+        synchronized (this) {
+            if (cancelled) {
+                return false;
+            }
+            bind = pending.isEmpty();
+            pending.add(task);
+        }
+        Object object = getOwner();
+        if (bind && object != null) {
+            ThreadUtils.bindToken(this, object);
+        }
+        return true;
+    }
+
+    /**
+     * 任务完成后注销
+     * @param task 已完成的任务
+     */
+    synchronized void detach(Task<?> task) {
+        pending.remove(task);
+    }
+
+    /**
+     * 是否没有未完成的任务，此时标记可以被解除绑定
+     * @return 是否空闲
+     */
+    synchronized boolean isIdle() {
+        return pending.isEmpty();
+    }
+
+}
@@ -0,0 +1,68 @@
+package moe.haruue.util;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+/**
+ * 防抖：每次 {@link #call()} 都会推迟运行，直到连续一段时间没有新的调用后才运行一次，适合输入即搜索等场景<br>
+ *     频繁调用时不会反复取消和重新提交定时任务，只会更新截止时间，到期时如果截止时间被推迟就再等待剩下的时间<br>
+ *     没有等待运行的调用时视为已结束，会从绑定的对象上解除，下一次 {@link #call()} 时重新绑定；
+ *     因此 {@link ThreadUtils#interruptThreadsByObject(Object, boolean)} 只会取消正在等待的运行<br>
+ *     由 {@link ThreadUtils#debounce(Object, long, boolean, Runnable)} 创建
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class Debouncer extends ScheduledTask {
+
+    private final long delayMillis;
+    private long deadline;
+    private volatile boolean armed;
+
+    Debouncer(@Nullable Object object, long delayMillis, boolean onUIThread, Runnable runnable) {
+        super(object, onUIThread, 0, runnable);
+        this.delayMillis = delayMillis;
+    }
+
+    /**
+     * 触发一次，上一次触发后还没运行的会被推迟
+     */
+    public void call() {
+        if (isCancelled()) {
+            return;
+        }
+        synchronized (this) {
+            deadline = SystemClock.uptimeMillis() + delayMillis;
+            if (armed) {
+                return;
+            }
+            armed = true;
+        }
+        ThreadUtils.rebindScheduledTask(this);
+        arm(delayMillis);
+    }
+
+    @Override
+    void onFire() {
+        long remaining;
+        synchronized (this) {
+            remaining = deadline - SystemClock.uptimeMillis();
+            if (remaining <= 0) {
+                armed = false;
+            }
+        }
+        if (remaining > 0) {
+            arm(remaining);
+        } else {
+            runnable.run();
+        }
+    }
+
+    /**
+     * 是否已经结束：已被取消，或者没有等待运行的调用
+     * @return 是否已经结束
+     */
+    @Override
+    public boolean isDone() {
+        return isCancelled() || !armed;
+    }
+
+}
@@ -0,0 +1,206 @@
+package moe.haruue.util;
+
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 散列算法<br>
+ *     每个线程缓存一个 {@link MessageDigest} 实例，避免每次散列都查找 Provider ；
+ *     可以把原始散列或十六进制结果写入调用者提供的数组或 {@link StringBuilder} ，热路径上不产生任何对象<br>
+ *     注意：SHA-224 在 Android 2.3 - 4.4 (API 9 - 21) 上不可用
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public enum DigestAlgorithm {
+
+    MD5("MD5", 16),
+    SHA_1("SHA-1", 20),
+    SHA_224("SHA-224", 28),
+    SHA_256("SHA-256", 32),
+    SHA_384("SHA-384", 48),
+    SHA_512("SHA-512", 64);
+
+    private final String algorithmName;
+    private final int digestLength;
+    private final ThreadLocal<State> state = new ThreadLocal<State>() {
+        @Override
+        protected State initialValue() {
+            return new State(newMessageDigest(), digestLength);
+        }
+    };
+
+    DigestAlgorithm(String algorithmName, int digestLength) {
+        this.algorithmName = algorithmName;
+        this.digestLength = digestLength;
+    }
+
+    /**
+     * 获取标准算法名称
+     * @return 算法名称，如 "SHA-256"
+     */
+    public String getAlgorithmName() {
+        return algorithmName;
+    }
+
+    /**
+     * 获取散列结果的字节数
+     * @return 散列结果的字节数
+     */
+    public int getDigestLength() {
+        return digestLength;
+    }
+
+    /**
+     * 创建一个新的 {@link MessageDigest} 实例，不使用缓存
+     * @return 新的实例
+     * @throws IllegalStateException 当前平台不支持该算法
+     */
+    public MessageDigest newMessageDigest() {
+        try {
+            return MessageDigest.getInstance(algorithmName);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithmName + " is not supported on this platform", e);
+        }
+    }
+
+    /**
+     * 创建该算法的增量散列器
+     * @return 新的 {@link Hasher}
+     */
+    public Hasher newHasher() {
+        return new Hasher(this);
+    }
+
+    /**
+     * 取散列
+     * @param data 需要散列的数据
+     * @return 散列结果
+     */
+    public byte[] digest(byte[] data) {
+        MessageDigest md = state.get().digest;
+        md.reset();
+        return md.digest(data);
+    }
+
+    /**
+     * 取散列并写入调用者提供的数组
+     * @param data 需要散列的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param out 输出数组，需要至少 {@link #getDigestLength()} 的空间
+     * @param outOffset 输出的起始位置
+     * @return 写入的字节数
+     */
+    public int digest(byte[] data, int offset, int length, byte[] out, int outOffset) {
+        MessageDigest md = state.get().digest;
+        md.reset();
+        md.update(data, offset, length);
+        try {
+            return md.digest(out, outOffset, out.length - outOffset);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("output buffer is too small", e);
+        }
+    }
+
+    /**
+     * 取散列的十六进制字符串
+     * @param data 需要散列的数据
+     * @param upperCase 是否使用大写
+     * @return 十六进制字符串
+     */
+    public String hex(byte[] data, boolean upperCase) {
+        char[] out = new char[digestLength * 2];
+        hex(data, 0, data.length, out, 0, upperCase);
+        return new String(out);
+    }
+
+    /**
+     * 取散列的小写十六进制字符串
+     * @param data 需要散列的数据
+     * @return 十六进制字符串
+     */
+    public String hex(byte[] data) {
+        return hex(data, false);
+    }
+
+    /**
+     * 取散列的十六进制形式并写入调用者提供的 {@code char[]}
+     * @param data 需要散列的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param out 输出数组，需要至少 {@link #getDigestLength()} * 2 的空间
+     * @param outOffset 输出的起始位置
+     * @param upperCase 是否使用大写
+     * @return 写入的字符数
+     */
+    public int hex(byte[] data, int offset, int length, char[] out, int outOffset, boolean upperCase) {
+        byte[] scratch = digestToScratch(data, offset, length);
+        return HexCodec.encode(scratch, 0, digestLength, out, outOffset, upperCase);
+    }
+
+    /**
+     * 取散列的十六进制形式并以 ASCII 写入调用者提供的 {@code byte[]}
+     * @param data 需要散列的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param out 输出数组，需要至少 {@link #getDigestLength()} * 2 的空间
+     * @param outOffset 输出的起始位置
+     * @param upperCase 是否使用大写
+     * @return 写入的字节数
+     */
+    public int hex(byte[] data, int offset, int length, byte[] out, int outOffset, boolean upperCase) {
+        byte[] scratch = digestToScratch(data, offset, length);
+        return HexCodec.encode(scratch, 0, digestLength, out, outOffset, upperCase);
+    }
+
+    /**
+     * 取散列的十六进制形式并追加到 {@link StringBuilder}
+     * @param data 需要散列的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param sb 输出
+     * @param upperCase 是否使用大写
+     * @return sb
+     */
+    public StringBuilder hex(byte[] data, int offset, int length, StringBuilder sb, boolean upperCase) {
+        byte[] scratch = digestToScratch(data, offset, length);
+        return HexCodec.encode(scratch, 0, digestLength, sb, upperCase);
+    }
+
+    /**
+     * 获取当前线程缓存的 {@link MessageDigest} ，已重置，只能在当前线程中同步使用
+     */
+    MessageDigest threadDigest() {
+        MessageDigest md = state.get().digest;
+        md.reset();
+        return md;
+    }
+
+    private byte[] digestToScratch(byte[] data, int offset, int length) {
+        State s = state.get();
+        s.digest.reset();
+        s.digest.update(data, offset, length);
+        try {
+            s.digest.digest(s.scratch, 0, digestLength);
+        } catch (DigestException e) {
+            throw new IllegalStateException(e);
+        }
+        return s.scratch;
+    }
+
+    /**
+     * 每个线程缓存的实例和临时数组
+     */
+    private static final class State {
+
+        final MessageDigest digest;
+        final byte[] scratch;
+
+        State(MessageDigest digest, int digestLength) {
+            this.digest = digest;
+            this.scratch = new byte[digestLength];
+        }
+
+    }
+
+}
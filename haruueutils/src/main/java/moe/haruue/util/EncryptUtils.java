@@ -2,14 +2,12 @@ package moe.haruue.util;
 
 import android.support.annotation.Nullable;
 
-import java.io.UnsupportedEncodingException;
-import java.net.URLDecoder;
-import java.net.URLEncoder;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * 加密、散列、编码解码解决方案工具类<br>
@@ -17,10 +15,12 @@ import java.util.regex.Pattern;
  *     <ul>
  *         <li>sha1 编码</li>
  *         <li>MD5 编码</li>
+ *         <li>SHA-224/256/384/512 编码，见 {@link DigestAlgorithm}</li>
  *         <li>Base64 编码/解码</li>
  *         <li>URL 编码/解码</li>
  *         <li>Unicode 编码/解码</li>
  *     </ul>
+ *     散列支持 {@link InputStream} 、{@link ReadableByteChannel} 、{@link ByteBuffer} 和 {@link File} 输入，占用的内存与输入大小无关，需要边下载边散列时请使用 {@link Hasher}<br>
  *     所有方法都不会抛出“必须捕捉的异常”，当发生这种异常时，方法将会返回空值（空数组或者空字符串），但这并不意味着不会有任何异常被抛出，仍然建议对可能的异常进行捕捉。
  *
  * @author Haruue Icymoon haruue@caoyue.com.cn
@@ -48,177 +48,197 @@ public class EncryptUtils {
      * @return 所需的 sha1 散列，小写
      */
     public static String SHA1(byte[] data) {
+        return DigestAlgorithm.SHA_1.hex(data);
+    }
+
+    /**
+     * 取 MD5 散列
+     *
+     * @param data 需要取 MD5 散列的 {@link byte[]} 数组，对于 {@link String} 可取 {@link EncryptUtils#stringToBytes(String)}
+     * @return 所需的 MD5 散列，小写
+     */
+    public static String MD5(byte[] data) {
+        return DigestAlgorithm.MD5.hex(data);
+    }
+
+    /**
+     * 使用指定的算法取散列
+     *
+     * @param algorithm 散列算法，如 {@link DigestAlgorithm#SHA_256}
+     * @param data 需要取散列的 {@link byte[]} 数组
+     * @return 所需的散列，小写
+     */
+    public static String hash(DigestAlgorithm algorithm, byte[] data) {
+        return algorithm.hex(data);
+    }
+
+    /**
+     * 读取流中的所有数据并取 sha1 散列，不会关闭流
+     *
+     * @param in 输入流
+     * @return 所需的 sha1 散列，小写，读取失败时返回空字符串
+     */
+    public static String SHA1(InputStream in) {
+        try {
+            return DigestAlgorithm.SHA_1.newHasher().update(in).digestHex();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    /**
+     * 读取通道中的所有数据并取 sha1 散列，不会关闭通道
+     *
+     * @param channel 输入通道
+     * @return 所需的 sha1 散列，小写，读取失败时返回空字符串
+     */
+    public static String SHA1(ReadableByteChannel channel) {
         try {
-            MessageDigest digest = MessageDigest
-                    .getInstance("SHA-1");
-            digest.update(data);
-            byte messageDigest[] = digest.digest();
-            // Create Hex String
-            StringBuilder hexString = new StringBuilder();
-            // 字节数组转换为 十六进制 数
-            for (byte aMessageDigest : messageDigest) {
-                String shaHex = Integer.toHexString(aMessageDigest & 0xFF);
-                if (shaHex.length() < 2) {
-                    hexString.append(0);
-                }
-                hexString.append(shaHex);
-            }
-            return hexString.toString();
+            return DigestAlgorithm.SHA_1.newHasher().update(channel).digestHex();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return "";
+        }
+    }
+
+    /**
+     * 取 {@link ByteBuffer} 中剩余数据的 sha1 散列，完成后 buffer 的 position 移动到 limit
+     *
+     * @param buffer 数据
+     * @return 所需的 sha1 散列，小写
+     */
+    public static String SHA1(ByteBuffer buffer) {
+        return DigestAlgorithm.SHA_1.newHasher().update(buffer).digestHex();
+    }
 
-        } catch (NoSuchAlgorithmException e) {
+    /**
+     * 取文件的 sha1 散列，大文件会分段内存映射，不会整个读入内存
+     *
+     * @param file 文件
+     * @return 所需的 sha1 散列，小写，读取失败时返回空字符串
+     */
+    public static String SHA1(File file) {
+        try {
+            return DigestAlgorithm.SHA_1.newHasher().update(file).digestHex();
+        } catch (IOException e) {
             e.printStackTrace();
+            return "";
         }
-        return "";
     }
 
     /**
-     * 取 MD5 散列
+     * 读取流中的所有数据并取 MD5 散列，不会关闭流
      *
-     * @param data 需要取 MD5 散列的 {@link byte[]} 数组，对于 {@link String} 可取 {@link EncryptUtils#stringToBytes(String)}
+     * @param in 输入流
+     * @return 所需的 MD5 散列，小写，读取失败时返回 null
+     */
+    public static String MD5(InputStream in) {
+        try {
+            return DigestAlgorithm.MD5.newHasher().update(in).digestHex();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 读取通道中的所有数据并取 MD5 散列，不会关闭通道
+     *
+     * @param channel 输入通道
+     * @return 所需的 MD5 散列，小写，读取失败时返回 null
+     */
+    public static String MD5(ReadableByteChannel channel) {
+        try {
+            return DigestAlgorithm.MD5.newHasher().update(channel).digestHex();
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * 取 {@link ByteBuffer} 中剩余数据的 MD5 散列，完成后 buffer 的 position 移动到 limit
+     *
+     * @param buffer 数据
      * @return 所需的 MD5 散列，小写
      */
-    public static String MD5(byte[] data) {
-        char hexDigits[] = {'0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f'};
+    public static String MD5(ByteBuffer buffer) {
+        return DigestAlgorithm.MD5.newHasher().update(buffer).digestHex();
+    }
+
+    /**
+     * 取文件的 MD5 散列，大文件会分段内存映射，不会整个读入内存
+     *
+     * @param file 文件
+     * @return 所需的 MD5 散列，小写，读取失败时返回 null
+     */
+    public static String MD5(File file) {
         try {
-            // 获得MD5摘要算法的 MessageDigest 对象
-            MessageDigest mdInst = MessageDigest.getInstance("MD5");
-            // 使用指定的字节更新摘要
-            mdInst.update(data);
-            // 获得密文
-            byte[] md = mdInst.digest();
-            // 把密文转换成十六进制的字符串形式
-            int j = md.length;
-            char str[] = new char[j * 2];
-            int k = 0;
-            for (byte byte0 : md) {
-                str[k++] = hexDigits[byte0 >>> 4 & 0xf];
-                str[k++] = hexDigits[byte0 & 0xf];
-            }
-            return new String(str);
-        } catch (Exception e) {
+            return DigestAlgorithm.MD5.newHasher().update(file).digestHex();
+        } catch (IOException e) {
             e.printStackTrace();
             return null;
         }
     }
 
-    private static char[] base64EncodeChars = new char[]{
-            'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H',
-            'I', 'J', 'K', 'L', 'M', 'N', 'O', 'P',
-            'Q', 'R', 'S', 'T', 'U', 'V', 'W', 'X',
-            'Y', 'Z', 'a', 'b', 'c', 'd', 'e', 'f',
-            'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n',
-            'o', 'p', 'q', 'r', 's', 't', 'u', 'v',
-            'w', 'x', 'y', 'z', '0', '1', '2', '3',
-            '4', '5', '6', '7', '8', '9', '+', '/'};
+    /**
+     * 以默认分块大小对大文件进行并行树散列，结果与 {@link #SHA1(File)} 等不同，见 {@link TreeHasher}
+     * @param algorithm 算法
+     * @param file 需要散列的文件
+     * @return 散列结果，可以取得根散列和各分块的散列，读取失败时返回 null
+     */
+    public static TreeHasher.Result treeHash(DigestAlgorithm algorithm, File file) {
+        try {
+            return new TreeHasher(algorithm).hash(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
 
-    private static byte[] base64DecodeChars = new byte[]{
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1,
-            -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, -1, 62, -1, -1, -1, 63,
-            52, 53, 54, 55, 56, 57, 58, 59, 60, 61, -1, -1, -1, -1, -1, -1,
-            -1, 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14,
-            15, 16, 17, 18, 19, 20, 21, 22, 23, 24, 25, -1, -1, -1, -1, -1,
-            -1, 26, 27, 28, 29, 30, 31, 32, 33, 34, 35, 36, 37, 38, 39, 40,
-            41, 42, 43, 44, 45, 46, 47, 48, 49, 50, 51, -1, -1, -1, -1, -1};
+    /**
+     * 兼容旧行为的解码配置：忽略非法字符，遇到 = 即结束
+     */
+    private static final Base64Codec BASE64_LENIENT = Base64Codec.STANDARD.lenient();
 
     /**
-     * Base64 编码
+     * Base64 编码，需要 URL 安全、无填充、MIME 换行或流式编码时请直接使用 {@link Base64Codec}
      *
      * @param data 需要被编码的数据的 {@link byte} 数组，对于 String 可取 {@link EncryptUtils#stringToBytes(String)}
      * @return 编码结果
      */
     public static String base64Encode(byte[] data) {
-        StringBuffer sb = new StringBuffer();
-        int len = data.length;
-        int i = 0;
-        int b1, b2, b3;
-        while (i < len) {
-            b1 = data[i++] & 0xff;
-            if (i == len) {
-                sb.append(base64EncodeChars[b1 >>> 2]);
-                sb.append(base64EncodeChars[(b1 & 0x3) << 4]);
-                sb.append("==");
-                break;
-            }
-            b2 = data[i++] & 0xff;
-            if (i == len) {
-                sb.append(base64EncodeChars[b1 >>> 2]);
-                sb.append(base64EncodeChars[((b1 & 0x03) << 4) | ((b2 & 0xf0) >>> 4)]);
-                sb.append(base64EncodeChars[(b2 & 0x0f) << 2]);
-                sb.append("=");
-                break;
-            }
-            b3 = data[i++] & 0xff;
-            sb.append(base64EncodeChars[b1 >>> 2]);
-            sb.append(base64EncodeChars[((b1 & 0x03) << 4) | ((b2 & 0xf0) >>> 4)]);
-            sb.append(base64EncodeChars[((b2 & 0x0f) << 2) | ((b3 & 0xc0) >>> 6)]);
-            sb.append(base64EncodeChars[b3 & 0x3f]);
-        }
-        return sb.toString();
+        return Base64Codec.STANDARD.encodeToString(data);
     }
 
     /**
-     * Base64 解码
+     * Base64 解码，忽略非法字符，需要严格校验时请使用 {@link Base64Codec#STANDARD}
      *
      * @param str 需要解码的 base64 字符串
      * @return 解码完成的 base64 数组
      */
     public static byte[] base64Decode(String str) {
-        try {
-            StringBuffer sb = new StringBuffer();
-            byte[] data = new byte[0];
-            data = str.getBytes("US-ASCII");
-            int len = data.length;
-            int i = 0;
-            int b1, b2, b3, b4;
-            while (i < len) {
-            /* b1 */
-                do {
-                    b1 = base64DecodeChars[data[i++]];
-                } while (i < len && b1 == -1);
-                if (b1 == -1) break;
-            /* b2 */
-                do {
-                    b2 = base64DecodeChars[data[i++]];
-                } while (i < len && b2 == -1);
-                if (b2 == -1) break;
-                sb.append((char) ((b1 << 2) | ((b2 & 0x30) >>> 4)));
-            /* b3 */
-                do {
-                    b3 = data[i++];
-                    if (b3 == 61) return sb.toString().getBytes("ISO-8859-1");
-                    b3 = base64DecodeChars[b3];
-                } while (i < len && b3 == -1);
-                if (b3 == -1) break;
-                sb.append((char) (((b2 & 0x0f) << 4) | ((b3 & 0x3c) >>> 2)));
-            /* b4 */
-                do {
-                    b4 = data[i++];
-                    if (b4 == 61) return sb.toString().getBytes("ISO-8859-1");
-                    b4 = base64DecodeChars[b4];
-                } while (i < len && b4 == -1);
-                if (b4 == -1) break;
-                sb.append((char) (((b3 & 0x03) << 6) | b4));
-            }
-            return sb.toString().getBytes("ISO-8859-1");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return new byte[0];
-        }
+        return BASE64_LENIENT.decode(str);
     }
 
+    /**
+     * 每个线程重用一个 {@link QueryBuilder} ，构造 URL 时只分配最终的字符串
+     */
+    private static final ThreadLocal<QueryBuilder> QUERY_BUILDER = new ThreadLocal<QueryBuilder>() {
+        @Override
+        protected QueryBuilder initialValue() {
+            return new QueryBuilder();
+        }
+    };
+
     /**
      * 对字符串进行 URL 编码
      * @param s 需要进行 URL 编码的字符串
      * @return 需要的 URL 编码
      */
     public static String urlEncode(String s) {
-        try {
-            return URLEncoder.encode(s, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return "";
-        }
+        return PercentCodec.FORM.encode(s);
     }
 
     /**
@@ -227,32 +247,20 @@ public class EncryptUtils {
      * @return 需要的解码结果
      */
     public static String urlDecode(String s) {
-        try {
-            return URLDecoder.decode(s, "UTF-8");
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-            return "";
-        }
+        return PercentCodec.FORM.decode(s);
     }
 
 
-    // TODO: 找到一种更好的 Unicode 转码方案
-
     /**
      * 将可读的字符串转换为 Unicode 编码字符串<br>
      *     例如： {@code 春上冰月 -> \u6625\u4e0a\u51b0\u6708}
      * @param s 需要转码的字符串
      * @return 所需的 Unicode 编码的字符串
-     * @deprecated 不完全转换
+     * @deprecated 请使用 {@link UnicodeEscaper#JAVA} ，支持其他转义风格和流式转换
      */
     @Deprecated
     public static String nativeToAscii(String s) {
-        StringBuilder sb = new StringBuilder();
-        for (char ch: s.toCharArray()) {
-            if (Pattern.matches("[A-Za-z0-9]", ch + "")) continue;
-            sb.append("\\u").append(Integer.toHexString(ch));
-        }
-        return sb.toString();
+        return UnicodeEscaper.JAVA.escape(s);
     }
 
     /**
@@ -260,45 +268,28 @@ public class EncryptUtils {
      *     例如：{@code \u6625\u4e0a\u51b0\u6708 -> 春上冰月}
      * @param ascii 需要转码的 Unicode 字符串
      * @return 所需的可读字符串
-     * @deprecated 不完全转换
+     * @deprecated 请使用 {@link UnicodeEscaper#JAVA} ，支持其他转义风格和流式转换
      */
     @Deprecated
     public static String asciiToNative(String ascii) {
-        Matcher matcher = Pattern.compile("\\\\[Uu](....)").matcher(ascii);
-        matcher.reset();
-        StringBuffer buffer = new StringBuffer();
-        while (matcher.find()) {
-            matcher.appendReplacement(buffer, (char) Integer.parseInt(matcher.group(1), 16) + "");
-        }
-        return matcher.appendTail(buffer).toString();
+        return UnicodeEscaper.JAVA.unescape(ascii);
     }
 
     /**
-     * 使用前缀和参数获取完整 URL
+     * 使用前缀和参数获取完整 URL<br>
+     *     值为 {@link Iterable} 或数组时展开为多个同名参数，需要 RFC 3986 编码或重复构造时请使用 {@link QueryBuilder} ，反复调用同一个接口时请使用 {@link UrlTemplate}
      * @param url URL 接口前缀，如果没有的话可以传入空值
      * @param fieldMap 参数 Map
      * @return 完整的 URL
      */
     public static String gainCompleteUrl(@Nullable String url, Map<?, ?> fieldMap) {
-        boolean isFirst = false;
         if (fieldMap == null || fieldMap.isEmpty()) {
             return url;
         }
-        url = StandardUtils.defaultObject(url, "");
-        if (!Pattern.matches(".*\\?.*", url)) {
-            isFirst = true;
-        }
-        StringBuilder sb = new StringBuilder(url);
-        for (Object k: fieldMap.keySet()) {
-            if (isFirst) {
-                sb.append("?");
-                isFirst = false;
-            } else {
-                sb.append("&");
-            }
-            sb.append(urlEncode(k.toString())).append("=").append(urlEncode(fieldMap.get(k).toString()));
-        }
-        return sb.toString();
+        QueryBuilder builder = QUERY_BUILDER.get();
+        String result = builder.url(url).addAll(fieldMap).build();
+        builder.reset();
+        return result;
     }
 
 }
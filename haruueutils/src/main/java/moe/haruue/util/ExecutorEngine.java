@@ -0,0 +1,328 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collection;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ThreadUtils} 使用的后台线程池<br>
+ *     分为 CPU 密集型和 IO 密集型两个有界线程池，每个线程池拥有一个有界的优先级队列，队列满时按照 {@link RejectionPolicy} 处理<br>
+ *     默认配置由 {@link ThreadUtils#initialize(android.app.Application)} 创建，如需修改请使用 {@link ThreadUtils#initialize(android.app.Application, ExecutorEngine)}
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class ExecutorEngine {
+
+    /**
+     * 线程池类型
+     */
+    public enum Pool {
+        /**
+         * CPU 密集型任务，线程数与 CPU 核心数相同
+         */
+        CPU,
+        /**
+         * IO 密集型任务（网络、文件等），线程数较多
+         */
+        IO
+    }
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum RejectionPolicy {
+        /**
+         * 抛出 {@link RejectedExecutionException}
+         */
+        ABORT,
+        /**
+         * 在提交任务的线程中直接运行
+         */
+        CALLER_RUNS,
+        /**
+         * 直接丢弃并取消该任务
+         */
+        DISCARD,
+        /**
+         * 阻塞提交任务的线程直到队列有空位，即背压，请不要在主线程中使用
+         */
+        BLOCK
+    }
+
+    /**
+     * 默认的队列容量
+     */
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final int KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * 当前线程正在通过 {@link #trySubmit(Pool, int, Object, Runnable)} 提交，队列满时忽略 {@link RejectionPolicy} 直接拒绝
+     */
+    private static final ThreadLocal<Boolean> submittingWithoutWait = new ThreadLocal<>();
+
+    private final ThreadPoolExecutor cpuExecutor;
+    private final ThreadPoolExecutor ioExecutor;
+
+    /**
+     * 使用默认配置创建线程池：CPU 线程数为核心数，IO 线程数为核心数的两倍（至少 4 个），队列容量 {@link #DEFAULT_QUEUE_CAPACITY} ，队列满时抛出异常
+     */
+    public ExecutorEngine() {
+        this(Runtime.getRuntime().availableProcessors(),
+                Math.max(4, Runtime.getRuntime().availableProcessors() * 2),
+                DEFAULT_QUEUE_CAPACITY,
+                RejectionPolicy.ABORT);
+    }
+
+    /**
+     * 使用指定配置创建线程池
+     * @param cpuThreads CPU 线程池的最大线程数
+     * @param ioThreads IO 线程池的最大线程数
+     * @param queueCapacity 每个线程池的队列容量
+     * @param policy 队列满时的处理策略
+     */
+    public ExecutorEngine(int cpuThreads, int ioThreads, int queueCapacity, RejectionPolicy policy) {
+        if (cpuThreads <= 0 || ioThreads <= 0 || queueCapacity <= 0) {
+            throw new IllegalArgumentException("thread count and queue capacity must be positive");
+        }
+        cpuExecutor = createExecutor("cpu", cpuThreads, queueCapacity, policy, android.os.Process.THREAD_PRIORITY_BACKGROUND);
+        ioExecutor = createExecutor("io", ioThreads, queueCapacity, policy,
+                android.os.Process.THREAD_PRIORITY_BACKGROUND + android.os.Process.THREAD_PRIORITY_LESS_FAVORABLE);
+    }
+
+    private static ThreadPoolExecutor createExecutor(String name, int threads, int capacity, RejectionPolicy policy, int threadPriority) {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new BoundedPriorityQueue(capacity),
+                new PoolThreadFactory(name, threadPriority),
+                new PolicyHandler(policy));
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 提交任务
+     * @param pool 使用的线程池
+     * @param priority 优先级，见 {@link BackgroundTask#PRIORITY_NORMAL} 等
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 已提交的任务
+     */
+    BackgroundTask submit(Pool pool, int priority, @Nullable Object object, Runnable runnable) {
+        BackgroundTask task = new BackgroundTask(runnable, pool, priority);
+        if (object != null) {
+            task.bindTo(object);
+        }
+        getExecutor(pool).execute(task);
+        return task;
+    }
+
+    /**
+     * 尝试提交任务，不论 {@link RejectionPolicy} 是什么，队列已满或线程池已关闭时都不阻塞也不在调用线程中运行
+     * @param pool 使用的线程池
+     * @param priority 优先级，见 {@link BackgroundTask#PRIORITY_NORMAL} 等
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 已提交的任务，没有提交时返回 null
+     */
+    @Nullable
+    BackgroundTask trySubmit(Pool pool, int priority, @Nullable Object object, Runnable runnable) {
+        ThreadPoolExecutor executor = getExecutor(pool);
+        if (executor.isShutdown() || executor.getQueue().remainingCapacity() == 0) {
+            return null;
+        }
+        submittingWithoutWait.set(Boolean.TRUE);
+        try {
+            return submit(pool, priority, object, runnable);
+        } catch (RejectedExecutionException e) {
+            return null;
+        } finally {
+            submittingWithoutWait.remove();
+        }
+    }
+
+    /**
+     * 将已取消的任务移出队列，释放队列空间
+     * @param task 已取消的任务
+     */
+    void purge(BackgroundTask task) {
+        getExecutor(task.getPool()).remove(task);
+    }
+
+    /**
+     * 获取指定线程池的 {@link ThreadPoolExecutor}
+     * @param pool 线程池类型
+     * @return 对应的 {@link ThreadPoolExecutor}
+     */
+    public ThreadPoolExecutor getExecutor(Pool pool) {
+        return pool == Pool.CPU ? cpuExecutor : ioExecutor;
+    }
+
+    /**
+     * 关闭所有线程池，已在队列中的任务仍会运行完毕
+     */
+    public void shutdown() {
+        cpuExecutor.shutdown();
+        ioExecutor.shutdown();
+    }
+
+    /**
+     * 容量有限的优先级队列，{@link PriorityBlockingQueue} 本身是无界的，这里用信号量限制容量
+     */
+    private static class BoundedPriorityQueue extends PriorityBlockingQueue<Runnable> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Semaphore permits;
+
+        BoundedPriorityQueue(int capacity) {
+            super(Math.min(capacity, 64));
+            permits = new Semaphore(capacity);
+        }
+
+        @Override
+        public boolean offer(Runnable runnable) {
+            if (!permits.tryAcquire()) {
+                return false;
+            }
+            return super.offer(runnable);
+        }
+
+        /**
+         * 阻塞直到队列有空位
+         */
+        void putBlocking(Runnable runnable) throws InterruptedException {
+            permits.acquire();
+            super.offer(runnable);
+        }
+
+        @Override
+        public Runnable poll() {
+            return released(super.poll());
+        }
+
+        @Override
+        public Runnable poll(long timeout, TimeUnit unit) throws InterruptedException {
+            return released(super.poll(timeout, unit));
+        }
+
+        @Override
+        public Runnable take() throws InterruptedException {
+            return released(super.take());
+        }
+
+        @Override
+        public boolean remove(Object o) {
+            boolean removed = super.remove(o);
+            if (removed) {
+                permits.release();
+            }
+            return removed;
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c) {
+            return drainTo(c, Integer.MAX_VALUE);
+        }
+
+        @Override
+        public int drainTo(Collection<? super Runnable> c, int maxElements) {
+            int count = super.drainTo(c, maxElements);
+            permits.release(count);
+            return count;
+        }
+
+        @Override
+        public int remainingCapacity() {
+            return permits.availablePermits();
+        }
+
+        private Runnable released(Runnable runnable) {
+            if (runnable != null) {
+                permits.release();
+            }
+            return runnable;
+        }
+
+    }
+
+    private static class PolicyHandler implements RejectedExecutionHandler {
+
+        private final RejectionPolicy policy;
+
+        PolicyHandler(RejectionPolicy policy) {
+            this.policy = policy;
+        }
+
+        @Override
+        public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+            if (executor.isShutdown()) {
+                cancel(r);
+                throw new RejectedExecutionException("ExecutorEngine has been shut down");
+            }
+            if (submittingWithoutWait.get() != null) {
+                cancel(r);
+                throw new RejectedExecutionException("ExecutorEngine queue is full");
+            }
+            switch (policy) {
+                case CALLER_RUNS:
+                    r.run();
+                    break;
+                case DISCARD:
+                    cancel(r);
+                    break;
+                case BLOCK:
+                    try {
+                        ((BoundedPriorityQueue) executor.getQueue()).putBlocking(r);
+                    } catch (InterruptedException e) {
+                        cancel(r);
+                        Thread.currentThread().interrupt();
+                        throw new RejectedExecutionException("interrupted while waiting for queue space", e);
+                    }
+                    break;
+                case ABORT:
+                default:
+                    cancel(r);
+                    throw new RejectedExecutionException("ExecutorEngine queue is full");
+            }
+        }
+
+        private static void cancel(Runnable r) {
+            if (r instanceof BackgroundTask) {
+                ((BackgroundTask) r).cancel(false);
+            }
+        }
+
+    }
+
+    private static class PoolThreadFactory implements ThreadFactory {
+
+        private final String name;
+        private final int threadPriority;
+        private final AtomicInteger count = new AtomicInteger(1);
+
+        PoolThreadFactory(String name, int threadPriority) {
+            this.name = name;
+            this.threadPriority = threadPriority;
+        }
+
+        @Override
+        public Thread newThread(final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    android.os.Process.setThreadPriority(threadPriority);
+                    r.run();
+                }
+            }, "HaruueUtils-" + name + "-" + count.getAndIncrement());
+        }
+
+    }
+
+}
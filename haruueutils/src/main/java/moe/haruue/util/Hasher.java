@@ -0,0 +1,193 @@
+package moe.haruue.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.security.DigestException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * 增量散列器<br>
+ *     可以分多次 {@link #update(byte[])} ，例如边下载边散列，最后用 {@link #digest()} 取得结果，无论输入多大，占用的内存都是固定的<br>
+ *     文件通过 {@link FileChannel} 分段内存映射后散列，不会把整个文件读入内存<br>
+ *     不是线程安全的，{@link #digest()} 之后可以继续用于下一次散列
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class Hasher {
+
+    /**
+     * 读取流时的缓冲区大小
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * 大于此大小的文件使用内存映射
+     */
+    private static final long MAP_THRESHOLD = 1024 * 1024;
+    /**
+     * 每次内存映射的窗口大小
+     */
+    private static final long MAP_WINDOW = 16 * 1024 * 1024;
+
+    private final MessageDigest digest;
+    private byte[] buffer;
+
+    /**
+     * 创建指定算法的散列器，也可以使用 {@link DigestAlgorithm#newHasher()}
+     * @param algorithm 算法
+     */
+    public Hasher(DigestAlgorithm algorithm) {
+        digest = algorithm.newMessageDigest();
+    }
+
+    /**
+     * 创建指定算法的散列器
+     * @param algorithm 算法名称，如 "SHA-1" 、 "MD5"
+     * @throws IllegalArgumentException 不支持该算法
+     */
+    public Hasher(String algorithm) {
+        try {
+            digest = MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    /**
+     * 输入数据
+     * @param data 数据
+     * @return this
+     */
+    public Hasher update(byte[] data) {
+        digest.update(data);
+        return this;
+    }
+
+    /**
+     * 输入数据的一部分
+     * @param data 数据
+     * @param offset 起始位置
+     * @param length 长度
+     * @return this
+     */
+    public Hasher update(byte[] data, int offset, int length) {
+        digest.update(data, offset, length);
+        return this;
+    }
+
+    /**
+     * 输入 {@link ByteBuffer} 中剩余的数据，完成后 buffer 的 position 移动到 limit
+     * @param data 数据
+     * @return this
+     */
+    public Hasher update(ByteBuffer data) {
+        digest.update(data);
+        return this;
+    }
+
+    /**
+     * 读取流中的所有数据，不会关闭流
+     * @param in 输入流
+     * @return this
+     * @throws IOException 读取失败
+     */
+    public Hasher update(InputStream in) throws IOException {
+        byte[] b = buffer();
+        int n;
+        while ((n = in.read(b)) != -1) {
+            digest.update(b, 0, n);
+        }
+        return this;
+    }
+
+    /**
+     * 读取通道中的所有数据，不会关闭通道
+     * @param channel 输入通道
+     * @return this
+     * @throws IOException 读取失败
+     */
+    public Hasher update(ReadableByteChannel channel) throws IOException {
+        ByteBuffer b = ByteBuffer.wrap(buffer());
+        while (channel.read(b) != -1) {
+            b.flip();
+            digest.update(b);
+            b.clear();
+        }
+        return this;
+    }
+
+    /**
+     * 读取文件的所有数据，大文件会分段内存映射
+     * @param file 文件
+     * @return this
+     * @throws IOException 读取失败
+     */
+    public Hasher update(File file) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            long size = channel.size();
+            if (size < MAP_THRESHOLD) {
+                return update(channel);
+            }
+            for (long position = 0; position < size; position += MAP_WINDOW) {
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAP_WINDOW, size - position));
+                digest.update(window);
+            }
+            return this;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * 完成散列并重置散列器
+     * @return 散列结果
+     */
+    public byte[] digest() {
+        return digest.digest();
+    }
+
+    /**
+     * 完成散列并重置散列器
+     * @return 散列结果，小写十六进制
+     */
+    public String digestHex() {
+        return HexCodec.encode(digest.digest());
+    }
+
+    /**
+     * 完成散列并重置散列器，结果写入调用者提供的数组
+     * @param out 输出数组，需要至少 {@link #getDigestLength()} 的空间
+     * @param offset 输出的起始位置
+     * @return 写入的字节数
+     */
+    public int digest(byte[] out, int offset) {
+        try {
+            return digest.digest(out, offset, out.length - offset);
+        } catch (DigestException e) {
+            throw new IllegalArgumentException("output buffer is too small", e);
+        }
+    }
+
+    /**
+     * 获取散列结果的字节数
+     * @return 散列结果的字节数
+     */
+    public int getDigestLength() {
+        return digest.getDigestLength();
+    }
+
+    private byte[] buffer() {
+        if (buffer == null) {
+            buffer = new byte[BUFFER_SIZE];
+        }
+        return buffer;
+    }
+
+}
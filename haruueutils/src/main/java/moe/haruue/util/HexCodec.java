@@ -0,0 +1,157 @@
+package moe.haruue.util;
+
+/**
+ * 查表实现的十六进制编码/解码<br>
+ *     所有散列算法共用，可以直接写入调用者提供的 {@code char[]} 、{@code byte[]} 或 {@link StringBuilder} ，不产生额外的对象
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class HexCodec {
+
+    /**
+     * 每个字节对应的两个小写字符，下标为 (b & 0xff) * 2
+     */
+    private static final char[] LOWER = buildTable("0123456789abcdef");
+    /**
+     * 每个字节对应的两个大写字符
+     */
+    private static final char[] UPPER = buildTable("0123456789ABCDEF");
+    /**
+     * 字符到数值的映射，非十六进制字符为 -1
+     */
+    private static final byte[] DECODE = new byte[128];
+
+    static {
+        for (int i = 0; i < DECODE.length; i++) {
+            DECODE[i] = -1;
+        }
+        for (int i = 0; i < 10; i++) {
+            DECODE['0' + i] = (byte) i;
+        }
+        for (int i = 0; i < 6; i++) {
+            DECODE['a' + i] = (byte) (10 + i);
+            DECODE['A' + i] = (byte) (10 + i);
+        }
+    }
+
+    private HexCodec() {
+
+    }
+
+    private static char[] buildTable(String digits) {
+        char[] table = new char[512];
+        for (int i = 0; i < 256; i++) {
+            table[i * 2] = digits.charAt(i >>> 4);
+            table[i * 2 + 1] = digits.charAt(i & 0xf);
+        }
+        return table;
+    }
+
+    /**
+     * 编码到字符串
+     * @param data 需要编码的数据
+     * @param upperCase 是否使用大写
+     * @return 十六进制字符串
+     */
+    public static String encode(byte[] data, boolean upperCase) {
+        char[] out = new char[data.length * 2];
+        encode(data, 0, data.length, out, 0, upperCase);
+        return new String(out);
+    }
+
+    /**
+     * 编码到字符串，小写
+     * @param data 需要编码的数据
+     * @return 十六进制字符串
+     */
+    public static String encode(byte[] data) {
+        return encode(data, false);
+    }
+
+    /**
+     * 编码到调用者提供的 {@code char[]}
+     * @param data 需要编码的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param out 输出数组，需要至少 length * 2 的空间
+     * @param outOffset 输出的起始位置
+     * @param upperCase 是否使用大写
+     * @return 写入的字符数
+     */
+    public static int encode(byte[] data, int offset, int length, char[] out, int outOffset, boolean upperCase) {
+        char[] table = upperCase ? UPPER : LOWER;
+        int k = outOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (data[i] & 0xff) << 1;
+            out[k++] = table[index];
+            out[k++] = table[index + 1];
+        }
+        return length * 2;
+    }
+
+    /**
+     * 编码为 ASCII 字节，写入调用者提供的 {@code byte[]}
+     * @param data 需要编码的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param out 输出数组，需要至少 length * 2 的空间
+     * @param outOffset 输出的起始位置
+     * @param upperCase 是否使用大写
+     * @return 写入的字节数
+     */
+    public static int encode(byte[] data, int offset, int length, byte[] out, int outOffset, boolean upperCase) {
+        char[] table = upperCase ? UPPER : LOWER;
+        int k = outOffset;
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (data[i] & 0xff) << 1;
+            out[k++] = (byte) table[index];
+            out[k++] = (byte) table[index + 1];
+        }
+        return length * 2;
+    }
+
+    /**
+     * 编码并追加到 {@link StringBuilder}
+     * @param data 需要编码的数据
+     * @param offset 数据的起始位置
+     * @param length 数据的长度
+     * @param sb 输出
+     * @param upperCase 是否使用大写
+     * @return sb
+     */
+    public static StringBuilder encode(byte[] data, int offset, int length, StringBuilder sb, boolean upperCase) {
+        char[] table = upperCase ? UPPER : LOWER;
+        sb.ensureCapacity(sb.length() + length * 2);
+        for (int i = offset, end = offset + length; i < end; i++) {
+            int index = (data[i] & 0xff) << 1;
+            sb.append(table[index]).append(table[index + 1]);
+        }
+        return sb;
+    }
+
+    /**
+     * 解码十六进制字符串，大小写均可
+     * @param s 十六进制字符串
+     * @return 解码结果
+     * @throws IllegalArgumentException 长度不是偶数或含有非十六进制字符
+     */
+    public static byte[] decode(CharSequence s) {
+        int length = s.length();
+        if ((length & 1) != 0) {
+            throw new IllegalArgumentException("hex string length must be even");
+        }
+        byte[] out = new byte[length / 2];
+        for (int i = 0, k = 0; i < length; i += 2, k++) {
+            out[k] = (byte) ((digit(s.charAt(i)) << 4) | digit(s.charAt(i + 1)));
+        }
+        return out;
+    }
+
+    private static int digit(char c) {
+        int d = c < 128 ? DECODE[c] : -1;
+        if (d < 0) {
+            throw new IllegalArgumentException("illegal hex character: " + c);
+        }
+        return d;
+    }
+
+}
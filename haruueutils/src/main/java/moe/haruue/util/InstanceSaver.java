@@ -1,22 +1,178 @@
 package moe.haruue.util;
 
+import android.content.Context;
 import android.os.Bundle;
+import android.util.Log;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
 import moe.haruue.util.abstracts.InstanceSavable;
+import moe.haruue.util.abstracts.SnapshotSavable;
 
 /**
- * 全局数据临时存储
+ * 全局数据临时存储<br>
+ *     每个单例的数据被编码为 byte[] 存入 Bundle ，按以下顺序选择编码方式：
+ *     <ul>
+ *         <li>{@link SnapshotSavable#writeSnapshot(BinaryWriter)} 自定义的二进制格式</li>
+ *         <li>{@link BinaryCodec} ，用于能够被无损编码的数据</li>
+ *         <li>Java 序列化</li>
+ *     </ul>
+ *     超过 {@link #setCompressThreshold(int)} 的数据会被压缩；
+ *     单个单例或全部单例的数据超过 {@link #setBudget(int, int)} 设置的预算时，不保存超出的单例并输出警告，避免 TransactionTooLargeException<br>
+ *     单例按类注册，通过 {@link InstanceSavable#markChanged()} 跟踪修改的单例在没有修改时直接复用上次编码的结果，
+ *     每次保存的统计见 {@link #getLastSaveStats()}<br>
+ *     使用 {@link #initialize(Context)} 初始化后，超过 {@link #setSpill(int, long, long)} 阈值的数据在后台线程写入缓存目录中的文件，
+ *     Bundle 中只保存文件名；长期未被引用的文件会在第一次保存或恢复之后被清理<br>
+ *     {@link InstanceSavable#restoresLazily()} 返回 true 的单例在恢复时不会立即解码，而是在第一次调用 {@link InstanceSavable#ensureRestored()} 时才解码
  * @author Haruue Icymoon haruue@caoyue.com.cn
  */
 public class InstanceSaver implements Serializable {
 
+    /**
+     * 保存完成的回调，在保存的线程中调用
+     */
+    public interface OnSaveListener {
+        void onSaved(SaveStats stats);
+    }
+
+    /**
+     * 一次保存的统计
+     */
+    public static class SaveStats {
+
+        /**
+         * 重新编码的单例数
+         */
+        public final int encodedCount;
+        /**
+         * 没有修改、复用上次编码结果的单例数
+         */
+        public final int unchangedCount;
+        /**
+         * 因编码失败或超出预算没有保存的单例数
+         */
+        public final int droppedCount;
+        /**
+         * 保存的总字节数
+         */
+        public final int totalBytes;
+        /**
+         * 耗时，纳秒
+         */
+        public final long elapsedNanos;
+
+        SaveStats(int encodedCount, int unchangedCount, int droppedCount, int totalBytes, long elapsedNanos) {
+            this.encodedCount = encodedCount;
+            this.unchangedCount = unchangedCount;
+            this.droppedCount = droppedCount;
+            this.totalBytes = totalBytes;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "encoded " + encodedCount + ", unchanged " + unchangedCount + ", dropped " + droppedCount
+                    + ", " + totalBytes + " bytes in " + elapsedNanos / 1000 + "us";
+        }
+
+    }
+
+    private static final String TAG = "InstanceSaver";
+
+    /**
+     * 默认的单个单例预算，字节
+     */
+    public static final int DEFAULT_MODEL_BUDGET_BYTES = 100 * 1024;
+    /**
+     * 默认的全部单例预算，字节，Binder 事务缓冲区为 1MB 且由整个进程共享
+     */
+    public static final int DEFAULT_TOTAL_BUDGET_BYTES = 200 * 1024;
+    /**
+     * 默认超过这个大小时压缩，字节
+     */
+    public static final int DEFAULT_COMPRESS_THRESHOLD_BYTES = 4 * 1024;
+    /**
+     * 默认超过这个大小时写入文件，字节
+     */
+    public static final int DEFAULT_SPILL_THRESHOLD_BYTES = 32 * 1024;
+    /**
+     * 默认的文件保留时间，毫秒
+     */
+    public static final long DEFAULT_SPILL_RETENTION_MILLIS = 3 * 24 * 60 * 60 * 1000L;
+    /**
+     * 默认的文件总大小上限，字节
+     */
+    public static final long DEFAULT_SPILL_MAX_BYTES = 16 * 1024 * 1024;
+
+    private static final String SPILL_DIRECTORY_NAME = "haruue-instance-saver";
+    private static final String SPILL_FILE_SUFFIX = ".snap";
+
+    private static final int FORMAT_SNAPSHOT = 1;
+    private static final int FORMAT_CODEC = 2;
+    private static final int FORMAT_SERIALIZABLE = 3;
+    /**
+     * 数据在文件中，之后是文件名
+     */
+    private static final int FORMAT_SPILLED = 4;
+    /**
+     * 格式字节中表示数据已压缩的标记
+     */
+    private static final int FLAG_DEFLATED = 0x80;
+
     private static InstanceSaver saver;
 
-    private Set<InstanceSavable> models;
+    /**
+     * 按类索引的单例，保持注册顺序
+     */
+    private Map<Class<?>, Entry> models;
+    private volatile SaveStats lastSaveStats;
+    private volatile OnSaveListener saveListener;
+    private int modelBudgetBytes = DEFAULT_MODEL_BUDGET_BYTES;
+    private int totalBudgetBytes = DEFAULT_TOTAL_BUDGET_BYTES;
+    private int compressThresholdBytes = DEFAULT_COMPRESS_THRESHOLD_BYTES;
+    /**
+     * 写入文件的目录，null 表示不写入文件
+     */
+    private File spillDirectory;
+    private int spillThresholdBytes = DEFAULT_SPILL_THRESHOLD_BYTES;
+    private long spillRetentionMillis = DEFAULT_SPILL_RETENTION_MILLIS;
+    private long spillMaxBytes = DEFAULT_SPILL_MAX_BYTES;
+    /**
+     * 上一次保存引用的文件名，清理时不会删除
+     */
+    private volatile Set<String> liveSpillFiles = new HashSet<>();
+    /**
+     * 第一次保存或恢复之前不清理，此时还不知道哪些文件会被引用
+     */
+    private volatile boolean spillGcEnabled;
+    /**
+     * 尚未写完的文件，读取时优先使用
+     */
+    private final ConcurrentHashMap<String, byte[]> pendingSpills = new ConcurrentHashMap<>();
+    /**
+     * 写入和清理文件时持有，清理不会看到写到一半的文件
+     */
+    private final Object spillLock = new Object();
+    private final Random spillNames = new Random();
 
     private InstanceSaver() {
 
@@ -27,7 +183,16 @@ public class InstanceSaver implements Serializable {
      */
     public static void initialize() {
         saver = new InstanceSaver();
-        saver.models = new HashSet<>(0);
+        saver.models = new LinkedHashMap<>();
+    }
+
+    /**
+     * 初始化并允许把较大的数据写入缓存目录，过期的文件在第一次保存或恢复之后清理
+     * @param context {@link Context} 实例
+     */
+    public static void initialize(Context context) {
+        initialize();
+        saver.spillDirectory = new File(context.getCacheDir(), SPILL_DIRECTORY_NAME);
     }
 
     /**
@@ -35,7 +200,11 @@ public class InstanceSaver implements Serializable {
      * @param instanceSavable 需要添加的单例，直接传入同类的任意对象都可以
      */
     public static void add(InstanceSavable instanceSavable) {
-        saver.models.add(instanceSavable);
+        synchronized (saver.models) {
+            if (!saver.models.containsKey(instanceSavable.getClass())) {
+                saver.models.put(instanceSavable.getClass(), new Entry(instanceSavable));
+            }
+        }
     }
 
     /**
@@ -43,7 +212,59 @@ public class InstanceSaver implements Serializable {
      * @param instanceSavable 需要移除的单例，直接传入同类的任意对象都可以
      */
     public static void remove(InstanceSavable instanceSavable) {
-        saver.models.remove(instanceSavable);
+        synchronized (saver.models) {
+            saver.models.remove(instanceSavable.getClass());
+        }
+    }
+
+    /**
+     * 设置写入文件的策略，需要使用 {@link #initialize(Context)} 初始化
+     * @param thresholdBytes 编码后超过这个大小时写入文件
+     * @param retentionMillis 文件在最后一次被引用后保留的时间，毫秒
+     * @param maxBytes 文件总大小上限，超过时从最旧的文件开始删除
+     */
+    public static void setSpill(int thresholdBytes, long retentionMillis, long maxBytes) {
+        saver.spillThresholdBytes = thresholdBytes;
+        saver.spillRetentionMillis = retentionMillis;
+        saver.spillMaxBytes = maxBytes;
+    }
+
+    /**
+     * 获取上一次保存的统计
+     * @return 统计，尚未保存过时返回 null
+     */
+    public static SaveStats getLastSaveStats() {
+        return saver.lastSaveStats;
+    }
+
+    /**
+     * 设置保存完成的回调
+     * @param listener 回调，为 null 时不回调
+     */
+    public static void setOnSaveListener(OnSaveListener listener) {
+        saver.saveListener = listener;
+    }
+
+    /**
+     * 设置保存数据的预算，超出预算的单例不会被保存<br>
+     *     全部单例的数据超过总预算的一半时输出警告
+     * @param modelBudgetBytes 单个单例的预算，字节
+     * @param totalBudgetBytes 全部单例的预算，字节
+     */
+    public static void setBudget(int modelBudgetBytes, int totalBudgetBytes) {
+        if (modelBudgetBytes <= 0 || totalBudgetBytes <= 0) {
+            throw new IllegalArgumentException("budget must be positive");
+        }
+        saver.modelBudgetBytes = modelBudgetBytes;
+        saver.totalBudgetBytes = totalBudgetBytes;
+    }
+
+    /**
+     * 设置压缩阈值
+     * @param bytes 编码后超过这个大小时压缩，为负数时不压缩
+     */
+    public static void setCompressThreshold(int bytes) {
+        saver.compressThresholdBytes = bytes;
     }
 
     /**
@@ -60,13 +281,74 @@ public class InstanceSaver implements Serializable {
      * @param outState 存储实例的外部状态
      */
     public static void saveInstance(Bundle outState) {
-        for (InstanceSavable i: saver.models) {
-            try {
-                outState.putSerializable(i.getClass().getName(), i.getSavableInstance());
-            } catch (Exception e) {
-                e.printStackTrace();
+        long start = System.nanoTime();
+        int total = 0;
+        int encoded = 0;
+        int unchanged = 0;
+        int dropped = 0;
+        Set<String> spillFiles = new HashSet<>();
+        synchronized (saver.models) {
+            for (Entry entry : saver.models.values()) {
+                InstanceSavable i = entry.model;
+                String key = i.getClass().getName();
+                long version = i.getVersion();
+                byte[] data;
+                if (entry.pendingData != null) {
+                    // 尚未被访问的单例，原样保存恢复时的数据
+                    data = entry.pendingData;
+                    unchanged++;
+                } else if (version != InstanceSavable.UNVERSIONED && version == entry.savedVersion && entry.savedData != null) {
+                    data = entry.savedToken != null ? entry.savedToken : entry.savedData;
+                    unchanged++;
+                } else {
+                    try {
+                        data = saver.encode(i);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        dropped++;
+                        continue;
+                    }
+                    // 编码期间被修改时，记录的是编码前的版本号，下次保存会重新编码
+                    entry.savedData = data;
+                    entry.savedVersion = version;
+                    entry.savedToken = null;
+                    if (saver.spillDirectory != null && data.length > saver.spillThresholdBytes) {
+                        entry.savedToken = saver.spill(data);
+                        data = entry.savedToken;
+                    }
+                    encoded++;
+                }
+                if (data[0] == FORMAT_SPILLED) {
+                    spillFiles.add(spillFileName(data));
+                }
+                if (data.length > saver.modelBudgetBytes) {
+                    Log.w(TAG, key + " is not saved: " + data.length + " bytes exceeds the model budget of " + saver.modelBudgetBytes + " bytes");
+                    dropped++;
+                    continue;
+                }
+                if (total + data.length > saver.totalBudgetBytes) {
+                    Log.w(TAG, key + " is not saved: " + data.length + " bytes would exceed the total budget of " + saver.totalBudgetBytes + " bytes");
+                    dropped++;
+                    continue;
+                }
+                total += data.length;
+                outState.putByteArray(key, data);
             }
         }
+        if (total > saver.totalBudgetBytes / 2) {
+            Log.w(TAG, "saved instance state is " + total + " bytes, close to the total budget of " + saver.totalBudgetBytes + " bytes");
+        }
+        if (!saver.spillGcEnabled || !spillFiles.equals(saver.liveSpillFiles)) {
+            saver.liveSpillFiles = spillFiles;
+            saver.spillGcEnabled = true;
+            saver.scheduleSpillGc();
+        }
+        SaveStats stats = new SaveStats(encoded, unchanged, dropped, total, System.nanoTime() - start);
+        saver.lastSaveStats = stats;
+        OnSaveListener listener = saver.saveListener;
+        if (listener != null) {
+            listener.onSaved(stats);
+        }
     }
 
     /**
@@ -75,20 +357,363 @@ public class InstanceSaver implements Serializable {
      *      \@Override
      *          protected void onRestoreInstanceState(Bundle savedInstanceState) {
      *          super.onRestoreInstanceState(savedInstanceState);
-     *          InstanceSaver.saveInstance(savedInstanceState);
+     *          InstanceSaver.restoreInstance(savedInstanceState);
      *      }
      * }
      * </code>
+     * 没有保存数据（例如超出预算）的单例不会被恢复，{@link InstanceSavable#restoresLazily()} 的单例在第一次访问时才恢复
      * @param savedInstance 存储实例的外部状态
      */
     public static void restoreInstance(Bundle savedInstance) {
-        for (InstanceSavable i: saver.models) {
+        Set<String> spillFiles = new HashSet<>(saver.liveSpillFiles);
+        synchronized (saver.models) {
+            for (Entry entry : saver.models.values()) {
+                byte[] data = savedInstance.getByteArray(entry.model.getClass().getName());
+                if (data == null) {
+                    continue;
+                }
+                if (data[0] == FORMAT_SPILLED) {
+                    spillFiles.add(spillFileName(data));
+                }
+                if (entry.model.restoresLazily()) {
+                    entry.pendingData = data;
+                } else {
+                    entry.pendingData = null;
+                    materialize(entry, data);
+                }
+            }
+        }
+        // 延迟恢复的单例之后才读取文件，在下一次保存之前保留这次恢复引用的文件
+        saver.liveSpillFiles = spillFiles;
+        if (!saver.spillGcEnabled) {
+            saver.spillGcEnabled = true;
+            saver.scheduleSpillGc();
+        }
+    }
+
+    /**
+     * 恢复延迟恢复的单例，已经恢复过或没有需要恢复的数据时什么都不做
+     * @param instanceSavable 单例，直接传入同类的任意对象都可以
+     */
+    public static void ensureRestored(InstanceSavable instanceSavable) {
+        synchronized (saver.models) {
+            Entry entry = saver.models.get(instanceSavable.getClass());
+            if (entry == null || entry.pendingData == null) {
+                return;
+            }
+            byte[] data = entry.pendingData;
+            entry.pendingData = null;
+            materialize(entry, data);
+        }
+    }
+
+    /**
+     * 解码并恢复一个单例，调用时需要持有 models 的锁
+     * @param data Bundle 中的数据，可能是文件名
+     */
+    private static void materialize(Entry entry, byte[] data) {
+        InstanceSavable i = entry.model;
+        try {
+            byte[] token = null;
+            if (data[0] == FORMAT_SPILLED) {
+                token = data;
+                data = saver.readSpill(spillFileName(token));
+                if (data == null) {
+                    Log.w(TAG, i.getClass().getName() + " is not restored: spill file is missing");
+                    return;
+                }
+            }
+            decode(i, data);
+            // 恢复后的数据与保存的数据相同，没有修改时可以直接复用
+            entry.savedData = data;
+            entry.savedToken = token;
+            entry.savedVersion = i.getVersion();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 在后台把数据写入一个新文件，写完之前读取时直接使用内存中的数据<br>
+     *     这是缓存文件，丢失时只是无法恢复对应的单例，因此不调用 fsync
+     * @return Bundle 中保存的数据
+     */
+    private byte[] spill(final byte[] data) {
+        final String name;
+        synchronized (spillNames) {
+            name = Long.toHexString(System.currentTimeMillis()) + "-" + Long.toHexString(spillNames.nextLong() & Long.MAX_VALUE) + SPILL_FILE_SUFFIX;
+        }
+        pendingSpills.put(name, data);
+        Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeSpill(name, data);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                } finally {
+                    pendingSpills.remove(name);
+                }
+            }
+        };
+        ExecutorEngine engine = ThreadUtils.peekExecutorEngine();
+        // 线程池没有接受时直接写入，保证返回的文件名对应的文件一定会存在
+        if (engine == null || engine.trySubmit(ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_HIGH, null, write) == null) {
+            write.run();
+        }
+        byte[] nameBytes = name.getBytes();
+        byte[] token = new byte[nameBytes.length + 1];
+        token[0] = FORMAT_SPILLED;
+        System.arraycopy(nameBytes, 0, token, 1, nameBytes.length);
+        return token;
+    }
+
+    /**
+     * 写入临时文件后重命名，不会留下写到一半的文件
+     */
+    private void writeSpill(String name, byte[] data) throws IOException {
+        synchronized (spillLock) {
+            if (!spillDirectory.isDirectory() && !spillDirectory.mkdirs()) {
+                throw new IOException("cannot create " + spillDirectory);
+            }
+            File temp = new File(spillDirectory, name + ".tmp");
+            FileOutputStream out = new FileOutputStream(temp);
             try {
-                i.onRestoreInstance(savedInstance.getSerializable(i.getClass().getName()));
-            } catch (Exception e) {
-                e.printStackTrace();
+                out.write(data);
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(new File(spillDirectory, name))) {
+                temp.delete();
+                throw new IOException("cannot rename " + temp);
+            }
+        }
+    }
+
+    private static String spillFileName(byte[] token) {
+        return new String(token, 1, token.length - 1);
+    }
+
+    /**
+     * 读取文件中的数据
+     * @return 数据，文件不存在时返回 null
+     */
+    private byte[] readSpill(String name) throws IOException {
+        if (spillDirectory == null || name.indexOf('/') >= 0) {
+            return null;
+        }
+        byte[] pending = pendingSpills.get(name);
+        if (pending != null) {
+            return pending;
+        }
+        File file = new File(spillDirectory, name);
+        if (!file.isFile()) {
+            return null;
+        }
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int count = 0;
+            while (count < data.length) {
+                int n = in.read(data, count, data.length - count);
+                if (n < 0) {
+                    throw new IOException("unexpected end of " + file);
+                }
+                count += n;
             }
+        } finally {
+            in.close();
+        }
+        file.setLastModified(System.currentTimeMillis());
+        return data;
+    }
+
+    /**
+     * 在后台清理文件，{@link ThreadUtils} 尚未初始化或线程池没有接受时在当前线程清理
+     */
+    private void scheduleSpillGc() {
+        if (spillDirectory == null || !spillGcEnabled) {
+            return;
         }
+        Runnable gc = new Runnable() {
+            @Override
+            public void run() {
+                gcSpillFiles();
+            }
+        };
+        ExecutorEngine engine = ThreadUtils.peekExecutorEngine();
+        if (engine == null || engine.trySubmit(ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_LOW, null, gc) == null) {
+            gc.run();
+        }
+    }
+
+    /**
+     * 删除超过保留时间的文件，总大小超过上限时从最旧的文件开始删除，上一次保存引用的文件不会被删除
+     */
+    private void gcSpillFiles() {
+        synchronized (spillLock) {
+            gcSpillFilesLocked();
+        }
+    }
+
+    private void gcSpillFilesLocked() {
+        File[] files = spillDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Set<String> live = liveSpillFiles;
+        final long now = System.currentTimeMillis();
+        final long[] modified = new long[files.length];
+        Integer[] order = new Integer[files.length];
+        long totalBytes = 0;
+        for (int i = 0; i < files.length; i++) {
+            modified[i] = files[i].lastModified();
+            order[i] = i;
+            totalBytes += files[i].length();
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return modified[a] < modified[b] ? -1 : (modified[a] == modified[b] ? 0 : 1);
+            }
+        });
+        for (int index : order) {
+            File file = files[index];
+            if (live.contains(file.getName())) {
+                continue;
+            }
+            if (now - modified[index] > spillRetentionMillis || totalBytes > spillMaxBytes) {
+                long length = file.length();
+                if (file.delete()) {
+                    totalBytes -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * 编码一个单例的数据，第一个字节为格式
+     */
+    private byte[] encode(InstanceSavable model) throws IOException {
+        BinaryWriter out = new BinaryWriter(256);
+        out.writeByte(FORMAT_SNAPSHOT);
+        if (!(model instanceof SnapshotSavable) || !((SnapshotSavable) model).writeSnapshot(out)) {
+            out.reset();
+            Serializable instance = model.getSavableInstance();
+            if (BinaryCodec.preservesType(instance)) {
+                out.writeByte(FORMAT_CODEC);
+                BinaryCodec.write(out, instance);
+            } else {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+                bytes.write(FORMAT_SERIALIZABLE);
+                ObjectOutputStream oos = new ObjectOutputStream(bytes);
+                oos.writeObject(instance);
+                oos.close();
+                return compress(bytes.toByteArray());
+            }
+        }
+        return compress(out.toByteArray());
+    }
+
+    /**
+     * 超过阈值时压缩格式字节之后的内容，压缩后更大时保持原样
+     */
+    private byte[] compress(byte[] data) {
+        if (compressThresholdBytes < 0 || data.length <= compressThresholdBytes) {
+            return data;
+        }
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, 1, data.length - 1);
+            deflater.finish();
+            BinaryWriter out = new BinaryWriter(data.length / 2 + 16);
+            out.writeByte(data[0] | FLAG_DEFLATED);
+            out.writeVarInt(data.length - 1);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.writeRaw(buffer, 0, count);
+                if (out.size() >= data.length) {
+                    return data;
+                }
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void decode(InstanceSavable model, byte[] data) throws IOException, ClassNotFoundException, DataFormatException {
+        int format = data[0] & 0xff;
+        BinaryReader in;
+        if ((format & FLAG_DEFLATED) != 0) {
+            format &= ~FLAG_DEFLATED;
+            BinaryReader header = new BinaryReader(data, 1, data.length - 1);
+            int length = header.readVarInt();
+            int offset = data.length - header.remaining();
+            byte[] inflated = new byte[length];
+            Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(data, offset, data.length - offset);
+                int count = 0;
+                while (count < length && !inflater.finished()) {
+                    int n = inflater.inflate(inflated, count, length - count);
+                    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        throw new DataFormatException("truncated data");
+                    }
+                    count += n;
+                }
+            } finally {
+                inflater.end();
+            }
+            in = new BinaryReader(inflated);
+        } else {
+            in = new BinaryReader(data, 1, data.length - 1);
+        }
+        switch (format) {
+            case FORMAT_SNAPSHOT:
+                if (!(model instanceof SnapshotSavable)) {
+                    throw new IOException(model.getClass().getName() + " no longer implements SnapshotSavable");
+                }
+                ((SnapshotSavable) model).readSnapshot(in);
+                break;
+            case FORMAT_CODEC:
+                model.onRestoreInstance(BinaryCodec.<Serializable>read(in));
+                break;
+            case FORMAT_SERIALIZABLE:
+                ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(in.readRaw(in.remaining())));
+                try {
+                    model.onRestoreInstance((Serializable) ois.readObject());
+                } finally {
+                    ois.close();
+                }
+                break;
+            default:
+                throw new IOException("unknown format " + format);
+        }
+    }
+
+    private static final class Entry {
+
+        final InstanceSavable model;
+        /**
+         * 上次编码的结果和编码时的版本号
+         */
+        byte[] savedData;
+        long savedVersion = InstanceSavable.UNVERSIONED;
+        /**
+         * savedData 写入文件后在 Bundle 中保存的数据，没有写入文件时为 null
+         */
+        byte[] savedToken;
+        /**
+         * 延迟恢复的单例在 Bundle 中的数据，已恢复时为 null
+         */
+        byte[] pendingData;
+
+        Entry(InstanceSavable model) {
+            this.model = model;
+        }
+
     }
 
 }
@@ -0,0 +1,495 @@
+package moe.haruue.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 多关键词匹配（Aho-Corasick 自动机）<br>
+ *     由关键词集合编译一次，之后对任意文本只需要线性扫描一遍就能找出所有关键词，耗时与关键词的数量无关，适合敏感词过滤等场景<br>
+ *     自动机完全由基本类型数组表示：字母表压缩为连续的编号，子节点按 CSR 格式存放，根节点使用直接索引的跳转表<br>
+ *     可选 {@link #CASE_INSENSITIVE} 忽略大小写、{@link #FOLD_WIDTH} 把全角字符视为对应的半角字符，折叠是逐字符进行的，匹配位置与原文一一对应<br>
+ *     实例不可变，可以在多个线程中同时使用；关键词变化时用 {@link #plus(Collection)} 和 {@link #minus(Collection)} 得到新的实例，
+ *     重建的耗时与关键词总长度成正比，重建期间旧的实例仍然可以正常使用
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class KeywordMatcher {
+
+    /**
+     * 忽略大小写
+     */
+    public static final int CASE_INSENSITIVE = 1;
+    /**
+     * 全角 ASCII 字符（U+FF01 - U+FF5E）和全角空格视为对应的半角字符
+     */
+    public static final int FOLD_WIDTH = 1 << 1;
+
+    /**
+     * 匹配回调
+     */
+    public interface OnMatchListener {
+        /**
+         * 找到一个关键词，按结束位置的顺序调用，结束位置相同时较长的先调用
+         * @param start 在原文中的起始位置
+         * @param end 在原文中的结束位置（不包含）
+         * @param keywordIndex 关键词在 {@link #getKeywords()} 中的下标
+         * @return 是否继续扫描
+         */
+        boolean onMatch(int start, int end, int keywordIndex);
+    }
+
+    /**
+     * 一次匹配
+     */
+    public static final class Match {
+
+        public final int start;
+        public final int end;
+        public final String keyword;
+
+        Match(int start, int end, String keyword) {
+            this.start = start;
+            this.end = end;
+            this.keyword = keyword;
+        }
+
+        @Override
+        public String toString() {
+            return "[" + start + ", " + end + ") " + keyword;
+        }
+
+    }
+
+    private static final int ROOT = 0;
+
+    private final int flags;
+    private final String[] keywords;
+    private final int[] keywordLengths;
+
+    /**
+     * 字母表：关键词中出现过的（折叠后的）字符，升序，下标即字符的编号
+     */
+    private final char[] alphabet;
+    /**
+     * ASCII 字符的编号，-1 表示不在字母表中
+     */
+    private final int[] asciiClasses = new int[128];
+    /**
+     * 根节点的跳转表，下标为字符编号
+     */
+    private final int[] rootNext;
+    /**
+     * 节点 s 的子节点在 childLabels/childTargets 中的范围为 [childStart[s], childStart[s + 1])，按字符编号升序
+     */
+    private final int[] childStart;
+    private final int[] childLabels;
+    private final int[] childTargets;
+    private final int[] fail;
+    /**
+     * 在节点结束的关键词下标，-1 表示没有
+     */
+    private final int[] output;
+    /**
+     * 沿失配链的下一个有输出的节点，0 表示没有
+     */
+    private final int[] outputLink;
+
+    private KeywordMatcher(String[] keywords, String[] folded, int flags) {
+        this.flags = flags;
+        this.keywords = keywords;
+        this.keywordLengths = new int[keywords.length];
+
+        // 字母表
+        int total = 0;
+        Set<Character> chars = new HashSet<>();
+        for (int i = 0; i < folded.length; i++) {
+            String k = folded[i];
+            keywordLengths[i] = k.length();
+            total += k.length();
+            for (int j = 0; j < k.length(); j++) {
+                chars.add(k.charAt(j));
+            }
+        }
+        alphabet = new char[chars.size()];
+        int a = 0;
+        for (Character c : chars) {
+            alphabet[a++] = c;
+        }
+        Arrays.sort(alphabet);
+        Arrays.fill(asciiClasses, -1);
+        for (int i = 0; i < alphabet.length && alphabet[i] < 128; i++) {
+            asciiClasses[alphabet[i]] = i;
+        }
+
+        // 字典树，构建时子节点用链表表示
+        int capacity = total + 1;
+        int[] firstChild = new int[capacity];
+        int[] nextSibling = new int[capacity];
+        int[] label = new int[capacity];
+        int[] out = new int[capacity];
+        Arrays.fill(firstChild, -1);
+        Arrays.fill(out, -1);
+        int states = 1;
+        for (int i = 0; i < folded.length; i++) {
+            String k = folded[i];
+            int s = ROOT;
+            for (int j = 0; j < k.length(); j++) {
+                int cls = Arrays.binarySearch(alphabet, k.charAt(j));
+                int child = firstChild[s];
+                while (child >= 0 && label[child] != cls) {
+                    child = nextSibling[child];
+                }
+                if (child < 0) {
+                    child = states++;
+                    label[child] = cls;
+                    nextSibling[child] = firstChild[s];
+                    firstChild[s] = child;
+                }
+                s = child;
+            }
+            out[s] = i;
+        }
+
+        // 转换为 CSR
+        childStart = new int[states + 1];
+        childLabels = new int[states - 1];
+        childTargets = new int[states - 1];
+        int position = 0;
+        for (int s = 0; s < states; s++) {
+            childStart[s] = position;
+            int begin = position;
+            for (int child = firstChild[s]; child >= 0; child = nextSibling[child]) {
+                // 插入排序，子节点通常很少
+                int p = position++;
+                while (p > begin && childLabels[p - 1] > label[child]) {
+                    childLabels[p] = childLabels[p - 1];
+                    childTargets[p] = childTargets[p - 1];
+                    p--;
+                }
+                childLabels[p] = label[child];
+                childTargets[p] = child;
+            }
+        }
+        childStart[states] = position;
+        rootNext = new int[alphabet.length];
+        for (int i = childStart[ROOT]; i < childStart[ROOT + 1]; i++) {
+            rootNext[childLabels[i]] = childTargets[i];
+        }
+
+        // 按层次计算失配指针和输出链
+        output = Arrays.copyOf(out, states);
+        fail = new int[states];
+        outputLink = new int[states];
+        int[] queue = new int[states];
+        int head = 0;
+        int tail = 0;
+        for (int i = childStart[ROOT]; i < childStart[ROOT + 1]; i++) {
+            queue[tail++] = childTargets[i];
+        }
+        while (head < tail) {
+            int s = queue[head++];
+            for (int i = childStart[s]; i < childStart[s + 1]; i++) {
+                int child = childTargets[i];
+                int cls = childLabels[i];
+                int f = fail[s];
+                int next;
+                while ((next = child(f, cls)) < 0 && f != ROOT) {
+                    f = fail[f];
+                }
+                fail[child] = next < 0 ? ROOT : next;
+                int fc = fail[child];
+                outputLink[child] = output[fc] >= 0 ? fc : outputLink[fc];
+                queue[tail++] = child;
+            }
+        }
+    }
+
+    /**
+     * 编译关键词，区分大小写和全半角
+     * @param keywords 关键词，空字符串会被忽略
+     * @return 编译后的自动机
+     */
+    public static KeywordMatcher compile(Collection<String> keywords) {
+        return compile(keywords, 0);
+    }
+
+    /**
+     * 编译关键词
+     * @param keywords 关键词，空字符串会被忽略，折叠后相同的关键词只保留第一个
+     * @param flags {@link #CASE_INSENSITIVE} 、{@link #FOLD_WIDTH} 的组合
+     * @return 编译后的自动机
+     */
+    public static KeywordMatcher compile(Collection<String> keywords, int flags) {
+        Map<String, String> unique = new LinkedHashMap<>();
+        for (String keyword : keywords) {
+            if (keyword == null || keyword.isEmpty()) {
+                continue;
+            }
+            String folded = fold(keyword, flags);
+            if (!unique.containsKey(folded)) {
+                unique.put(folded, keyword);
+            }
+        }
+        String[] originals = unique.values().toArray(new String[unique.size()]);
+        String[] folded = unique.keySet().toArray(new String[unique.size()]);
+        return new KeywordMatcher(originals, folded, flags);
+    }
+
+    /**
+     * 添加关键词，得到新的实例
+     * @param added 需要添加的关键词
+     * @return 新的实例，原来的实例不变
+     */
+    public KeywordMatcher plus(Collection<String> added) {
+        List<String> list = new ArrayList<>(keywords.length + added.size());
+        Collections.addAll(list, keywords);
+        list.addAll(added);
+        return compile(list, flags);
+    }
+
+    /**
+     * 移除关键词，得到新的实例
+     * @param removed 需要移除的关键词，按折叠后的形式比较
+     * @return 新的实例，原来的实例不变
+     */
+    public KeywordMatcher minus(Collection<String> removed) {
+        Set<String> foldedRemoved = new HashSet<>();
+        for (String keyword : removed) {
+            if (keyword != null) {
+                foldedRemoved.add(fold(keyword, flags));
+            }
+        }
+        List<String> list = new ArrayList<>(keywords.length);
+        for (String keyword : keywords) {
+            if (!foldedRemoved.contains(fold(keyword, flags))) {
+                list.add(keyword);
+            }
+        }
+        return compile(list, flags);
+    }
+
+    /**
+     * 获取所有关键词
+     * @return 去重后的关键词，下标与 {@link OnMatchListener#onMatch(int, int, int)} 中的 keywordIndex 对应
+     */
+    public List<String> getKeywords() {
+        return Collections.unmodifiableList(Arrays.asList(keywords));
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * 扫描文本，报告所有的匹配，包括互相重叠的
+     * @param text 文本
+     * @param listener 回调，返回 false 时停止扫描
+     */
+    public void scan(CharSequence text, OnMatchListener listener) {
+        int state = ROOT;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = step(state, text.charAt(i));
+            if (state == ROOT) {
+                continue;
+            }
+            for (int s = output[state] >= 0 ? state : outputLink[state]; s != ROOT; s = outputLink[s]) {
+                int keyword = output[s];
+                if (!listener.onMatch(i + 1 - keywordLengths[keyword], i + 1, keyword)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * 文本中是否含有任意一个关键词，找到第一个就返回
+     * @param text 文本
+     * @return 是否含有关键词
+     */
+    public boolean containsAny(CharSequence text) {
+        int state = ROOT;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = step(state, text.charAt(i));
+            if (state != ROOT && (output[state] >= 0 || outputLink[state] != ROOT)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 找出所有匹配，包括互相重叠的
+     * @param text 文本
+     * @return 按结束位置排列的匹配
+     */
+    public List<Match> findAll(CharSequence text) {
+        final List<Match> matches = new ArrayList<>();
+        scan(text, new OnMatchListener() {
+            @Override
+            public boolean onMatch(int start, int end, int keywordIndex) {
+                matches.add(new Match(start, end, keywords[keywordIndex]));
+                return true;
+            }
+        });
+        return matches;
+    }
+
+    /**
+     * 把所有匹配到的字符替换为 mask ，例如 {@code 这是敏感词 -> 这是***}
+     * @param text 文本
+     * @param mask 替换用的字符
+     * @return 替换结果，没有匹配时返回原文
+     */
+    public String mask(CharSequence text, char mask) {
+        int[] longest = longestMatchEnds(text);
+        if (longest == null) {
+            return text.toString();
+        }
+        char[] out = new char[text.length()];
+        int maskUntil = 0;
+        for (int i = 0; i < out.length; i++) {
+            maskUntil = Math.max(maskUntil, longest[i]);
+            out[i] = i < maskUntil ? mask : text.charAt(i);
+        }
+        return new String(out);
+    }
+
+    /**
+     * 从左到右把每个最长的匹配替换为 replacement ，替换的部分不会互相重叠
+     * @param text 文本
+     * @param replacement 替换用的字符串
+     * @return 替换结果，没有匹配时返回原文
+     */
+    public String replace(CharSequence text, String replacement) {
+        int[] longest = longestMatchEnds(text);
+        if (longest == null) {
+            return text.toString();
+        }
+        int length = text.length();
+        StringBuilder sb = new StringBuilder(length + 16);
+        int i = 0;
+        while (i < length) {
+            if (longest[i] > i) {
+                sb.append(replacement);
+                i = longest[i];
+            } else {
+                sb.append(text.charAt(i++));
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 计算从每个位置开始的最长匹配的结束位置
+     * @return 没有匹配的位置为 0 ，整个文本没有匹配时返回 null
+     */
+    private int[] longestMatchEnds(CharSequence text) {
+        int[] longest = null;
+        int state = ROOT;
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            state = step(state, text.charAt(i));
+            if (state == ROOT) {
+                continue;
+            }
+            for (int s = output[state] >= 0 ? state : outputLink[state]; s != ROOT; s = outputLink[s]) {
+                if (longest == null) {
+                    longest = new int[length];
+                }
+                int start = i + 1 - keywordLengths[output[s]];
+                if (longest[start] < i + 1) {
+                    longest[start] = i + 1;
+                }
+            }
+        }
+        return longest;
+    }
+
+    private int step(int state, char c) {
+        int cls = classOf(foldChar(c, flags));
+        if (cls < 0) {
+            return ROOT;
+        }
+        while (state != ROOT) {
+            int next = child(state, cls);
+            if (next >= 0) {
+                return next;
+            }
+            state = fail[state];
+        }
+        return rootNext[cls];
+    }
+
+    private int classOf(char c) {
+        if (c < 128) {
+            return asciiClasses[c];
+        }
+        int index = Arrays.binarySearch(alphabet, c);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * 查找子节点
+     * @return 子节点，不存在时返回 -1 ，根节点不存在时返回 0
+     */
+    private int child(int state, int cls) {
+        if (state == ROOT) {
+            int next = rootNext[cls];
+            return next == ROOT ? -1 : next;
+        }
+        int low = childStart[state];
+        int high = childStart[state + 1] - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int label = childLabels[mid];
+            if (label < cls) {
+                low = mid + 1;
+            } else if (label > cls) {
+                high = mid - 1;
+            } else {
+                return childTargets[mid];
+            }
+        }
+        return -1;
+    }
+
+    private static String fold(String s, int flags) {
+        if (flags == 0) {
+            return s;
+        }
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = foldChar(chars[i], flags);
+        }
+        return new String(chars);
+    }
+
+    private static char foldChar(char c, int flags) {
+        if ((flags & FOLD_WIDTH) != 0) {
+            if (c >= '！' && c <= '～') {
+                c -= 0xfee0;
+            } else if (c == '　') {
+                c = ' ';
+            }
+        }
+        if ((flags & CASE_INSENSITIVE) != 0) {
+            if (c < 128) {
+                if (c >= 'A' && c <= 'Z') {
+                    c += 'a' - 'A';
+                }
+            } else {
+                c = Character.toLowerCase(c);
+            }
+        }
+        return c;
+    }
+
+}
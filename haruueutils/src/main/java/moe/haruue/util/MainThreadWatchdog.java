@@ -0,0 +1,303 @@
+package moe.haruue.util;
+
+import android.app.Application;
+import android.os.Looper;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.util.Printer;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 主线程卡顿检测<br>
+ *     通过 {@link Looper#setMessageLogging(Printer)} 记录主线程每条消息的分发耗时，维护一个耗时分布直方图，
+ *     每条超过阈值的消息在分发结束时计入卡顿次数；另有一个后台线程每个阈值周期醒来一次，在消息仍在分发时抓取主线程的调用栈<br>
+ *     开销：设置 {@link Printer} 后 Looper 每条消息都会拼接两个描述字符串，再加上两次时间戳记录和一次直方图计数，
+ *     对每条消息都有少量的分配，建议只在调试版本中开启<br>
+ *     可以继承 {@link moe.haruue.util.abstracts.HaruueApplication} 并重写 {@link moe.haruue.util.abstracts.HaruueApplication#getMainThreadWatchdogThresholdMillis()} 开启，
+ *     或者直接调用 {@link #start(Application, long)}<br>
+ *     注意：主线程 {@link Looper} 只能设置一个 {@link Printer} ，开启后会替换已有的 {@link Printer}
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class MainThreadWatchdog {
+
+    /**
+     * 卡顿回调，在检测线程中调用
+     */
+    public interface OnStallListener {
+        /**
+         * 某条消息的分发耗时超过阈值，并且抓取到了调用栈<br>
+         *     调用栈按阈值周期抽样抓取，耗时不到两倍阈值的消息可能没有回调，完整的次数见 {@link #getStallCount()}
+         * @param info 卡顿信息，此时消息仍在分发中
+         */
+        void onStall(StallInfo info);
+    }
+
+    /**
+     * 一次卡顿的信息
+     */
+    public static class StallInfo {
+
+        /**
+         * Looper 输出的消息描述，包含 Handler 和 Callback
+         */
+        public final String message;
+        /**
+         * 检测到卡顿时该消息已经分发的时间，毫秒
+         */
+        public final long elapsedMillis;
+        /**
+         * 检测到卡顿时主线程的调用栈
+         */
+        public final StackTraceElement[] stackTrace;
+
+        StallInfo(String message, long elapsedMillis, StackTraceElement[] stackTrace) {
+            this.message = message;
+            this.elapsedMillis = elapsedMillis;
+            this.stackTrace = stackTrace;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            sb.append("main thread stalled ").append(elapsedMillis).append("ms on ").append(message);
+            for (StackTraceElement e : stackTrace) {
+                sb.append("\n\tat ").append(e);
+            }
+            return sb.toString();
+        }
+
+    }
+
+    private static final String TAG = "MainThreadWatchdog";
+
+    /**
+     * 直方图的桶数，第 i 个桶统计 [2^(i-1), 2^i) 毫秒的消息，第 0 个桶统计 1 毫秒以内的消息，最后一个桶没有上界
+     */
+    public static final int BUCKET_COUNT = 14;
+
+    private static MainThreadWatchdog watchdog;
+
+    private final Looper looper;
+    private final long thresholdNanos;
+    private final AtomicLongArray histogram = new AtomicLongArray(BUCKET_COUNT);
+    private volatile OnStallListener listener;
+
+    /**
+     * 正在分发的消息的开始时间，0 表示没有消息在分发
+     */
+    private volatile long dispatchStartNanos;
+    private volatile String dispatchMessage;
+    private volatile long dispatchSequence;
+    private volatile long stallCount;
+    private volatile boolean running;
+    private Thread checker;
+
+    private final Printer printer = new Printer() {
+        @Override
+        public void println(String x) {
+            if (x.charAt(0) == '>') {
+                dispatchMessage = x;
+                dispatchSequence++;
+                dispatchStartNanos = System.nanoTime();
+            } else if (x.charAt(0) == '<') {
+                long start = dispatchStartNanos;
+                dispatchStartNanos = 0;
+                if (start != 0) {
+                    long elapsed = System.nanoTime() - start;
+                    if (elapsed >= thresholdNanos) {
+                        // 只在主线程中写入
+                        stallCount++;
+                    }
+                    record(elapsed / 1000000L);
+                }
+            }
+        }
+    };
+
+    private MainThreadWatchdog(Looper looper, long thresholdMillis) {
+        this.looper = looper;
+        this.thresholdNanos = thresholdMillis * 1000000L;
+        this.listener = new OnStallListener() {
+            @Override
+            public void onStall(StallInfo info) {
+                Log.w(TAG, info.toString());
+            }
+        };
+    }
+
+    /**
+     * 开始检测，重复调用会先停止之前的检测
+     * @param application {@link Application} 实例
+     * @param thresholdMillis 卡顿阈值，毫秒
+     */
+    public static synchronized void start(Application application, long thresholdMillis) {
+        if (thresholdMillis <= 0) {
+            throw new IllegalArgumentException("threshold must be positive");
+        }
+        stop();
+        watchdog = new MainThreadWatchdog(application.getMainLooper(), thresholdMillis);
+        watchdog.startInternal();
+    }
+
+    /**
+     * 停止检测，已记录的数据会被清除
+     */
+    public static synchronized void stop() {
+        if (watchdog != null) {
+            watchdog.stopInternal();
+            watchdog = null;
+        }
+    }
+
+    /**
+     * 是否正在检测
+     * @return 是否正在检测
+     */
+    public static synchronized boolean isRunning() {
+        return watchdog != null;
+    }
+
+    /**
+     * 设置卡顿回调，默认以 warning 级别输出到 log
+     * @param listener 卡顿回调，传入 null 则不处理
+     */
+    public static synchronized void setOnStallListener(@Nullable OnStallListener listener) {
+        if (watchdog != null) {
+            watchdog.listener = listener;
+        }
+    }
+
+    /**
+     * 获取消息分发耗时的直方图
+     * @return 长度为 {@link #BUCKET_COUNT} 的数组，没有开启检测时返回全 0 的数组
+     */
+    public static long[] getHistogram() {
+        long[] result = new long[BUCKET_COUNT];
+        MainThreadWatchdog w = watchdog;
+        if (w != null) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                result[i] = w.histogram.get(i);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 获取直方图中某个桶的上界
+     * @param bucket 桶的下标
+     * @return 上界，毫秒，最后一个桶返回 {@link Long#MAX_VALUE}
+     */
+    public static long getBucketUpperBoundMillis(int bucket) {
+        return bucket >= BUCKET_COUNT - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * 获取卡顿次数，每条分发耗时超过阈值的消息都会计入，正在分发的消息结束后才计入
+     * @return 卡顿次数
+     */
+    public static long getStallCount() {
+        MainThreadWatchdog w = watchdog;
+        return w == null ? 0 : w.stallCount;
+    }
+
+    /**
+     * 清空直方图和卡顿计数
+     */
+    public static void reset() {
+        MainThreadWatchdog w = watchdog;
+        if (w != null) {
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                w.histogram.set(i, 0);
+            }
+            w.stallCount = 0;
+        }
+    }
+
+    /**
+     * 以可读的形式输出直方图
+     * @return 直方图文本，每个桶一行
+     */
+    public static String dump() {
+        long[] h = getHistogram();
+        long total = 0;
+        for (long c : h) {
+            total += c;
+        }
+        StringBuilder sb = new StringBuilder();
+        sb.append("main looper dispatches: ").append(total).append(", stalls: ").append(getStallCount()).append('\n');
+        long lower = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            long upper = getBucketUpperBoundMillis(i);
+            sb.append('[').append(lower).append("ms, ");
+            if (upper == Long.MAX_VALUE) {
+                sb.append("+inf");
+            } else {
+                sb.append(upper).append("ms");
+            }
+            sb.append("): ").append(h[i]).append('\n');
+            lower = upper;
+        }
+        return sb.toString();
+    }
+
+    private void record(long millis) {
+        int bucket = millis <= 0 ? 0 : 64 - Long.numberOfLeadingZeros(millis);
+        histogram.incrementAndGet(Math.min(bucket, BUCKET_COUNT - 1));
+    }
+
+    private void startInternal() {
+        running = true;
+        looper.setMessageLogging(printer);
+        checker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                check();
+            }
+        }, "HaruueUtils-watchdog");
+        checker.setDaemon(true);
+        checker.start();
+    }
+
+    private void stopInternal() {
+        running = false;
+        looper.setMessageLogging(null);
+        checker.interrupt();
+    }
+
+    /**
+     * 检测线程：每个阈值周期检查一次，同一条消息只抓取一次调用栈；卡顿次数由主线程统计，这里只负责抓取调用栈
+     */
+    private void check() {
+        long reportedSequence = -1;
+        long sleepMillis = Math.max(1, thresholdNanos / 1000000L);
+        Thread mainThread = looper.getThread();
+        while (running) {
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+            long start = dispatchStartNanos;
+            long sequence = dispatchSequence;
+            if (start == 0 || sequence == reportedSequence) {
+                continue;
+            }
+            long elapsed = System.nanoTime() - start;
+            if (elapsed < thresholdNanos) {
+                continue;
+            }
+            StackTraceElement[] stack = mainThread.getStackTrace();
+            // 抓取调用栈期间消息可能已经结束，此时调用栈已经没有意义
+            if (dispatchStartNanos != start) {
+                continue;
+            }
+            reportedSequence = sequence;
+            OnStallListener l = listener;
+            if (l != null) {
+                l.onStall(new StallInfo(dispatchMessage, elapsed / 1000000L, stack));
+            }
+        }
+    }
+
+}
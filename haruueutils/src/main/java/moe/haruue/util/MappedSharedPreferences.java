@@ -0,0 +1,640 @@
+package moe.haruue.util;
+
+import android.content.SharedPreferences;
+import android.support.annotation.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射文件的 {@link SharedPreferences} 实现<br>
+ *     数据以追加写入的二进制日志保存，每次提交只在文件末尾追加一条记录，不会重写整个文件；读取只访问内存中的索引<br>
+ *     每条记录带有 CRC32 校验，打开时从头重放日志，遇到不完整或损坏的记录即认为日志到此结束，
+ *     因此进程在写入中途被杀死时只会丢失最后一次提交<br>
+ *     无效数据超过一定比例时在后台线程池（{@link ThreadUtils} 尚未初始化时在当前线程）中压缩：把当前数据写入新文件后原子地替换旧文件<br>
+ *     与系统实现的区别：
+ *     <ul>
+ *         <li>不支持多进程</li>
+ *         <li>{@link Editor#apply()} 与 {@link Editor#commit()} 都会同步写入映射区域，commit 还会把映射区域刷到磁盘</li>
+ *         <li>{@link OnSharedPreferenceChangeListener} 在提交的线程中回调，{@link Editor#clear()} 时 key 为 null</li>
+ *     </ul>
+ *     可以通过 {@link SharedPreferencesUtils#SharedPreferencesUtils(SharedPreferences)} 使用
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class MappedSharedPreferences implements SharedPreferences {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int MAGIC = 0x48524b56;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 8;
+    /**
+     * 每条记录的头部：载荷长度和 CRC32
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INITIAL_CAPACITY = 4096;
+
+    private static final byte OP_REMOVE = 0;
+    private static final byte OP_INT = 1;
+    private static final byte OP_LONG = 2;
+    private static final byte OP_FLOAT = 3;
+    private static final byte OP_BOOLEAN = 4;
+    private static final byte OP_STRING = 5;
+    private static final byte OP_STRING_SET = 6;
+    private static final byte OP_CLEAR = 7;
+
+    /**
+     * 默认在日志超过这个大小后才考虑压缩
+     */
+    public static final int DEFAULT_COMPACT_MIN_BYTES = 16 * 1024;
+    /**
+     * 默认在无效数据超过这个比例时压缩
+     */
+    public static final float DEFAULT_COMPACT_GARBAGE_RATIO = 0.5f;
+
+    private final File file;
+    private final int compactMinBytes;
+    private final float compactGarbageRatio;
+
+    /**
+     * 读取时不加锁；重放日志时在新的 Map 中重建，完成后整体替换，读取不会看到重建中的索引
+     */
+    private volatile ConcurrentHashMap<String, Object> index = new ConcurrentHashMap<>();
+    private final WeakHashMap<OnSharedPreferenceChangeListener, Object> listeners = new WeakHashMap<>();
+
+    // 以下字段由 this 保护
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int capacity;
+    private int writePosition;
+    /**
+     * 当前数据编码后的大小，用于估算无效数据的比例
+     */
+    private long liveBytes;
+    private boolean compactScheduled;
+
+    /**
+     * 打开或创建文件，使用默认的压缩策略
+     * @param file 数据文件
+     * @throws IOException 文件无法读写或不是本类创建的文件
+     */
+    public MappedSharedPreferences(File file) throws IOException {
+        this(file, DEFAULT_COMPACT_MIN_BYTES, DEFAULT_COMPACT_GARBAGE_RATIO);
+    }
+
+    /**
+     * 打开或创建文件
+     * @param file 数据文件
+     * @param compactMinBytes 日志超过这个大小后才考虑压缩
+     * @param compactGarbageRatio 无效数据超过这个比例时压缩
+     * @throws IOException 文件无法读写或不是本类创建的文件
+     */
+    public MappedSharedPreferences(File file, int compactMinBytes, float compactGarbageRatio) throws IOException {
+        this.file = file;
+        this.compactMinBytes = compactMinBytes;
+        this.compactGarbageRatio = compactGarbageRatio;
+        synchronized (this) {
+            open();
+        }
+    }
+
+    private void open() throws IOException {
+        raf = new RandomAccessFile(file, "rw");
+        channel = raf.getChannel();
+        long length = raf.length();
+        if (length > Integer.MAX_VALUE) {
+            throw new IOException("file too large: " + file);
+        }
+        boolean created = length < HEADER_SIZE;
+        capacity = Math.max(INITIAL_CAPACITY, (int) length);
+        if (capacity != length) {
+            raf.setLength(capacity);
+        }
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            writePosition = HEADER_SIZE;
+            return;
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            close();
+            throw new IOException("not a " + MappedSharedPreferences.class.getSimpleName() + " file: " + file);
+        }
+        replay();
+    }
+
+    /**
+     * 重放日志重建索引，截断不完整或损坏的尾部
+     */
+    private void replay() {
+        ConcurrentHashMap<String, Object> rebuilt = new ConcurrentHashMap<>();
+        int position = HEADER_SIZE;
+        CRC32 crc = new CRC32();
+        while (position + RECORD_HEADER_SIZE <= capacity) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || length > capacity - position - RECORD_HEADER_SIZE) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.position(position + RECORD_HEADER_SIZE);
+            buffer.get(payload);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break;
+            }
+            applyRecord(rebuilt, ByteBuffer.wrap(payload), null);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        writePosition = position;
+        // 清除损坏的尾部，之后追加的较短记录后面不会残留看起来有效的数据
+        for (int i = position; i < capacity; i++) {
+            if (buffer.get(i) != 0) {
+                for (int j = i; j < capacity; j++) {
+                    buffer.put(j, (byte) 0);
+                }
+                break;
+            }
+        }
+        liveBytes = 0;
+        for (Map.Entry<String, Object> entry : rebuilt.entrySet()) {
+            liveBytes += sizeOf(entry.getKey(), entry.getValue());
+        }
+        index = rebuilt;
+    }
+
+    /**
+     * 把一条记录中的操作应用到索引
+     * @param target 索引
+     * @param changedKeys 收集被修改的 key ，clear 记为 null ，不需要时传入 null
+     */
+    private void applyRecord(Map<String, Object> target, ByteBuffer payload, @Nullable List<String> changedKeys) {
+        while (payload.hasRemaining()) {
+            byte op = payload.get();
+            if (op == OP_CLEAR) {
+                target.clear();
+                liveBytes = 0;
+                if (changedKeys != null) {
+                    changedKeys.add(null);
+                }
+                continue;
+            }
+            String key = readString(payload);
+            Object value;
+            switch (op) {
+                case OP_REMOVE:
+                    value = null;
+                    break;
+                case OP_INT:
+                    value = payload.getInt();
+                    break;
+                case OP_LONG:
+                    value = payload.getLong();
+                    break;
+                case OP_FLOAT:
+                    value = payload.getFloat();
+                    break;
+                case OP_BOOLEAN:
+                    value = payload.get() != 0;
+                    break;
+                case OP_STRING:
+                    value = readString(payload);
+                    break;
+                case OP_STRING_SET:
+                    int count = payload.getInt();
+                    Set<String> set = new HashSet<>(count * 2);
+                    for (int i = 0; i < count; i++) {
+                        set.add(readString(payload));
+                    }
+                    value = set;
+                    break;
+                default:
+                    throw new IllegalStateException("unknown op " + op);
+            }
+            Object old = value == null ? target.remove(key) : target.put(key, value);
+            if (old != null) {
+                liveBytes -= sizeOf(key, old);
+            }
+            if (value != null) {
+                liveBytes += sizeOf(key, value);
+            }
+            if (changedKeys != null) {
+                changedKeys.add(key);
+            }
+        }
+    }
+
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        String s = new String(payload.array(), payload.arrayOffset() + payload.position(), length, UTF_8);
+        payload.position(payload.position() + length);
+        return s;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeOp(DataOutputStream out, String key, @Nullable Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(OP_REMOVE);
+            writeString(out, key);
+        } else if (value instanceof Integer) {
+            out.writeByte(OP_INT);
+            writeString(out, key);
+            out.writeInt((Integer) value);
+        } else if (value instanceof Long) {
+            out.writeByte(OP_LONG);
+            writeString(out, key);
+            out.writeLong((Long) value);
+        } else if (value instanceof Float) {
+            out.writeByte(OP_FLOAT);
+            writeString(out, key);
+            out.writeFloat((Float) value);
+        } else if (value instanceof Boolean) {
+            out.writeByte(OP_BOOLEAN);
+            writeString(out, key);
+            out.writeBoolean((Boolean) value);
+        } else if (value instanceof String) {
+            out.writeByte(OP_STRING);
+            writeString(out, key);
+            writeString(out, (String) value);
+        } else {
+            Set<?> set = (Set<?>) value;
+            out.writeByte(OP_STRING_SET);
+            writeString(out, key);
+            out.writeInt(set.size());
+            for (Object s : set) {
+                writeString(out, (String) s);
+            }
+        }
+    }
+
+    /**
+     * 估算一个数据编码后的大小，字符按平均 2 字节计算
+     */
+    private static long sizeOf(String key, Object value) {
+        long size = 5 + key.length() * 2L;
+        if (value instanceof String) {
+            size += 4 + ((String) value).length() * 2L;
+        } else if (value instanceof Set) {
+            size += 4;
+            for (Object s : (Set<?>) value) {
+                size += 4 + ((String) s).length() * 2L;
+            }
+        } else {
+            size += 8;
+        }
+        return size;
+    }
+
+    /**
+     * 在日志末尾追加一条记录并应用到索引
+     * @return 被修改的 key
+     */
+    private synchronized List<String> append(byte[] payload, boolean force) throws IOException {
+        if (buffer == null) {
+            throw new IOException("closed: " + file);
+        }
+        int required = writePosition + RECORD_HEADER_SIZE + payload.length;
+        if (required > capacity) {
+            remap(required);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+        buffer.position(writePosition + RECORD_HEADER_SIZE);
+        buffer.put(payload);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        // 长度最后写入，写入中途进程退出时这条记录的长度仍然为 0
+        buffer.putInt(writePosition, payload.length);
+        writePosition = required;
+        if (force) {
+            buffer.force();
+        }
+        List<String> changed = new ArrayList<>();
+        applyRecord(index, ByteBuffer.wrap(payload), changed);
+        maybeScheduleCompact();
+        return changed;
+    }
+
+    private void remap(int required) throws IOException {
+        int newCapacity = capacity;
+        while (newCapacity < required) {
+            newCapacity = newCapacity > Integer.MAX_VALUE / 2 ? Integer.MAX_VALUE : newCapacity * 2;
+        }
+        raf.setLength(newCapacity);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+        capacity = newCapacity;
+    }
+
+    private void maybeScheduleCompact() {
+        if (compactScheduled || !needsCompact()) {
+            return;
+        }
+        ExecutorEngine engine = ThreadUtils.peekExecutorEngine();
+        if (engine == null) {
+            compactQuietly();
+            return;
+        }
+        // 调用时持有实例的锁，不能等待队列；没有提交时下一次写入再尝试
+        compactScheduled = engine.trySubmit(ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_LOW, null, new Runnable() {
+            @Override
+            public void run() {
+                synchronized (MappedSharedPreferences.this) {
+                    compactScheduled = false;
+                    if (needsCompact()) {
+                        compactQuietly();
+                    }
+                }
+            }
+        }) != null;
+    }
+
+    private boolean needsCompact() {
+        int logBytes = writePosition - HEADER_SIZE;
+        return logBytes >= compactMinBytes && logBytes - liveBytes > logBytes * compactGarbageRatio;
+    }
+
+    private void compactQuietly() {
+        try {
+            compact();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 立即压缩日志：把当前的数据写成一条记录保存到新文件，再替换原来的文件
+     * @throws IOException 写入失败，原来的文件不受影响
+     */
+    public synchronized void compact() throws IOException {
+        if (buffer == null) {
+            throw new IOException("closed: " + file);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream((int) Math.min(liveBytes + 64, Integer.MAX_VALUE));
+        DataOutputStream out = new DataOutputStream(bytes);
+        for (Map.Entry<String, Object> entry : index.entrySet()) {
+            writeOp(out, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+        byte[] payload = bytes.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payload.length);
+
+        File temp = new File(file.getPath() + ".tmp");
+        RandomAccessFile tempFile = new RandomAccessFile(temp, "rw");
+        try {
+            tempFile.setLength(0);
+            tempFile.writeInt(MAGIC);
+            tempFile.writeInt(VERSION);
+            if (payload.length > 0) {
+                tempFile.writeInt(payload.length);
+                tempFile.writeInt((int) crc.getValue());
+                tempFile.write(payload);
+            }
+            tempFile.getFD().sync();
+        } finally {
+            tempFile.close();
+        }
+        closeFile();
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            open();
+            throw new IOException("failed to replace " + file);
+        }
+        open();
+    }
+
+    /**
+     * 日志当前的结束位置
+     */
+    synchronized int getWritePosition() {
+        return writePosition;
+    }
+
+    /**
+     * 关闭文件，之后的写入会失败，已读入的数据仍然可以读取
+     */
+    public synchronized void close() throws IOException {
+        closeFile();
+    }
+
+    private void closeFile() throws IOException {
+        if (buffer != null) {
+            buffer.force();
+            buffer = null;
+        }
+        if (raf != null) {
+            raf.close();
+            raf = null;
+            channel = null;
+        }
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public Map<String, ?> getAll() {
+        return new HashMap<>(index);
+    }
+
+    @Nullable
+    @Override
+    public String getString(String key, @Nullable String defValue) {
+        Object value = index.get(key);
+        return value == null ? defValue : (String) value;
+    }
+
+    @Nullable
+    @Override
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, @Nullable Set<String> defValues) {
+        Object value = index.get(key);
+        return value == null ? defValues : (Set<String>) value;
+    }
+
+    @Override
+    public int getInt(String key, int defValue) {
+        Object value = index.get(key);
+        return value == null ? defValue : (Integer) value;
+    }
+
+    @Override
+    public long getLong(String key, long defValue) {
+        Object value = index.get(key);
+        return value == null ? defValue : (Long) value;
+    }
+
+    @Override
+    public float getFloat(String key, float defValue) {
+        Object value = index.get(key);
+        return value == null ? defValue : (Float) value;
+    }
+
+    @Override
+    public boolean getBoolean(String key, boolean defValue) {
+        Object value = index.get(key);
+        return value == null ? defValue : (Boolean) value;
+    }
+
+    @Override
+    public boolean contains(String key) {
+        return index.containsKey(key);
+    }
+
+    @Override
+    public Editor edit() {
+        return new MappedEditor();
+    }
+
+    @Override
+    public void registerOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.put(listener, this);
+        }
+    }
+
+    @Override
+    public void unregisterOnSharedPreferenceChangeListener(OnSharedPreferenceChangeListener listener) {
+        synchronized (listeners) {
+            listeners.remove(listener);
+        }
+    }
+
+    private void notifyListeners(List<String> changedKeys) {
+        OnSharedPreferenceChangeListener[] targets;
+        synchronized (listeners) {
+            if (listeners.isEmpty()) {
+                return;
+            }
+            targets = listeners.keySet().toArray(new OnSharedPreferenceChangeListener[listeners.size()]);
+        }
+        for (String key : changedKeys) {
+            for (OnSharedPreferenceChangeListener listener : targets) {
+                if (listener != null) {
+                    listener.onSharedPreferenceChanged(this, key);
+                }
+            }
+        }
+    }
+
+    private class MappedEditor implements Editor {
+
+        /**
+         * 修改的数据，值为 this 表示删除
+         */
+        private final Map<String, Object> modified = new LinkedHashMap<>();
+        private boolean clear;
+
+        private synchronized Editor put(String key, Object value) {
+            modified.put(key, value);
+            return this;
+        }
+
+        @Override
+        public Editor putString(String key, @Nullable String value) {
+            return put(key, value == null ? this : value);
+        }
+
+        @Override
+        public Editor putStringSet(String key, @Nullable Set<String> values) {
+            return put(key, values == null ? this : new HashSet<String>(values));
+        }
+
+        @Override
+        public Editor putInt(String key, int value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putLong(String key, long value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putFloat(String key, float value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor putBoolean(String key, boolean value) {
+            return put(key, value);
+        }
+
+        @Override
+        public Editor remove(String key) {
+            return put(key, this);
+        }
+
+        @Override
+        public synchronized Editor clear() {
+            clear = true;
+            return this;
+        }
+
+        @Override
+        public boolean commit() {
+            return write(true);
+        }
+
+        @Override
+        public void apply() {
+            write(false);
+        }
+
+        private boolean write(boolean force) {
+            List<String> changed;
+            try {
+                byte[] payload;
+                synchronized (this) {
+                    if (!clear && modified.isEmpty()) {
+                        return true;
+                    }
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+                    DataOutputStream out = new DataOutputStream(bytes);
+                    if (clear) {
+                        out.writeByte(OP_CLEAR);
+                    }
+                    for (Map.Entry<String, Object> entry : modified.entrySet()) {
+                        writeOp(out, entry.getKey(), entry.getValue() == this ? null : entry.getValue());
+                    }
+                    out.flush();
+                    payload = bytes.toByteArray();
+                    modified.clear();
+                    clear = false;
+                }
+                changed = append(payload, force);
+            } catch (IOException e) {
+                e.printStackTrace();
+                return false;
+            }
+            notifyListeners(changed);
+            return true;
+        }
+
+    }
+
+}
@@ -0,0 +1,88 @@
+package moe.haruue.util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 把若干个互相独立的分块分给 CPU 线程池并行处理<br>
+ *     调用线程自己也参与处理，各线程通过一个计数器领取下一个分块，因此即使线程池已满、
+ *     被拒绝或者调用线程本身就是线程池中的线程也不会死锁，最坏情况下退化为在调用线程中顺序处理<br>
+ *     协助的任务通过 {@link ExecutorEngine#trySubmit(ExecutorEngine.Pool, int, Object, Runnable)} 提交，
+ *     队列已满时直接跳过，不受 {@link ExecutorEngine.RejectionPolicy#BLOCK} 等策略影响<br>
+ *     {@link ThreadUtils} 尚未初始化时直接在调用线程中处理
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+final class ParallelChunks {
+
+    /**
+     * 处理一个分块
+     */
+    interface Body {
+        void run(int index) throws Exception;
+    }
+
+    private ParallelChunks() {
+
+    }
+
+    /**
+     * 并行处理所有分块，返回时所有分块都已处理完毕
+     * @param count 分块数
+     * @param body 处理一个分块，会在多个线程中同时调用
+     * @throws Exception 任意一个分块抛出的第一个异常，此后尚未开始的分块不再处理
+     */
+    static void forEach(final int count, final Body body) throws Exception {
+        if (count <= 0) {
+            return;
+        }
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done = new CountDownLatch(count);
+        final AtomicReference<Throwable> error = new AtomicReference<>();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                work(count, body, next, done, error);
+            }
+        };
+        ExecutorEngine engine = ThreadUtils.peekExecutorEngine();
+        if (engine != null && count > 1) {
+            int helpers = Math.min(count - 1, engine.getExecutor(ExecutorEngine.Pool.CPU).getMaximumPoolSize());
+            for (int i = 0; i < helpers; i++) {
+                if (engine.trySubmit(ExecutorEngine.Pool.CPU, BackgroundTask.PRIORITY_NORMAL, null, worker) == null) {
+                    break;
+                }
+            }
+        }
+        work(count, body, next, done, error);
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            // 让其他线程不再领取新的分块
+            next.set(count);
+            throw e;
+        }
+        Throwable t = error.get();
+        if (t instanceof Exception) {
+            throw (Exception) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+    }
+
+    private static void work(int count, Body body, AtomicInteger next, CountDownLatch done, AtomicReference<Throwable> error) {
+        int index;
+        while ((index = next.getAndIncrement()) < count) {
+            try {
+                if (error.get() == null) {
+                    body.run(index);
+                }
+            } catch (Throwable t) {
+                error.compareAndSet(null, t);
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,262 @@
+package moe.haruue.util;
+
+/**
+ * UTF-8 百分号编码/解码<br>
+ *     直接写入调用者提供的 {@link StringBuilder} ，不经过 {@link java.net.URLEncoder} 的 Charset 查找、{@link StringBuffer} 和中间字符串，
+ *     不需要编码的输入会被整段追加<br>
+ *     提供两种配置：
+ *     <ul>
+ *         <li>{@link #FORM} ：application/x-www-form-urlencoded ，与 {@link java.net.URLEncoder} 的结果相同，空格编码为 +</li>
+ *         <li>{@link #RFC3986} ：只保留 RFC 3986 的非保留字符，空格编码为 %20 ，适合路径片段</li>
+ *     </ul>
+ *     解码时遇到不完整的 % 转义会原样保留，不合法的 UTF-8 序列解码为 U+FFFD
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class PercentCodec {
+
+    /**
+     * application/x-www-form-urlencoded
+     */
+    public static final PercentCodec FORM = new PercentCodec("-._*", true);
+    /**
+     * RFC 3986 非保留字符
+     */
+    public static final PercentCodec RFC3986 = new PercentCodec("-._~", false);
+
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    private static final char REPLACEMENT = '\uFFFD';
+
+    /**
+     * ASCII 字符是否不需要编码
+     */
+    private final boolean[] safe = new boolean[128];
+    private final boolean spaceAsPlus;
+
+    private PercentCodec(String safeSymbols, boolean spaceAsPlus) {
+        for (char c = 'a'; c <= 'z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            safe[c] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            safe[c] = true;
+        }
+        for (int i = 0; i < safeSymbols.length(); i++) {
+            safe[safeSymbols.charAt(i)] = true;
+        }
+        this.spaceAsPlus = spaceAsPlus;
+    }
+
+    /**
+     * 编码
+     * @param s 需要编码的字符串
+     * @return 编码结果，不需要编码时返回 s 本身的字符串形式
+     */
+    public String encode(CharSequence s) {
+        int first = firstUnsafe(s, 0, s.length());
+        if (first == s.length()) {
+            return s.toString();
+        }
+        StringBuilder sb = new StringBuilder(s.length() + 16);
+        return encode(s, sb).toString();
+    }
+
+    /**
+     * 编码并追加到 {@link StringBuilder}
+     * @param s 需要编码的字符串
+     * @param sb 输出
+     * @return sb
+     */
+    public StringBuilder encode(CharSequence s, StringBuilder sb) {
+        return encode(s, 0, s.length(), sb);
+    }
+
+    /**
+     * 编码字符串的一部分并追加到 {@link StringBuilder}
+     * @param s 需要编码的字符串
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @param sb 输出
+     * @return sb
+     */
+    public StringBuilder encode(CharSequence s, int start, int end, StringBuilder sb) {
+        int i = start;
+        while (i < end) {
+            int unsafe = firstUnsafe(s, i, end);
+            if (unsafe > i) {
+                sb.append(s, i, unsafe);
+                i = unsafe;
+                if (i == end) {
+                    break;
+                }
+            }
+            char c = s.charAt(i++);
+            if (c == ' ' && spaceAsPlus) {
+                sb.append('+');
+            } else if (c < 0x80) {
+                appendByte(sb, c);
+            } else if (c < 0x800) {
+                appendByte(sb, 0xc0 | (c >> 6));
+                appendByte(sb, 0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i < end && Character.isLowSurrogate(s.charAt(i))) {
+                int cp = Character.toCodePoint(c, s.charAt(i++));
+                appendByte(sb, 0xf0 | (cp >> 18));
+                appendByte(sb, 0x80 | ((cp >> 12) & 0x3f));
+                appendByte(sb, 0x80 | ((cp >> 6) & 0x3f));
+                appendByte(sb, 0x80 | (cp & 0x3f));
+            } else if (c >= '\uD800' && c <= '\uDFFF') {
+                // 与 URLEncoder 一致，不成对的代理项编码为 ?
+                appendByte(sb, '?');
+            } else {
+                appendByte(sb, 0xe0 | (c >> 12));
+                appendByte(sb, 0x80 | ((c >> 6) & 0x3f));
+                appendByte(sb, 0x80 | (c & 0x3f));
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * 解码
+     * @param s 需要解码的字符串
+     * @return 解码结果，不需要解码时返回 s 本身的字符串形式
+     */
+    public String decode(CharSequence s) {
+        if (!needsDecode(s, 0, s.length())) {
+            return s.toString();
+        }
+        return decode(s, 0, s.length(), new StringBuilder(s.length())).toString();
+    }
+
+    /**
+     * 解码并追加到 {@link StringBuilder}
+     * @param s 需要解码的字符串
+     * @param sb 输出
+     * @return sb
+     */
+    public StringBuilder decode(CharSequence s, StringBuilder sb) {
+        return decode(s, 0, s.length(), sb);
+    }
+
+    /**
+     * 解码字符串的一部分并追加到 {@link StringBuilder}
+     * @param s 需要解码的字符串
+     * @param start 起始位置
+     * @param end 结束位置（不包含）
+     * @param sb 输出
+     * @return sb
+     */
+    public StringBuilder decode(CharSequence s, int start, int end, StringBuilder sb) {
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c == '+' && spaceAsPlus) {
+                sb.append(' ');
+                i++;
+                continue;
+            }
+            int b = c == '%' ? percentByte(s, i, end) : -1;
+            if (b < 0) {
+                sb.append(c);
+                i++;
+                continue;
+            }
+            i += 3;
+            if (b < 0x80) {
+                sb.append((char) b);
+                continue;
+            }
+            int extra;
+            int cp;
+            int min;
+            if ((b & 0xe0) == 0xc0) {
+                extra = 1;
+                cp = b & 0x1f;
+                min = 0x80;
+            } else if ((b & 0xf0) == 0xe0) {
+                extra = 2;
+                cp = b & 0x0f;
+                min = 0x800;
+            } else if ((b & 0xf8) == 0xf0) {
+                extra = 3;
+                cp = b & 0x07;
+                min = 0x10000;
+            } else {
+                sb.append(REPLACEMENT);
+                continue;
+            }
+            int j = 0;
+            for (; j < extra; j++) {
+                int next = i < end && s.charAt(i) == '%' ? percentByte(s, i, end) : -1;
+                if (next < 0 || (next & 0xc0) != 0x80) {
+                    break;
+                }
+                cp = (cp << 6) | (next & 0x3f);
+                i += 3;
+            }
+            if (j < extra || cp < min || cp > Character.MAX_CODE_POINT || (cp >= 0xd800 && cp <= 0xdfff)) {
+                sb.append(REPLACEMENT);
+            } else {
+                sb.appendCodePoint(cp);
+            }
+        }
+        return sb;
+    }
+
+    /**
+     * 判断字符串的一部分是否含有需要解码的字符
+     */
+    boolean needsDecode(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '%' || (c == '+' && spaceAsPlus)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 找到第一个需要编码的字符
+     * @return 下标，没有时返回 end
+     */
+    int firstUnsafe(CharSequence s, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c >= 128 || !safe[c]) {
+                return i;
+            }
+        }
+        return end;
+    }
+
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[(b >> 4) & 0xf]).append(HEX[b & 0xf]);
+    }
+
+    /**
+     * 读取 i 处的 %XX
+     * @return 字节值，不是合法的转义时返回 -1
+     */
+    private static int percentByte(CharSequence s, int i, int end) {
+        if (i + 2 >= end) {
+            return -1;
+        }
+        int hi = hexDigit(s.charAt(i + 1));
+        int lo = hexDigit(s.charAt(i + 2));
+        return hi < 0 || lo < 0 ? -1 : (hi << 4) | lo;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+}
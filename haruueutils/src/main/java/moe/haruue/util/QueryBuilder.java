@@ -0,0 +1,182 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+
+/**
+ * 可重用的 URL 查询字符串构造器<br>
+ *     所有键值直接编码到内部的 {@link StringBuilder} ，调用 {@link #reset()} 后缓冲区保留已有的容量，
+ *     重复使用时除了 {@link #build()} 返回的字符串外不再分配内存<br>
+ *     同一个键可以多次 {@link #add(CharSequence, Object)} ，值为 {@link Iterable} 或数组时按顺序展开为重复的键；
+ *     整数和布尔值直接写入，不经过 {@link Object#toString()}<br>
+ *     不是线程安全的
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class QueryBuilder {
+
+    private static final int DEFAULT_CAPACITY = 256;
+
+    private final PercentCodec codec;
+    private final StringBuilder sb;
+    private boolean needSeparator;
+    private boolean hasQuery;
+
+    /**
+     * 使用表单编码（与 {@link java.net.URLEncoder} 相同）和默认容量创建
+     */
+    public QueryBuilder() {
+        this(PercentCodec.FORM, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 创建构造器
+     * @param codec 键值使用的编码，{@link PercentCodec#FORM} 或 {@link PercentCodec#RFC3986}
+     * @param capacity 预估的 URL 长度
+     */
+    public QueryBuilder(PercentCodec codec, int capacity) {
+        this.codec = codec;
+        this.sb = new StringBuilder(capacity);
+    }
+
+    /**
+     * 设置基础 URL 并清空已添加的参数<br>
+     *     基础 URL 中已有 ? 时参数以 &amp; 连接，以 ? 或 &amp; 结尾时直接追加
+     * @param url 基础 URL ，原样写入，不会被编码，传入 null 则只构造查询字符串
+     * @return this
+     */
+    public QueryBuilder url(@Nullable CharSequence url) {
+        reset();
+        if (url != null) {
+            sb.append(url);
+            int length = url.length();
+            for (int i = 0; i < length; i++) {
+                if (url.charAt(i) == '?') {
+                    hasQuery = true;
+                    break;
+                }
+            }
+            char last = length == 0 ? 0 : url.charAt(length - 1);
+            needSeparator = !(last == '?' || last == '&');
+        }
+        return this;
+    }
+
+    /**
+     * 添加一个参数
+     * @param key 键
+     * @param value 值，{@link Iterable} 或数组（包括基本类型数组）会展开为多个同名参数，null 会写入空值
+     * @return this
+     */
+    public QueryBuilder add(CharSequence key, @Nullable Object value) {
+        if (value instanceof Iterable) {
+            for (Object v : (Iterable<?>) value) {
+                appendPair(key, v);
+            }
+        } else if (value instanceof Object[]) {
+            for (Object v : (Object[]) value) {
+                appendPair(key, v);
+            }
+        } else if (value instanceof int[]) {
+            for (int v : (int[]) value) {
+                appendKey(key);
+                sb.append(v);
+            }
+        } else if (value instanceof long[]) {
+            for (long v : (long[]) value) {
+                appendKey(key);
+                sb.append(v);
+            }
+        } else if (value != null && value.getClass().isArray()) {
+            // 其他基本类型数组，装箱后按单个值写入
+            int length = Array.getLength(value);
+            for (int i = 0; i < length; i++) {
+                appendPair(key, Array.get(value, i));
+            }
+        } else {
+            appendPair(key, value);
+        }
+        return this;
+    }
+
+    /**
+     * 添加 {@link Map} 中的所有参数，按 {@link Map#entrySet()} 的顺序
+     * @param fields 参数，键使用 {@link Object#toString()} ，值同 {@link #add(CharSequence, Object)}
+     * @return this
+     */
+    public QueryBuilder addAll(Map<?, ?> fields) {
+        for (Map.Entry<?, ?> entry : fields.entrySet()) {
+            Object key = entry.getKey();
+            add(key instanceof CharSequence ? (CharSequence) key : String.valueOf(key), entry.getValue());
+        }
+        return this;
+    }
+
+    /**
+     * 构造 URL ，之后可以继续添加参数
+     * @return 完整的 URL
+     */
+    public String build() {
+        return sb.toString();
+    }
+
+    /**
+     * 清空内容以便重用，保留缓冲区的容量
+     * @return this
+     */
+    public QueryBuilder reset() {
+        sb.setLength(0);
+        needSeparator = false;
+        hasQuery = false;
+        return this;
+    }
+
+    /**
+     * 获取当前的长度
+     * @return 当前的长度
+     */
+    public int length() {
+        return sb.length();
+    }
+
+    @Override
+    public String toString() {
+        return build();
+    }
+
+    private void appendPair(CharSequence key, @Nullable Object value) {
+        appendKey(key);
+        appendValue(value);
+    }
+
+    private void appendKey(CharSequence key) {
+        if (!hasQuery) {
+            sb.append('?');
+            hasQuery = true;
+        } else if (needSeparator) {
+            sb.append('&');
+        }
+        needSeparator = true;
+        codec.encode(key, sb).append('=');
+    }
+
+    /**
+     * 整数和布尔值只包含不需要编码的字符，直接写入
+     */
+    private void appendValue(@Nullable Object value) {
+        if (value == null) {
+            return;
+        }
+        if (value instanceof CharSequence) {
+            codec.encode((CharSequence) value, sb);
+        } else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+            sb.append(((Number) value).longValue());
+        } else if (value instanceof Boolean) {
+            sb.append(((Boolean) value).booleanValue());
+        } else {
+            codec.encode(value.toString(), sb);
+        }
+    }
+
+}
@@ -0,0 +1,247 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 解析后的查询字符串，一个键可以对应多个值<br>
+ *     解析时只扫描一遍记录各参数的位置，不使用正则表达式；键在解析时解码，值在第一次读取时才解码并缓存，
+ *     不含转义的键值直接截取子串<br>
+ *     参数按出现的顺序保存，没有 = 的参数值为空字符串，空的参数（如 &amp;&amp;）会被忽略<br>
+ *     解析结果不可变，可以在多个线程中同时读取
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class QueryString {
+
+    private final String source;
+    private final int start;
+    private final int end;
+    private final PercentCodec codec;
+    private final String[] keys;
+    /**
+     * 每个参数的值在 source 中的起止位置，[start0, end0, start1, end1, ...]
+     */
+    private final int[] valueBounds;
+    /**
+     * 已解码的值，null 表示尚未解码
+     */
+    private final String[] values;
+
+    private QueryString(String source, int start, int end, PercentCodec codec, String[] keys, int[] valueBounds) {
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.codec = codec;
+        this.keys = keys;
+        this.valueBounds = valueBounds;
+        this.values = new String[keys.length];
+    }
+
+    /**
+     * 解析查询字符串，使用表单解码（+ 解码为空格）
+     * @param query 查询字符串，不含 ?，如 {@code a=1&b=2}
+     * @return 解析结果
+     */
+    public static QueryString parse(CharSequence query) {
+        return parse(query, PercentCodec.FORM);
+    }
+
+    /**
+     * 解析查询字符串
+     * @param query 查询字符串，不含 ?
+     * @param codec 解码使用的编码
+     * @return 解析结果
+     */
+    public static QueryString parse(CharSequence query, PercentCodec codec) {
+        return parse(query.toString(), 0, query.length(), codec);
+    }
+
+    /**
+     * 解析 URL 中的查询字符串，即第一个 ? 之后、# 之前的部分
+     * @param url URL
+     * @return 解析结果，没有查询字符串时返回空的结果
+     */
+    public static QueryString fromUrl(CharSequence url) {
+        String s = url.toString();
+        int start = s.indexOf('?');
+        if (start < 0) {
+            return parse(s, 0, 0, PercentCodec.FORM);
+        }
+        int end = s.indexOf('#', start);
+        return parse(s, start + 1, end < 0 ? s.length() : end, PercentCodec.FORM);
+    }
+
+    private static QueryString parse(String s, int start, int end, PercentCodec codec) {
+        int capacity = 1;
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i) == '&') {
+                capacity++;
+            }
+        }
+        String[] keys = new String[capacity];
+        int[] bounds = new int[capacity * 2];
+        int count = 0;
+        int pairStart = start;
+        while (pairStart < end) {
+            int pairEnd = s.indexOf('&', pairStart);
+            if (pairEnd < 0 || pairEnd > end) {
+                pairEnd = end;
+            }
+            if (pairEnd > pairStart) {
+                // 只在这一对参数内查找，没有 = 的参数很多时 indexOf 会反复扫描到结尾
+                int eq = pairStart;
+                while (eq < pairEnd && s.charAt(eq) != '=') {
+                    eq++;
+                }
+                keys[count] = decode(s, pairStart, eq, codec);
+                bounds[count * 2] = Math.min(eq + 1, pairEnd);
+                bounds[count * 2 + 1] = pairEnd;
+                count++;
+            }
+            pairStart = pairEnd + 1;
+        }
+        if (count < capacity) {
+            keys = Arrays.copyOf(keys, count);
+            bounds = Arrays.copyOf(bounds, count * 2);
+        }
+        return new QueryString(s, start, end, codec, keys, bounds);
+    }
+
+    private static String decode(String s, int start, int end, PercentCodec codec) {
+        if (!codec.needsDecode(s, start, end)) {
+            return s.substring(start, end);
+        }
+        return codec.decode(s, start, end, new StringBuilder(end - start)).toString();
+    }
+
+    /**
+     * 参数的个数，同名参数分别计数
+     * @return 参数的个数
+     */
+    public int size() {
+        return keys.length;
+    }
+
+    public boolean isEmpty() {
+        return keys.length == 0;
+    }
+
+    /**
+     * 获取第 index 个参数的键
+     * @param index 下标
+     * @return 解码后的键
+     */
+    public String getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * 获取第 index 个参数的值
+     * @param index 下标
+     * @return 解码后的值
+     */
+    public String getValue(int index) {
+        String value = values[index];
+        if (value == null) {
+            // 多个线程同时解码时结果相同，不需要同步
+            value = decode(source, valueBounds[index * 2], valueBounds[index * 2 + 1], codec);
+            values[index] = value;
+        }
+        return value;
+    }
+
+    /**
+     * 获取第 index 个参数未解码的值
+     * @param index 下标
+     * @return 原始的值
+     */
+    public String getRawValue(int index) {
+        return source.substring(valueBounds[index * 2], valueBounds[index * 2 + 1]);
+    }
+
+    /**
+     * 获取某个键的第一个值
+     * @param key 键
+     * @return 值，不存在时返回 null
+     */
+    @Nullable
+    public String get(String key) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                return getValue(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 获取某个键的所有值
+     * @param key 键
+     * @return 按出现顺序排列的值，不存在时返回空列表
+     */
+    public List<String> getAll(String key) {
+        List<String> result = null;
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equals(key)) {
+                if (result == null) {
+                    result = new ArrayList<>(2);
+                }
+                result.add(getValue(i));
+            }
+        }
+        return result == null ? Collections.<String>emptyList() : result;
+    }
+
+    public boolean containsKey(String key) {
+        for (String k : keys) {
+            if (k.equals(key)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 获取所有的键
+     * @return 按第一次出现的顺序排列的键
+     */
+    public Set<String> keySet() {
+        Set<String> set = new LinkedHashSet<>();
+        Collections.addAll(set, keys);
+        return set;
+    }
+
+    /**
+     * 转换为 {@link Map} ，会解码所有的值
+     * @return 键到所有值的映射，按第一次出现的顺序排列
+     */
+    public Map<String, List<String>> toMap() {
+        Map<String, List<String>> map = new LinkedHashMap<>();
+        for (int i = 0; i < keys.length; i++) {
+            List<String> list = map.get(keys[i]);
+            if (list == null) {
+                list = new ArrayList<>(1);
+                map.put(keys[i], list);
+            }
+            list.add(getValue(i));
+        }
+        return map;
+    }
+
+    /**
+     * 返回原始的查询字符串
+     */
+    @Override
+    public String toString() {
+        return source.substring(start, end);
+    }
+
+}
@@ -1,20 +1,660 @@
 package moe.haruue.util;
 
+import android.support.annotation.Nullable;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
- * 常用的正则表达式工具
+ * 常用的正则表达式工具<br>
+ *     同时也是一个校验器注册表：正则表达式只编译一次并缓存，每个线程重用自己的 {@link Matcher} ；
+ *     内置的校验器（{@link #EMAIL} 、{@link #PHONE} 、{@link #URL} 、{@link #IPV4} 、{@link #IPV6} 、{@link #UUID}）
+ *     会先用手写的扫描排除明显不合法的输入，只有可能合法的输入才交给正则引擎<br>
+ *     可以用 {@link #register(String, Validator)} 注册自定义的校验器，所有方法都是线程安全的<br>
+ *     批量校验见 {@link #validateAll(Validator, List)} 、{@link #findInvalid(Validator, List)} 和流式的 {@link #forEachInvalid(Validator, Iterator, OnInvalidListener)} ，
+ *     数据量较大时会自动分块在 CPU 线程池中并行校验，因此自定义的校验器必须是线程安全的
  * @author Haruue Icymoon haruue@caoyue.com.cn
  */
 public class RegExUtils {
 
+    /**
+     * 校验器
+     */
+    public interface Validator {
+        /**
+         * 校验
+         * @param s 待校验的字符串，null 视为不合法
+         * @return 是否合法
+         */
+        boolean validate(@Nullable CharSequence s);
+    }
+
+    /**
+     * 基于正则表达式的校验器，每个线程重用一个 {@link Matcher}<br>
+     *     子类可以重写 {@link #accept(CharSequence)} 提供快速排除
+     */
+    public static class PatternValidator implements Validator {
+
+        private final Pattern pattern;
+        private final ThreadLocal<Matcher> matcher = new ThreadLocal<Matcher>() {
+            @Override
+            protected Matcher initialValue() {
+                return pattern.matcher("");
+            }
+        };
+
+        public PatternValidator(String regex) {
+            this(Pattern.compile(regex));
+        }
+
+        public PatternValidator(Pattern pattern) {
+            this.pattern = pattern;
+        }
+
+        /**
+         * 在正则匹配之前快速排除明显不合法的输入
+         * @param s 待校验的字符串，不为 null
+         * @return 返回 false 则直接视为不合法，返回 true 则交给正则表达式判断
+         */
+        protected boolean accept(CharSequence s) {
+            return true;
+        }
+
+        @Override
+        public final boolean validate(@Nullable CharSequence s) {
+            if (s == null || !accept(s)) {
+                return false;
+            }
+            Matcher m = matcher.get();
+            boolean result = m.reset(s).matches();
+            // 不再持有输入的引用
+            m.reset("");
+            return result;
+        }
+
+        public Pattern getPattern() {
+            return pattern;
+        }
+
+    }
+
+    /**
+     * 流式批量校验时不合法的项目的回调，在调用线程中按顺序调用
+     */
+    public interface OnInvalidListener {
+        /**
+         * @param index 该项在输入中的下标
+         * @param s 不合法的项
+         */
+        void onInvalid(long index, @Nullable CharSequence s);
+    }
+
+    public static final String EMAIL = "email";
+    /**
+     * 电话号码，可选的 + 开头，7 - 15 位数字，数字之间可以有单个空格或 -
+     */
+    public static final String PHONE = "phone";
+    /**
+     * http 、https 或 ftp 的绝对 URL
+     */
+    public static final String URL = "url";
+    public static final String IPV4 = "ipv4";
+    public static final String IPV6 = "ipv6";
+    public static final String UUID = "uuid";
+
+    private static final String IPV4_REGEX = "(?:25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)(?:\\.(?:25[0-5]|2[0-4]\\d|1\\d\\d|[1-9]?\\d)){3}";
+    private static final String H16 = "[0-9A-Fa-f]{1,4}";
+
+    /**
+     * 批量校验时超过此数量才并行
+     */
+    private static final int PARALLEL_THRESHOLD = 4096;
+    /**
+     * 并行校验时每个分块的大小
+     */
+    private static final int CHUNK_SIZE = 1024;
+    /**
+     * 流式校验时每批从输入中读取的数量
+     */
+    private static final int STREAM_BATCH_SIZE = 16384;
+
+    private static final ConcurrentHashMap<String, Validator> validators = new ConcurrentHashMap<>();
+    /**
+     * 正则表达式到校验器的缓存，用于 {@link #compile(String)} 和 {@link #matches(String, CharSequence)}
+     */
+    private static final ConcurrentHashMap<String, PatternValidator> patterns = new ConcurrentHashMap<>();
+
+    static {
+        // 与原来的规则相同，改为占有量词避免回溯
+        register(EMAIL, new PatternValidator("^\\s*\\w++(?:\\.?[\\w-]++)*+@[a-zA-Z0-9]+(?:[-.][a-zA-Z0-9]+)*\\.[a-zA-Z]+\\s*$") {
+            @Override
+            protected boolean accept(CharSequence s) {
+                return acceptEmail(s);
+            }
+        });
+        register(PHONE, new PatternValidator("^\\+?[0-9](?:[ -]?[0-9]){6,14}$") {
+            @Override
+            protected boolean accept(CharSequence s) {
+                return acceptPhone(s);
+            }
+        });
+        register(URL, new PatternValidator("^(?i:https?|ftp)://(?:[^\\s/?#@]+@)?"
+                + "(?:[a-zA-Z0-9](?:[a-zA-Z0-9-]*[a-zA-Z0-9])?(?:\\.[a-zA-Z0-9](?:[a-zA-Z0-9-]*[a-zA-Z0-9])?)*|\\[[0-9A-Fa-f:.]+\\])"
+                + "(?::\\d{1,5})?(?:[/?#]\\S*)?$") {
+            @Override
+            protected boolean accept(CharSequence s) {
+                return acceptUrl(s);
+            }
+        });
+        register(IPV4, new PatternValidator("^" + IPV4_REGEX + "$") {
+            @Override
+            protected boolean accept(CharSequence s) {
+                return acceptIPv4(s);
+            }
+        });
+        register(IPV6, new PatternValidator("^(?:"
+                + "(?:" + H16 + ":){7}" + H16
+                + "|(?:" + H16 + ":){1,7}:"
+                + "|(?:" + H16 + ":){1,6}:" + H16
+                + "|(?:" + H16 + ":){1,5}(?::" + H16 + "){1,2}"
+                + "|(?:" + H16 + ":){1,4}(?::" + H16 + "){1,3}"
+                + "|(?:" + H16 + ":){1,3}(?::" + H16 + "){1,4}"
+                + "|(?:" + H16 + ":){1,2}(?::" + H16 + "){1,5}"
+                + "|" + H16 + ":(?::" + H16 + "){1,6}"
+                + "|:(?:(?::" + H16 + "){1,7}|:)"
+                + "|(?:" + H16 + ":){6}" + IPV4_REGEX
+                + "|(?:" + H16 + ":){1,4}:" + IPV4_REGEX
+                + "|::(?:[fF]{4}(?::0{1,4})?:)?" + IPV4_REGEX
+                + ")$") {
+            @Override
+            protected boolean accept(CharSequence s) {
+                return acceptIPv6(s);
+            }
+        });
+        register(UUID, new PatternValidator("^[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}$") {
+            @Override
+            protected boolean accept(CharSequence s) {
+                return s.length() == 36 && s.charAt(8) == '-' && s.charAt(13) == '-' && s.charAt(18) == '-' && s.charAt(23) == '-';
+            }
+        });
+    }
+
+    /**
+     * 注册校验器，已有同名的校验器时会被替换
+     * @param name 名称
+     * @param validator 校验器
+     */
+    public static void register(String name, Validator validator) {
+        validators.put(name, validator);
+    }
+
+    /**
+     * 用正则表达式注册校验器，已有同名的校验器时会被替换
+     * @param name 名称
+     * @param regex 正则表达式，需要匹配整个字符串
+     */
+    public static void register(String name, String regex) {
+        validators.put(name, new PatternValidator(regex));
+    }
+
+    /**
+     * 获取已注册的校验器
+     * @param name 名称
+     * @return 校验器，不存在时返回 null
+     */
+    @Nullable
+    public static Validator getValidator(String name) {
+        return validators.get(name);
+    }
+
+    /**
+     * 使用已注册的校验器进行校验
+     * @param name 校验器的名称
+     * @param s 待校验的字符串
+     * @return 是否合法
+     * @throws IllegalArgumentException 没有该名称的校验器
+     */
+    public static boolean validate(String name, @Nullable CharSequence s) {
+        return requireValidator(name).validate(s);
+    }
+
+    private static Validator requireValidator(String name) {
+        Validator validator = validators.get(name);
+        if (validator == null) {
+            throw new IllegalArgumentException("no validator named " + name);
+        }
+        return validator;
+    }
+
+    /**
+     * 批量校验
+     * @param validator 校验器，必须是线程安全的
+     * @param items 待校验的项
+     * @return 合法的项对应的位为 1
+     */
+    public static BitSet validateAll(Validator validator, List<? extends CharSequence> items) {
+        boolean[] results = validateList(validator, items);
+        BitSet set = new BitSet(results.length);
+        for (int i = 0; i < results.length; i++) {
+            if (results[i]) {
+                set.set(i);
+            }
+        }
+        return set;
+    }
+
+    /**
+     * 批量校验
+     * @param validator 校验器，必须是线程安全的
+     * @param items 待校验的项
+     * @return 合法的项对应的位为 1
+     */
+    public static BitSet validateAll(Validator validator, CharSequence[] items) {
+        return validateAll(validator, Arrays.asList(items));
+    }
+
+    /**
+     * 使用已注册的校验器批量校验
+     * @param name 校验器的名称
+     * @param items 待校验的项
+     * @return 合法的项对应的位为 1
+     * @throws IllegalArgumentException 没有该名称的校验器
+     */
+    public static BitSet validateAll(String name, List<? extends CharSequence> items) {
+        return validateAll(requireValidator(name), items);
+    }
+
+    /**
+     * 使用已注册的校验器批量校验
+     * @param name 校验器的名称
+     * @param items 待校验的项
+     * @return 合法的项对应的位为 1
+     * @throws IllegalArgumentException 没有该名称的校验器
+     */
+    public static BitSet validateAll(String name, CharSequence[] items) {
+        return validateAll(requireValidator(name), Arrays.asList(items));
+    }
+
+    /**
+     * 批量校验并返回不合法的项的下标
+     * @param validator 校验器，必须是线程安全的
+     * @param items 待校验的项
+     * @return 不合法的项的下标，升序
+     */
+    public static int[] findInvalid(Validator validator, List<? extends CharSequence> items) {
+        boolean[] results = validateList(validator, items);
+        int count = 0;
+        for (boolean valid : results) {
+            if (!valid) {
+                count++;
+            }
+        }
+        int[] invalid = new int[count];
+        for (int i = 0, k = 0; k < count; i++) {
+            if (!results[i]) {
+                invalid[k++] = i;
+            }
+        }
+        return invalid;
+    }
+
+    /**
+     * 批量校验并返回不合法的项的下标
+     * @param validator 校验器，必须是线程安全的
+     * @param items 待校验的项
+     * @return 不合法的项的下标，升序
+     */
+    public static int[] findInvalid(Validator validator, CharSequence[] items) {
+        return findInvalid(validator, Arrays.asList(items));
+    }
+
+    /**
+     * 使用已注册的校验器批量校验并返回不合法的项的下标
+     * @param name 校验器的名称
+     * @param items 待校验的项
+     * @return 不合法的项的下标，升序
+     * @throws IllegalArgumentException 没有该名称的校验器
+     */
+    public static int[] findInvalid(String name, List<? extends CharSequence> items) {
+        return findInvalid(requireValidator(name), items);
+    }
+
+    /**
+     * 使用已注册的校验器批量校验并返回不合法的项的下标
+     * @param name 校验器的名称
+     * @param items 待校验的项
+     * @return 不合法的项的下标，升序
+     * @throws IllegalArgumentException 没有该名称的校验器
+     */
+    public static int[] findInvalid(String name, CharSequence[] items) {
+        return findInvalid(requireValidator(name), Arrays.asList(items));
+    }
+
+    /**
+     * 流式批量校验，每次只从输入中读取一批，适合无法一次放入内存的输入（如逐行读取的文件或数据库游标）
+     * @param validator 校验器，必须是线程安全的
+     * @param items 待校验的项，只会遍历一次
+     * @param listener 不合法的项的回调，在调用线程中按顺序调用
+     * @return 不合法的项的数量
+     */
+    public static long forEachInvalid(Validator validator, Iterator<? extends CharSequence> items, OnInvalidListener listener) {
+        CharSequence[] batch = new CharSequence[STREAM_BATCH_SIZE];
+        long base = 0;
+        long invalid = 0;
+        while (items.hasNext()) {
+            int n = 0;
+            while (n < batch.length && items.hasNext()) {
+                batch[n++] = items.next();
+            }
+            boolean[] results = validateList(validator, Arrays.asList(batch).subList(0, n));
+            for (int i = 0; i < n; i++) {
+                if (!results[i]) {
+                    invalid++;
+                    listener.onInvalid(base + i, batch[i]);
+                }
+            }
+            Arrays.fill(batch, 0, n, null);
+            base += n;
+        }
+        return invalid;
+    }
+
+    /**
+     * 流式批量校验，见 {@link #forEachInvalid(Validator, Iterator, OnInvalidListener)}
+     * @param validator 校验器，必须是线程安全的
+     * @param items 待校验的项
+     * @param listener 不合法的项的回调
+     * @return 不合法的项的数量
+     */
+    public static long forEachInvalid(Validator validator, Iterable<? extends CharSequence> items, OnInvalidListener listener) {
+        return forEachInvalid(validator, items.iterator(), listener);
+    }
+
+    /**
+     * 使用已注册的校验器流式批量校验，见 {@link #forEachInvalid(Validator, Iterator, OnInvalidListener)}
+     * @param name 校验器的名称
+     * @param items 待校验的项
+     * @param listener 不合法的项的回调
+     * @return 不合法的项的数量
+     * @throws IllegalArgumentException 没有该名称的校验器
+     */
+    public static long forEachInvalid(String name, Iterator<? extends CharSequence> items, OnInvalidListener listener) {
+        return forEachInvalid(requireValidator(name), items, listener);
+    }
+
+    /**
+     * 校验列表中的所有项，数量较少时在调用线程中顺序校验，否则分块并行
+     */
+    private static boolean[] validateList(final Validator validator, List<? extends CharSequence> items) {
+        final List<? extends CharSequence> list = items instanceof RandomAccess ? items : Arrays.asList(items.toArray(new CharSequence[items.size()]));
+        final int size = list.size();
+        final boolean[] results = new boolean[size];
+        if (size < PARALLEL_THRESHOLD) {
+            for (int i = 0; i < size; i++) {
+                results[i] = validator.validate(list.get(i));
+            }
+            return results;
+        }
+        try {
+            ParallelChunks.forEach((size + CHUNK_SIZE - 1) / CHUNK_SIZE, new ParallelChunks.Body() {
+                @Override
+                public void run(int chunk) {
+                    int end = Math.min(size, (chunk + 1) * CHUNK_SIZE);
+                    for (int i = chunk * CHUNK_SIZE; i < end; i++) {
+                        results[i] = validator.validate(list.get(i));
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while validating", e);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+        return results;
+    }
+
+    /**
+     * 获取编译好的正则表达式，相同的表达式只编译一次<br>
+     *     缓存不会被清理，请只用于固定的表达式
+     * @param regex 正则表达式
+     * @return 编译好的 {@link Pattern}
+     */
+    public static Pattern compile(String regex) {
+        return cachedValidator(regex).getPattern();
+    }
+
+    /**
+     * 与 {@link Pattern#matches(String, CharSequence)} 相同，但表达式只编译一次，{@link Matcher} 在每个线程中重用
+     * @param regex 正则表达式
+     * @param s 待匹配的字符串
+     * @return 是否匹配整个字符串
+     */
+    public static boolean matches(String regex, @Nullable CharSequence s) {
+        return cachedValidator(regex).validate(s);
+    }
+
+    private static PatternValidator cachedValidator(String regex) {
+        PatternValidator validator = patterns.get(regex);
+        if (validator == null) {
+            PatternValidator created = new PatternValidator(regex);
+            validator = patterns.putIfAbsent(regex, created);
+            if (validator == null) {
+                validator = created;
+            }
+        }
+        return validator;
+    }
+
     /**
      * 检查邮箱格式是否合法
      * @param s 待检查的邮箱字符串
      * @return 检查结果
      */
     public static boolean checkEmail(String s) {
-        return Pattern.matches("^\\s*\\w+(?:\\.?[\\w-]+)*@[a-zA-Z0-9]+(?:[-.][a-zA-Z0-9]+)*\\.[a-zA-Z]+\\s*$", s);
+        return validate(EMAIL, s);
+    }
+
+    /**
+     * 检查电话号码格式是否合法，见 {@link #PHONE}
+     * @param s 待检查的字符串
+     * @return 检查结果
+     */
+    public static boolean checkPhone(String s) {
+        return validate(PHONE, s);
+    }
+
+    /**
+     * 检查 URL 格式是否合法，见 {@link #URL}
+     * @param s 待检查的字符串
+     * @return 检查结果
+     */
+    public static boolean checkUrl(String s) {
+        return validate(URL, s);
+    }
+
+    /**
+     * 检查是否是点分十进制的 IPv4 地址
+     * @param s 待检查的字符串
+     * @return 检查结果
+     */
+    public static boolean checkIPv4(String s) {
+        return validate(IPV4, s);
+    }
+
+    /**
+     * 检查是否是 IPv6 地址，支持压缩形式和嵌入 IPv4 的形式，不支持 zone id
+     * @param s 待检查的字符串
+     * @return 检查结果
+     */
+    public static boolean checkIPv6(String s) {
+        return validate(IPV6, s);
+    }
+
+    /**
+     * 检查是否是 8-4-4-4-12 形式的 UUID ，大小写均可
+     * @param s 待检查的字符串
+     * @return 检查结果
+     */
+    public static boolean checkUUID(String s) {
+        return validate(UUID, s);
+    }
+
+    /**
+     * 去掉首尾空白后恰好有一个 @ ，@ 之后有 . ，最后一个字符是字母，且只含邮箱中允许的 ASCII 字符
+     */
+    private static boolean acceptEmail(CharSequence s) {
+        int start = 0;
+        int end = s.length();
+        while (start < end && Character.isWhitespace(s.charAt(start))) {
+            start++;
+        }
+        while (end > start && Character.isWhitespace(s.charAt(end - 1))) {
+            end--;
+        }
+        if (end - start < 5) {
+            return false;
+        }
+        int at = -1;
+        boolean dotAfterAt = false;
+        for (int i = start; i < end; i++) {
+            char c = s.charAt(i);
+            if (c == '@') {
+                if (at >= 0) {
+                    return false;
+                }
+                at = i;
+            } else if (c == '.') {
+                dotAfterAt |= at >= 0;
+            } else if (!isAsciiLetterOrDigit(c) && c != '_' && c != '-') {
+                return false;
+            }
+        }
+        char last = s.charAt(end - 1);
+        return at > start && dotAfterAt && ((last >= 'a' && last <= 'z') || (last >= 'A' && last <= 'Z'));
+    }
+
+    private static boolean acceptPhone(CharSequence s) {
+        int length = s.length();
+        // 最长为 '+' 、15 位数字和 14 个分隔符
+        if (length < 7 || length > 30) {
+            return false;
+        }
+        int digits = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c != ' ' && c != '-' && !(c == '+' && i == 0)) {
+                return false;
+            }
+        }
+        return digits >= 7 && digits <= 15;
+    }
+
+    /**
+     * 以 http:// 、https:// 或 ftp:// 开头（不区分大小写），不含空白和控制字符
+     */
+    private static boolean acceptUrl(CharSequence s) {
+        int length = s.length();
+        int schemeEnd;
+        if (startsWithIgnoreCase(s, "http://") || startsWithIgnoreCase(s, "ftp://")) {
+            schemeEnd = s.charAt(4) == ':' ? 7 : 6;
+        } else if (startsWithIgnoreCase(s, "https://")) {
+            schemeEnd = 8;
+        } else {
+            return false;
+        }
+        if (length == schemeEnd) {
+            return false;
+        }
+        for (int i = schemeEnd; i < length; i++) {
+            char c = s.charAt(i);
+            if (c <= ' ' || c == 0x7f || Character.isWhitespace(c)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean acceptIPv4(CharSequence s) {
+        int length = s.length();
+        if (length < 7 || length > 15) {
+            return false;
+        }
+        int dots = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == '.') {
+                dots++;
+            } else if (c < '0' || c > '9') {
+                return false;
+            }
+        }
+        return dots == 3;
+    }
+
+    /**
+     * 只含十六进制数字、: 和 . ，至少两个 : ，最多一个 ::
+     */
+    private static boolean acceptIPv6(CharSequence s) {
+        int length = s.length();
+        if (length < 2 || length > 45) {
+            return false;
+        }
+        int colons = 0;
+        int doubleColons = 0;
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c == ':') {
+                colons++;
+                if (i > 0 && s.charAt(i - 1) == ':') {
+                    doubleColons++;
+                }
+            } else if (c != '.' && hexValue(c) < 0) {
+                return false;
+            }
+        }
+        return colons >= 2 && colons <= 7 + doubleColons && doubleColons <= 1;
+    }
+
+    private static boolean startsWithIgnoreCase(CharSequence s, String prefix) {
+        if (s.length() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 'A' && c <= 'Z') {
+                c += 'a' - 'A';
+            }
+            if (c != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    private static int hexValue(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
     }
 
 }
@@ -0,0 +1,169 @@
+package moe.haruue.util;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 延时或周期运行的任务<br>
+ *     由 {@link ThreadUtils#schedule(Object, long, Runnable)} 等方法返回，所有定时任务共用一个延时队列：
+ *     UI 线程的任务直接使用主线程的消息队列，后台任务共用一个计时线程，到期后再交给 {@link ExecutorEngine} 运行，不会为每个任务创建线程<br>
+ *     计时线程不会运行任务也不会等待队列：队列已满时周期任务跳过这一次并输出日志，一次性任务稍后重试<br>
+ *     与对象绑定后，{@link ThreadUtils#interruptThreadsByObject(Object, boolean)} 会取消该任务
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class ScheduledTask {
+
+    private static final String TAG = "ScheduledTask";
+
+    /**
+     * 线程池队列已满时一次性任务重试的间隔
+     */
+    private static final long RETRY_DELAY_MILLIS = 50;
+
+    final Runnable runnable;
+    final boolean onUIThread;
+    private final long periodMillis;
+    private final WeakReference<Object> owner;
+
+    private volatile boolean cancelled;
+    private volatile boolean done;
+    private long nextRunTime;
+    private Future<?> future;
+
+    private final Runnable fire = new Runnable() {
+        @Override
+        public void run() {
+            if (!cancelled) {
+                onFire();
+            }
+        }
+    };
+
+    private final Runnable handOff = new Runnable() {
+        @Override
+        public void run() {
+            if (!cancelled && !runOnTarget(fire)) {
+                onRejected();
+            }
+        }
+    };
+
+    ScheduledTask(@Nullable Object object, boolean onUIThread, long periodMillis, Runnable runnable) {
+        this.owner = object == null ? null : new WeakReference<>(object);
+        this.onUIThread = onUIThread;
+        this.periodMillis = periodMillis;
+        this.runnable = runnable;
+    }
+
+    /**
+     * 开始计时
+     * @param delayMillis 第一次运行前的延时
+     */
+    void start(long delayMillis) {
+        nextRunTime = SystemClock.uptimeMillis() + delayMillis;
+        arm(delayMillis);
+    }
+
+    /**
+     * 在指定的延时后运行一次 {@link #onFire()}
+     * @param delayMillis 延时，毫秒
+     */
+    synchronized void arm(long delayMillis) {
+        if (cancelled) {
+            return;
+        }
+        delayMillis = Math.max(0, delayMillis);
+        if (onUIThread) {
+            ThreadUtils.postOnUIThreadDelayed(fire, delayMillis);
+        } else {
+            future = ThreadUtils.getTimer().schedule(handOff, delayMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 立即在目标线程运行，后台任务通过 {@link ExecutorEngine#trySubmit(ExecutorEngine.Pool, int, Object, Runnable)} 提交，不会阻塞
+     * @param r 需要运行的 {@link Runnable}
+     * @return 是否已提交，线程池队列已满或已关闭时返回 false
+     */
+    boolean runOnTarget(Runnable r) {
+        if (onUIThread) {
+            ThreadUtils.runOnUIThread(r);
+            return true;
+        }
+        return ThreadUtils.getExecutorEngine().trySubmit(ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_NORMAL, getOwner(), r) != null;
+    }
+
+    /**
+     * 到期时线程池没有接受任务，在计时线程中调用：周期任务跳过错过的运行，一次性任务稍后重试
+     */
+    private void onRejected() {
+        if (periodMillis <= 0) {
+            arm(RETRY_DELAY_MILLIS);
+            return;
+        }
+        long now = SystemClock.uptimeMillis();
+        long skipped = (now - nextRunTime) / periodMillis + 1;
+        nextRunTime += skipped * periodMillis;
+        Log.w(TAG, "ExecutorEngine rejected a periodic task, skipped " + skipped + " run(s)");
+        arm(nextRunTime - now);
+    }
+
+    /**
+     * 到期时在目标线程中调用
+     */
+    void onFire() {
+        if (periodMillis <= 0) {
+            done = true;
+            runnable.run();
+            return;
+        }
+        runnable.run();
+        // 固定频率：以计划时间而不是实际运行时间为基准，运行时间超过周期时不会重叠运行
+        nextRunTime += periodMillis;
+        arm(nextRunTime - SystemClock.uptimeMillis());
+    }
+
+    @Nullable
+    Object getOwner() {
+        return owner == null ? null : owner.get();
+    }
+
+    /**
+     * 取消任务，尚未到期的运行不会再发生，正在运行的不受影响
+     */
+    public void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (future != null) {
+                future.cancel(false);
+                future = null;
+            }
+        }
+        if (onUIThread) {
+            ThreadUtils.removeUICallbacks(fire);
+        }
+        ThreadUtils.unbindScheduledTask(this);
+    }
+
+    /**
+     * 是否已被取消
+     * @return 是否已被取消
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * 是否已经结束，一次性任务运行后即结束，周期任务只有被取消后才结束
+     * @return 是否已经结束
+     */
+    public boolean isDone() {
+        return done || cancelled;
+    }
+
+}
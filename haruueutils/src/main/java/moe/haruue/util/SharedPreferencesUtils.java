@@ -2,25 +2,121 @@ package moe.haruue.util;
 
 import android.content.Context;
 import android.content.SharedPreferences;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.util.Log;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
- * SharedPreferences 操作工具类
+ * SharedPreferences 操作工具类<br>
+ *     读取单个数据时请优先使用 {@link #getInt(String, int)} 等带类型的方法，它们不会复制整个 Map<br>
+ *     调用 {@link #enableCache()} 后会在内存中保存一份快照，之后的读取只是一次哈希表查找，
+ *     快照通过 {@link SharedPreferences.OnSharedPreferenceChangeListener} 按 key 失效<br>
+ *     调用 {@link #enableWriteBehind(long, int)} 后写入会先合并在内存中，之后一次性提交，读取时能读到尚未提交的数据<br>
+ *     SharedPreferences 不支持的类型（如 Double 、数组、枚举、集合和通过 {@link BinaryCodec#register(Class, int, BinaryCodec.Adapter)} 注册的类）
+ *     由 {@link BinaryCodec} 编码为 Base64 字符串保存，{@link #getData(String)} 时解码，解码结果按 key 缓存<br>
+ *     可以在启动时用 {@link #preload(Context, String...)} 在后台并行加载 SharedPreferences 文件，
+ *     或者重写 {@link moe.haruue.util.abstracts.HaruueApplication#getPreloadSharedPreferencesNames()}
  * @author Haruue Icymoon haruue@caoyue.com.cn
  */
 public class SharedPreferencesUtils {
 
+    /**
+     * 预加载完成的回调，在加载的线程中调用
+     */
+    public interface OnPreloadListener {
+        /**
+         * 一个文件加载完成
+         * @param name SharedPreferences 的名称
+         * @param elapsedMillis 加载耗时，毫秒
+         */
+        void onPreloaded(String name, long elapsedMillis);
+    }
+
+    private static final String TAG = "SharedPreferencesUtils";
+
+    /**
+     * 待提交的数据中表示已删除的值
+     */
+    private static final Object REMOVED = new Object();
+    /**
+     * SharedPreferences 能保存的类型，读取类型未知的 key 时按此顺序尝试
+     */
+    private static final Class<?>[] STORED_TYPES = {String.class, Integer.class, Long.class, Boolean.class, Float.class, Set.class};
+    /**
+     * 由 {@link BinaryCodec} 编码的字符串的前缀，使用私用区字符，不会与普通字符串混淆
+     */
+    private static final String OBJECT_PREFIX = "\uE000";
+
+    /**
+     * 默认的静默时间，毫秒
+     */
+    public static final long DEFAULT_WRITE_BEHIND_QUIET_MILLIS = 1000;
+    /**
+     * 默认的待提交数据数量上限
+     */
+    public static final int DEFAULT_WRITE_BEHIND_MAX_PENDING = 64;
+
+    /**
+     * 有待提交数据的实例，提交后移除
+     */
+    private static final Set<SharedPreferencesUtils> dirtyInstances = new HashSet<>();
+
+    /**
+     * 预加载的 SharedPreferences ，按名称索引
+     */
+    private static final ConcurrentHashMap<String, Preload> preloads = new ConcurrentHashMap<>();
+    private static volatile OnPreloadListener preloadListener = new OnPreloadListener() {
+        @Override
+        public void onPreloaded(String name, long elapsedMillis) {
+            Log.d(TAG, "preloaded " + name + " in " + elapsedMillis + "ms");
+        }
+    };
+
     SharedPreferences sharedPreferences;
 
+    /**
+     * 数据的快照，null 表示未启用缓存
+     */
+    private volatile ConcurrentMap<String, Object> snapshot;
+    /**
+     * SharedPreferences 只持有监听器的弱引用，需要在这里保持强引用
+     */
+    private SharedPreferences.OnSharedPreferenceChangeListener snapshotInvalidator;
+
+    private final Object writeLock = new Object();
+    /**
+     * 尚未提交的数据，null 表示未启用延迟写入
+     */
+    private volatile ConcurrentMap<String, Object> pendingValues;
+    /**
+     * 累积尚未提交的数据的编辑器，Editor 本身会合并同一个 key 的多次写入
+     */
+    private SharedPreferences.Editor pendingEditor;
+    private Debouncer flushDebouncer;
+    private int maxPending;
+
+    /**
+     * 已解码的对象，按 key 缓存，保存的字符串变化后重新解码
+     */
+    private final ConcurrentHashMap<String, DecodedObject> decodedObjects = new ConcurrentHashMap<>();
+
     /**
      * 获取指定名称的私有 SharedPreferencesUtils
      * @param context {@link Context} 实例
      * @param name 指定的名称
      */
     public SharedPreferencesUtils(Context context, String name) {
-        sharedPreferences = context.getSharedPreferences(name, Context.MODE_PRIVATE);
+        Preload preload = preloads.get(name);
+        SharedPreferences preloaded = preload == null ? null : preload.sharedPreferences;
+        sharedPreferences = preloaded != null ? preloaded : context.getSharedPreferences(name, Context.MODE_PRIVATE);
     }
 
     /**
@@ -33,53 +129,521 @@ public class SharedPreferencesUtils {
         sharedPreferences = context.getSharedPreferences(name, mode);
     }
 
+    /**
+     * 使用已有的 {@link SharedPreferences} ，例如 {@link MappedSharedPreferences}
+     * @param sharedPreferences {@link SharedPreferences} 实例
+     */
+    public SharedPreferencesUtils(SharedPreferences sharedPreferences) {
+        this.sharedPreferences = sharedPreferences;
+    }
+
+    /**
+     * 在后台 IO 线程池中并行加载 SharedPreferences 文件，每个文件一个任务<br>
+     *     系统对同一个名称总是返回同一个实例，之后用同样的名称创建的 SharedPreferencesUtils 会直接得到已加载的实例；
+     *     加载完成前的读取只会等待对应的那一个文件<br>
+     *     需要先初始化 {@link ThreadUtils} ，每个文件的耗时通过 {@link #setOnPreloadListener(OnPreloadListener)} 报告，默认输出到日志
+     * @param context {@link Context} 实例
+     * @param names SharedPreferences 的名称，使用 {@link Context#MODE_PRIVATE} 打开，已经预加载过的名称会被忽略
+     * @throws RejectedExecutionException IO 线程池队列已满且策略为 ABORT ，此前的名称已经提交
+     */
+    public static void preload(Context context, String... names) {
+        Context applicationContext = context.getApplicationContext();
+        final Context appContext = applicationContext == null ? context : applicationContext;
+        for (final String name : names) {
+            final Preload preload = new Preload();
+            if (preloads.putIfAbsent(name, preload) != null) {
+                continue;
+            }
+            BackgroundTask task;
+            try {
+                task = ThreadUtils.runInBackground(null, ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_HIGH, new Runnable() {
+                    @Override
+                    public void run() {
+                        long start = SystemClock.uptimeMillis();
+                        SharedPreferences sp = appContext.getSharedPreferences(name, Context.MODE_PRIVATE);
+                        // 系统在另一个线程中解析文件，任何读取都会等待解析完成
+                        sp.contains(name);
+                        preload.elapsedMillis = SystemClock.uptimeMillis() - start;
+                        preload.sharedPreferences = sp;
+                        OnPreloadListener listener = preloadListener;
+                        if (listener != null) {
+                            listener.onPreloaded(name, preload.elapsedMillis);
+                        }
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                preloads.remove(name, preload);
+                throw e;
+            }
+            if (task.isCancelled()) {
+                // 队列已满且策略为 DISCARD ，之后仍可以再次预加载
+                preloads.remove(name, preload);
+            }
+        }
+    }
+
+    /**
+     * 设置预加载完成的回调
+     * @param listener 回调，为 null 时不报告
+     */
+    public static void setOnPreloadListener(@Nullable OnPreloadListener listener) {
+        preloadListener = listener;
+    }
+
+    /**
+     * 获取预加载的耗时
+     * @param name SharedPreferences 的名称
+     * @return 耗时，毫秒，没有预加载或尚未完成时返回 -1
+     */
+    public static long getPreloadMillis(String name) {
+        Preload preload = preloads.get(name);
+        return preload == null || preload.sharedPreferences == null ? -1 : preload.elapsedMillis;
+    }
+
     /**
      * 获取本 SharedPreferences 中的所有数据
      * @return 存放数据的数组
      */
     public Map<String, ?> getAllData() {
-        return sharedPreferences.getAll();
+        Map<String, ?> pending = pendingValues;
+        if (pending == null || pending.isEmpty()) {
+            return sharedPreferences.getAll();
+        }
+        Map<String, Object> all = new HashMap<>(sharedPreferences.getAll());
+        for (Map.Entry<String, ?> entry : pending.entrySet()) {
+            if (entry.getValue() == REMOVED) {
+                all.remove(entry.getKey());
+            } else {
+                all.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return all;
     }
 
     /**
-     * 获取某一个数据
+     * 获取某一个数据，由 {@link BinaryCodec} 编码的对象会被解码，多次读取时返回同一个对象，请不要修改它
      * @param key 数据对应的 key
      * @param <T> 数据的类型
      * @return 获取到的数据
      */
     public <T> T getData(String key) {
-        return (T) getAllData().get(key);
+        return (T) decodeObject(key, getRawData(key));
+    }
+
+    /**
+     * 获取某一个数据
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @param <T> 数据的类型
+     * @return 获取到的数据
+     */
+    public <T> T getData(String key, T defValue) {
+        Object value = getRawData(key);
+        return value == null ? defValue : (T) decodeObject(key, value);
+    }
+
+    private Object getRawData(String key) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? null : pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        if (cache != null) {
+            Object cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached;
+            }
+            Object value = readKey(key, ((Stale) cached).type);
+            if (value == null) {
+                cache.remove(key, cached);
+            } else {
+                cache.replace(key, cached, value);
+            }
+            return value;
+        }
+        return readKey(key, null);
+    }
+
+    /**
+     * 只读取一个 key ，不复制整个 {@link SharedPreferences#getAll()} ：先按已知的类型读取，类型未知或已改变时依次尝试各种类型
+     * @param type 已知的类型，如快照失效时记录的类型，未知时传入 null
+     */
+    private Object readKey(String key, @Nullable Class<?> type) {
+        if (type != null) {
+            try {
+                return readTyped(key, type);
+            } catch (ClassCastException e) {
+                // 类型已改变
+            }
+        }
+        if (!sharedPreferences.contains(key)) {
+            return null;
+        }
+        for (Class<?> stored : STORED_TYPES) {
+            try {
+                return readTyped(key, stored);
+            } catch (ClassCastException e) {
+                // 尝试下一种类型
+            }
+        }
+        return sharedPreferences.getAll().get(key);
+    }
+
+    /**
+     * 按类型读取一个 key
+     * @throws ClassCastException 类型不符
+     */
+    private Object readTyped(String key, Class<?> type) {
+        if (type == String.class) {
+            return sharedPreferences.getString(key, null);
+        } else if (Set.class.isAssignableFrom(type)) {
+            return sharedPreferences.getStringSet(key, null);
+        } else if (!sharedPreferences.contains(key)) {
+            return null;
+        } else if (type == Integer.class) {
+            return sharedPreferences.getInt(key, 0);
+        } else if (type == Long.class) {
+            return sharedPreferences.getLong(key, 0);
+        } else if (type == Float.class) {
+            return sharedPreferences.getFloat(key, 0);
+        } else if (type == Boolean.class) {
+            return sharedPreferences.getBoolean(key, false);
+        }
+        throw new ClassCastException(type.getName());
+    }
+
+    /**
+     * 解码由 {@link BinaryCodec} 编码的字符串，其他值原样返回
+     */
+    private Object decodeObject(String key, Object value) {
+        if (!(value instanceof String) || !((String) value).startsWith(OBJECT_PREFIX)) {
+            return value;
+        }
+        String encoded = (String) value;
+        DecodedObject decoded = decodedObjects.get(key);
+        if (decoded != null && decoded.encoded.equals(encoded)) {
+            return decoded.value;
+        }
+        Object object;
+        try {
+            object = BinaryCodec.decodeString(encoded.substring(OBJECT_PREFIX.length()));
+        } catch (IllegalArgumentException e) {
+            // 恰好以前缀开头的普通字符串
+            return encoded;
+        }
+        decodedObjects.put(key, new DecodedObject(encoded, object));
+        return object;
+    }
+
+    /**
+     * 是否含有某个数据
+     * @param key 数据对应的 key
+     * @return 是否含有
+     */
+    public boolean contains(String key) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending != REMOVED;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        if (cache != null) {
+            return !(cache.get(key) instanceof Stale) ? cache.containsKey(key) : sharedPreferences.contains(key);
+        }
+        return sharedPreferences.contains(key);
+    }
+
+    /**
+     * 获取 int 数据
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @return 获取到的数据
+     * @throws ClassCastException 数据不是 int
+     */
+    public int getInt(String key, int defValue) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? defValue : (Integer) pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        Object cached = null;
+        if (cache != null) {
+            cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached == null ? defValue : (Integer) cached;
+            }
+        }
+        int value = sharedPreferences.getInt(key, defValue);
+        refresh(cache, key, cached, value);
+        return value;
+    }
+
+    /**
+     * 获取 long 数据
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @return 获取到的数据
+     * @throws ClassCastException 数据不是 long
+     */
+    public long getLong(String key, long defValue) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? defValue : (Long) pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        Object cached = null;
+        if (cache != null) {
+            cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached == null ? defValue : (Long) cached;
+            }
+        }
+        long value = sharedPreferences.getLong(key, defValue);
+        refresh(cache, key, cached, value);
+        return value;
+    }
+
+    /**
+     * 获取 float 数据
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @return 获取到的数据
+     * @throws ClassCastException 数据不是 float
+     */
+    public float getFloat(String key, float defValue) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? defValue : (Float) pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        Object cached = null;
+        if (cache != null) {
+            cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached == null ? defValue : (Float) cached;
+            }
+        }
+        float value = sharedPreferences.getFloat(key, defValue);
+        refresh(cache, key, cached, value);
+        return value;
+    }
+
+    /**
+     * 获取 boolean 数据
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @return 获取到的数据
+     * @throws ClassCastException 数据不是 boolean
+     */
+    public boolean getBoolean(String key, boolean defValue) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? defValue : (Boolean) pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        Object cached = null;
+        if (cache != null) {
+            cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached == null ? defValue : (Boolean) cached;
+            }
+        }
+        boolean value = sharedPreferences.getBoolean(key, defValue);
+        refresh(cache, key, cached, value);
+        return value;
+    }
+
+    /**
+     * 获取 String 数据
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @return 获取到的数据
+     * @throws ClassCastException 数据不是 String
+     */
+    public String getString(String key, String defValue) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? defValue : (String) pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        Object cached = null;
+        if (cache != null) {
+            cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached == null ? defValue : (String) cached;
+            }
+        }
+        String value = sharedPreferences.getString(key, defValue);
+        refresh(cache, key, cached, value);
+        return value;
+    }
+
+    /**
+     * 获取 Set&lt;String&gt; 数据，请不要修改返回的 Set
+     * @param key 数据对应的 key
+     * @param defValue 不存在时的默认值
+     * @return 获取到的数据
+     * @throws ClassCastException 数据不是 Set&lt;String&gt;
+     */
+    @SuppressWarnings("unchecked")
+    public Set<String> getStringSet(String key, Set<String> defValue) {
+        Object pending = peekPending(key);
+        if (pending != null) {
+            return pending == REMOVED ? defValue : (Set<String>) pending;
+        }
+        ConcurrentMap<String, Object> cache = snapshot;
+        Object cached = null;
+        if (cache != null) {
+            cached = cache.get(key);
+            if (!(cached instanceof Stale)) {
+                return cached == null ? defValue : (Set<String>) cached;
+            }
+        }
+        Set<String> value = sharedPreferences.getStringSet(key, defValue);
+        refresh(cache, key, cached, value);
+        return value;
+    }
+
+    /**
+     * 获取尚未提交的值
+     * @return 尚未提交的值，已删除时返回 {@link #REMOVED} ，没有时返回 null
+     */
+    private Object peekPending(String key) {
+        Map<String, Object> pending = pendingValues;
+        return pending == null ? null : pending.get(key);
+    }
+
+    /**
+     * 用从 SharedPreferences 中读到的值替换快照中失效的值<br>
+     *     只替换读取前看到的那个失效标记，读取期间再次失效时不会用旧值覆盖
+     * @param stale 读取前快照中的值
+     */
+    private void refresh(ConcurrentMap<String, Object> cache, String key, Object stale, Object value) {
+        if (cache == null || !(stale instanceof Stale)) {
+            return;
+        }
+        if (!sharedPreferences.contains(key)) {
+            cache.remove(key, stale);
+        } else if (value != null) {
+            cache.replace(key, stale, value);
+        }
+    }
+
+    /**
+     * 使快照中的 key 失效，每次使用新的标记，读取时可以区分是哪一次失效
+     */
+    private static void invalidate(ConcurrentMap<String, Object> cache, String key) {
+        invalidate(cache, key, null);
+    }
+
+    /**
+     * 使快照中的 key 失效，并记录新值的类型
+     * @param stored 新存入的值，未知或已删除时使用失效前的类型
+     */
+    private static void invalidate(ConcurrentMap<String, Object> cache, String key, @Nullable Object stored) {
+        Class<?> type;
+        if (stored != null && stored != REMOVED) {
+            type = stored.getClass();
+        } else {
+            Object previous = cache.get(key);
+            type = previous instanceof Stale ? ((Stale) previous).type : previous == null ? null : previous.getClass();
+        }
+        cache.put(key, new Stale(type));
+    }
+
+    /**
+     * 启用内存快照<br>
+     *     启用时会读取一次全部数据，之后的读取不再访问 SharedPreferences ；
+     *     任何途径（包括其他 SharedPreferencesUtils 实例和直接使用 Editor）的修改都会使对应 key 的快照失效，下次读取时重新获取
+     * @return 本实例
+     */
+    public synchronized SharedPreferencesUtils enableCache() {
+        if (snapshot == null) {
+            final ConcurrentHashMap<String, Object> cache = new ConcurrentHashMap<>();
+            snapshotInvalidator = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                @Override
+                public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                    if (key == null) {
+                        // clear()
+                        for (String k : cache.keySet()) {
+                            invalidate(cache, k);
+                        }
+                    } else {
+                        invalidate(cache, key);
+                    }
+                }
+            };
+            // 先注册再读取，读取期间的修改不会丢失
+            sharedPreferences.registerOnSharedPreferenceChangeListener(snapshotInvalidator);
+            for (Map.Entry<String, ?> entry : sharedPreferences.getAll().entrySet()) {
+                if (entry.getValue() != null) {
+                    cache.putIfAbsent(entry.getKey(), entry.getValue());
+                }
+            }
+            snapshot = cache;
+        }
+        return this;
+    }
+
+    /**
+     * 停用内存快照
+     */
+    public synchronized void disableCache() {
+        if (snapshot != null) {
+            sharedPreferences.unregisterOnSharedPreferenceChangeListener(snapshotInvalidator);
+            snapshotInvalidator = null;
+            snapshot = null;
+        }
+    }
+
+    public boolean isCacheEnabled() {
+        return snapshot != null;
     }
 
     /**
      * 将数据存放到文件里
      * @param key 数据对应的 key
-     * @param data 数据
+     * @param data 数据，null 表示删除
      * @param editor SharedPreferences 编辑器
-     * @param <T> 数据的类型
-     * @throws ClassNotSupportedBySharedPreferencesException SharedPreferences 不支持该数据类型
+     * @return 实际存入的值，删除时返回 {@link #REMOVED}
+     * @throws ClassNotSupportedBySharedPreferencesException SharedPreferences 和 {@link BinaryCodec} 都不支持该数据类型
      */
-    private <T> void doPutData(String key, T data, SharedPreferences.Editor editor) throws ClassNotSupportedBySharedPreferencesException {
-        Class dataClass = data.getClass();
-        if (dataClass.equals(Integer.TYPE)) {
+    @SuppressWarnings("unchecked")
+    private Object doPutData(String key, Object data, SharedPreferences.Editor editor) throws ClassNotSupportedBySharedPreferencesException {
+        if (data == null) {
+            editor.remove(key);
+            return REMOVED;
+        } else if (data instanceof Integer) {
             editor.putInt(key, (Integer) data);
-        } else if (dataClass.equals(Long.TYPE)) {
+        } else if (data instanceof Long) {
             editor.putLong(key, (Long) data);
-        } else if (dataClass.equals(Boolean.TYPE)) {
+        } else if (data instanceof Boolean) {
             editor.putBoolean(key, (Boolean) data);
-        } else if (dataClass.equals(Float.TYPE)) {
+        } else if (data instanceof Float) {
             editor.putFloat(key, (Float) data);
-        } else if (dataClass.equals(String.class)) {
+        } else if (data instanceof String) {
             editor.putString(key, (String) data);
-        } else if (dataClass.equals(Set.class)) {
+        } else if (data instanceof Set && isStringSet((Set<?>) data)) {
+            editor.putStringSet(key, (Set<String>) data);
+        } else {
+            String encoded;
             try {
-                editor.putStringSet(key, (Set<String>) data);
-            } catch (ClassCastException e) {
+                encoded = OBJECT_PREFIX + BinaryCodec.encodeToString(data);
+            } catch (IllegalArgumentException e) {
                 throw new ClassNotSupportedBySharedPreferencesException();
             }
-        } else {
-            throw new ClassNotSupportedBySharedPreferencesException();
+            editor.putString(key, encoded);
+            return encoded;
         }
+        return data;
+    }
+
+    private static boolean isStringSet(Set<?> set) {
+        for (Object element : set) {
+            if (!(element instanceof String)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -90,9 +654,21 @@ public class SharedPreferencesUtils {
      * @throws ClassNotSupportedBySharedPreferencesException 不支持的类型
      */
     public <T> void putData(String key, T data) throws ClassNotSupportedBySharedPreferencesException {
+        synchronized (writeLock) {
+            if (pendingValues != null) {
+                pendingValues.put(key, doPutData(key, data, pendingEditor()));
+                onPendingChanged();
+                return;
+            }
+        }
         SharedPreferences.Editor editor = sharedPreferences.edit();
-        doPutData(key, data, editor);
+        Object stored = doPutData(key, data, editor);
         editor.apply();
+        // 监听器在主线程回调，在此之前也要读到刚写入的值
+        ConcurrentMap<String, Object> cache = snapshot;
+        if (cache != null) {
+            invalidate(cache, key, stored);
+        }
     }
 
     /**
@@ -101,11 +677,213 @@ public class SharedPreferencesUtils {
      * @throws ClassNotSupportedBySharedPreferencesException 不支持的类型
      */
     public void putDataMap(Map<String, ?> dataMap) throws ClassNotSupportedBySharedPreferencesException {
+        synchronized (writeLock) {
+            if (pendingValues != null) {
+                SharedPreferences.Editor editor = pendingEditor();
+                for (String k : dataMap.keySet()) {
+                    pendingValues.put(k, doPutData(k, dataMap.get(k), editor));
+                }
+                onPendingChanged();
+                return;
+            }
+        }
         SharedPreferences.Editor editor = sharedPreferences.edit();
+        Map<String, Object> stored = new HashMap<>(dataMap.size() * 2);
         for (String k: dataMap.keySet()) {
-            doPutData(k, dataMap.get(k), editor);
+            stored.put(k, doPutData(k, dataMap.get(k), editor));
         }
         editor.apply();
+        ConcurrentMap<String, Object> cache = snapshot;
+        if (cache != null) {
+            for (Map.Entry<String, Object> entry : stored.entrySet()) {
+                invalidate(cache, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * 删除某一个数据，自动提交
+     * @param key 数据对应的 key
+     */
+    public void removeData(String key) {
+        synchronized (writeLock) {
+            if (pendingValues != null) {
+                pendingEditor().remove(key);
+                pendingValues.put(key, REMOVED);
+                onPendingChanged();
+                return;
+            }
+        }
+        sharedPreferences.edit().remove(key).apply();
+        ConcurrentMap<String, Object> cache = snapshot;
+        if (cache != null) {
+            invalidate(cache, key);
+        }
+    }
+
+    /**
+     * 启用延迟写入，使用默认的静默时间和数量上限
+     * @return 本实例
+     */
+    public SharedPreferencesUtils enableWriteBehind() {
+        return enableWriteBehind(DEFAULT_WRITE_BEHIND_QUIET_MILLIS, DEFAULT_WRITE_BEHIND_MAX_PENDING);
+    }
+
+    /**
+     * 启用延迟写入<br>
+     *     之后的 {@link #putData(String, Object)} 、{@link #putDataMap(Map)} 、{@link #removeData(String)} 只写入内存，同一个 key 的多次写入会合并，
+     *     在以下情况下作为一个 {@link SharedPreferences.Editor} 事务提交，只引起一次文件写入：
+     *     <ul>
+     *         <li>连续 quietMillis 毫秒没有新的写入</li>
+     *         <li>待提交的 key 达到 maxPending 个</li>
+     *         <li>调用 {@link #flush()} 或 {@link #flushAll()} ，{@link moe.haruue.util.abstracts.HaruueActivity} 会在 onPause 时调用</li>
+     *     </ul>
+     *     需要先初始化 {@link ThreadUtils}
+     * @param quietMillis 静默时间，毫秒
+     * @param maxPending 待提交数据数量上限
+     * @return 本实例
+     */
+    public SharedPreferencesUtils enableWriteBehind(long quietMillis, int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending must be positive");
+        }
+        synchronized (writeLock) {
+            if (flushDebouncer != null) {
+                flushDebouncer.cancel();
+            }
+            flushDebouncer = ThreadUtils.debounce(null, quietMillis, false, new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            });
+            this.maxPending = maxPending;
+            if (pendingValues == null) {
+                pendingValues = new ConcurrentHashMap<>();
+            }
+        }
+        return this;
+    }
+
+    /**
+     * 提交所有待提交的数据并停用延迟写入
+     */
+    public void disableWriteBehind() {
+        synchronized (writeLock) {
+            flush();
+            if (flushDebouncer != null) {
+                flushDebouncer.cancel();
+                flushDebouncer = null;
+            }
+            pendingValues = null;
+        }
+    }
+
+    public boolean isWriteBehindEnabled() {
+        return pendingValues != null;
+    }
+
+    /**
+     * 立即提交待提交的数据
+     */
+    public void flush() {
+        synchronized (writeLock) {
+            if (pendingEditor == null) {
+                return;
+            }
+            SharedPreferences.Editor editor = pendingEditor;
+            Map<String, Object> flushed = new HashMap<>(pendingValues);
+            pendingEditor = null;
+            editor.apply();
+            // 提交后 SharedPreferences 的内存中已经是新值，之后的读取不再需要待提交的数据
+            ConcurrentMap<String, Object> cache = snapshot;
+            for (Map.Entry<String, Object> entry : flushed.entrySet()) {
+                pendingValues.remove(entry.getKey(), entry.getValue());
+                if (cache != null) {
+                    invalidate(cache, entry.getKey(), entry.getValue());
+                }
+            }
+            // 必须在 writeLock 内移除，否则之后的写入重新加入的标记会被这里清除；加锁顺序与 onPendingChanged() 相同
+            synchronized (dirtyInstances) {
+                dirtyInstances.remove(this);
+            }
+        }
+    }
+
+    /**
+     * 提交所有实例中待提交的数据
+     */
+    public static void flushAll() {
+        SharedPreferencesUtils[] instances;
+        synchronized (dirtyInstances) {
+            if (dirtyInstances.isEmpty()) {
+                return;
+            }
+            instances = dirtyInstances.toArray(new SharedPreferencesUtils[dirtyInstances.size()]);
+        }
+        for (SharedPreferencesUtils instance : instances) {
+            instance.flush();
+        }
+    }
+
+    /**
+     * 获取累积待提交数据的编辑器，调用时需要持有 writeLock
+     */
+    private SharedPreferences.Editor pendingEditor() {
+        if (pendingEditor == null) {
+            pendingEditor = sharedPreferences.edit();
+        }
+        return pendingEditor;
+    }
+
+    /**
+     * 写入待提交的数据后调用，调用时需要持有 writeLock
+     */
+    private void onPendingChanged() {
+        synchronized (dirtyInstances) {
+            dirtyInstances.add(this);
+        }
+        if (pendingValues.size() >= maxPending) {
+            flush();
+        } else {
+            flushDebouncer.call();
+        }
+    }
+
+    private static final class Preload {
+
+        volatile SharedPreferences sharedPreferences;
+        volatile long elapsedMillis;
+
+    }
+
+    /**
+     * 快照中已失效的 key 对应的值，每次失效使用新的对象
+     */
+    private static final class Stale {
+
+        /**
+         * 失效前的值的类型，未知时为 null
+         */
+        @Nullable
+        final Class<?> type;
+
+        Stale(@Nullable Class<?> type) {
+            this.type = type;
+        }
+
+    }
+
+    private static final class DecodedObject {
+
+        final String encoded;
+        final Object value;
+
+        DecodedObject(String encoded, Object value) {
+            this.encoded = encoded;
+            this.value = value;
+        }
+
     }
 
     /**
@@ -0,0 +1,494 @@
+package moe.haruue.util;
+
+import android.os.Looper;
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 轻量的异步任务，可以把后台任务和 UI 线程的回调串成一条链，避免手写嵌套的 {@link ThreadUtils#runInBackground(Object, Runnable)} 和 {@link ThreadUtils#runOnUIThread(Runnable)}<br>
+ *     例如：<code>
+ *
+ *         Task.run(this, loadCallable)
+ *                 .then(parseFunction)
+ *                 .thenOnUi(showFunction)
+ *                 .onError(toastCallback);
+ *
+ *     </code>
+ *     <ul>
+ *         <li>{@link #then(Function)} 在后台运行，如果上一步在后台线程完成，直接在同一线程中运行，不会再提交新的任务</li>
+ *         <li>{@link #thenOnUi(Function)} 在 UI 线程运行，如果上一步在 UI 线程完成，直接运行，否则只发送一条 Handler 消息</li>
+ *         <li>{@link #onError(Callback)} 在 UI 线程处理异常，异常会继续向后传递</li>
+ *     </ul>
+ *     整条链共用一个 {@link CancellationToken} ，与 {@link #run(Object, Callable)} 传入的对象绑定，
+ *     {@link moe.haruue.util.abstracts.HaruueActivity#onDestroy()} 之后该 Activity 的所有未运行的回调都会被丢弃<br>
+ *     线程池拒绝或丢弃提交的任务时，这一步以 {@link RejectedExecutionException} 失败，后续的步骤照常收到结果
+ * @param <T> 任务结果的类型
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class Task<T> {
+
+    /**
+     * 任务的一步
+     * @param <A> 输入类型
+     * @param <R> 输出类型
+     */
+    public interface Function<A, R> {
+        R apply(A value) throws Exception;
+    }
+
+    /**
+     * 不返回结果的回调
+     * @param <A> 输入类型
+     */
+    public interface Callback<A> {
+        void call(A value);
+    }
+
+    private static final int PENDING = 0;
+    private static final int SUCCEEDED = 1;
+    private static final int FAILED = 2;
+    private static final int CANCELLED = 3;
+
+    private final CancellationToken token;
+    private int state = PENDING;
+    private T value;
+    private Throwable error;
+    private List<Continuation<? super T>> continuations;
+
+    Task(CancellationToken token) {
+        this.token = token;
+        if (!token.attach(this)) {
+            state = CANCELLED;
+        }
+    }
+
+    /**
+     * 在 IO 线程池中运行并绑定一个对象
+     * @param owner 绑定的对象，如 Activity ，不需要绑定时传入 null
+     * @param callable 需要运行的任务
+     * @param <T> 任务结果的类型
+     * @return 新的任务
+     */
+    public static <T> Task<T> run(@Nullable Object owner, Callable<T> callable) {
+        return run(owner, ExecutorEngine.Pool.IO, callable);
+    }
+
+    /**
+     * 在指定的线程池中运行并绑定一个对象
+     * @param owner 绑定的对象，如 Activity ，不需要绑定时传入 null
+     * @param pool 使用的线程池
+     * @param callable 需要运行的任务
+     * @param <T> 任务结果的类型
+     * @return 新的任务
+     */
+    public static <T> Task<T> run(@Nullable Object owner, ExecutorEngine.Pool pool, final Callable<T> callable) {
+        final Task<T> task = new Task<>(new CancellationToken(owner));
+        if (task.isDone()) {
+            return task;
+        }
+        Throwable rejected = submit(pool, owner, new Runnable() {
+            @Override
+            public void run() {
+                if (task.token.isCancelled()) {
+                    task.completeCancelled();
+                    return;
+                }
+                try {
+                    task.completeSucceeded(callable.call());
+                } catch (Throwable t) {
+                    task.completeFailed(t);
+                }
+            }
+        });
+        if (rejected != null) {
+            task.completeRejected(rejected);
+        }
+        return task;
+    }
+
+    /**
+     * 创建一个已经完成的任务
+     * @param value 任务结果
+     * @param <T> 任务结果的类型
+     * @return 已完成的任务
+     */
+    public static <T> Task<T> completed(T value) {
+        Task<T> task = new Task<>(new CancellationToken(null));
+        task.completeSucceeded(value);
+        return task;
+    }
+
+    /**
+     * 所有任务都成功后完成，结果按传入顺序排列；任何一个任务失败或被取消时立即以相同的状态结束
+     * @param tasks 需要等待的任务
+     * @param <T> 任务结果的类型
+     * @return 合并后的任务
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public static <T> Task<List<T>> all(Task<? extends T>... tasks) {
+        return all(Arrays.asList(tasks));
+    }
+
+    /**
+     * 所有任务都成功后完成，结果按传入顺序排列；任何一个任务失败或被取消时立即以相同的状态结束
+     * @param tasks 需要等待的任务
+     * @param <T> 任务结果的类型
+     * @return 合并后的任务
+     */
+    public static <T> Task<List<T>> all(List<? extends Task<? extends T>> tasks) {
+        final Task<List<T>> result = new Task<>(new CancellationToken(null));
+        final int count = tasks.size();
+        if (count == 0) {
+            result.completeSucceeded(new ArrayList<T>(0));
+            return result;
+        }
+        final Object[] values = new Object[count];
+        final AtomicInteger remaining = new AtomicInteger(count);
+        for (int i = 0; i < count; i++) {
+            final int index = i;
+            tasks.get(i).addContinuation(new Continuation<T>(Continuation.INLINE) {
+                @Override
+                void onDone(Task<? extends T> parent) {
+                    if (parent.state == SUCCEEDED) {
+                        values[index] = parent.value;
+                        if (remaining.decrementAndGet() == 0) {
+                            List<T> list = new ArrayList<>(count);
+                            for (Object v : values) {
+                                list.add(Task.<T>cast(v));
+                            }
+                            result.completeSucceeded(list);
+                        }
+                    } else if (parent.state == FAILED) {
+                        result.completeFailed(parent.error);
+                    } else {
+                        result.completeCancelled();
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 任意一个任务成功后立即完成；所有任务都失败时以最后一个异常结束，所有任务都被取消时以取消状态结束
+     * @param tasks 需要等待的任务
+     * @param <T> 任务结果的类型
+     * @return 合并后的任务
+     */
+    @SafeVarargs
+    @SuppressWarnings("varargs")
+    public static <T> Task<T> any(Task<? extends T>... tasks) {
+        return any(Arrays.asList(tasks));
+    }
+
+    /**
+     * 任意一个任务成功后立即完成；所有任务都失败时以最后一个异常结束，所有任务都被取消时以取消状态结束
+     * @param tasks 需要等待的任务
+     * @param <T> 任务结果的类型
+     * @return 合并后的任务
+     */
+    public static <T> Task<T> any(List<? extends Task<? extends T>> tasks) {
+        final Task<T> result = new Task<>(new CancellationToken(null));
+        if (tasks.isEmpty()) {
+            result.completeCancelled();
+            return result;
+        }
+        final AtomicInteger remaining = new AtomicInteger(tasks.size());
+        final AtomicReference<Throwable> lastError = new AtomicReference<>();
+        for (Task<? extends T> task : tasks) {
+            task.addContinuation(new Continuation<T>(Continuation.INLINE) {
+                @Override
+                void onDone(Task<? extends T> parent) {
+                    if (parent.state == SUCCEEDED) {
+                        result.completeSucceeded(parent.value);
+                        return;
+                    }
+                    if (parent.state == FAILED) {
+                        lastError.set(parent.error);
+                    }
+                    if (remaining.decrementAndGet() == 0) {
+                        if (lastError.get() != null) {
+                            result.completeFailed(lastError.get());
+                        } else {
+                            result.completeCancelled();
+                        }
+                    }
+                }
+            });
+        }
+        return result;
+    }
+
+    /**
+     * 在后台继续处理结果
+     * @param function 处理结果的函数，抛出的异常会让后续任务以失败结束
+     * @param <R> 新结果的类型
+     * @return 新的任务
+     */
+    public <R> Task<R> then(Function<? super T, R> function) {
+        return chain(Continuation.BACKGROUND, function);
+    }
+
+    /**
+     * 在 UI 线程中继续处理结果，任务链被取消后不会再运行
+     * @param function 处理结果的函数，抛出的异常会让后续任务以失败结束
+     * @param <R> 新结果的类型
+     * @return 新的任务
+     */
+    public <R> Task<R> thenOnUi(Function<? super T, R> function) {
+        return chain(Continuation.UI, function);
+    }
+
+    /**
+     * 在 UI 线程中处理之前任何一步抛出的异常，任务链被取消后不会再运行，异常会继续向后传递
+     * @param callback 异常处理回调
+     * @return 新的任务，结果与本任务相同
+     */
+    public Task<T> onError(final Callback<Throwable> callback) {
+        final Task<T> child = new Task<>(token);
+        addContinuation(new Continuation<T>(Continuation.UI) {
+            @Override
+            boolean needsDispatch(Task<? extends T> parent) {
+                return parent.state == FAILED;
+            }
+
+            @Override
+            void onDone(Task<? extends T> parent) {
+                if (parent.state == SUCCEEDED) {
+                    child.completeSucceeded(parent.value);
+                } else if (parent.state == FAILED && !token.isCancelled()) {
+                    callback.call(parent.error);
+                    child.completeFailed(parent.error);
+                } else {
+                    child.propagate(parent);
+                }
+            }
+        });
+        return child;
+    }
+
+    /**
+     * 取消整条任务链
+     */
+    public void cancel() {
+        token.cancel();
+    }
+
+    /**
+     * 获取任务链的取消标记，可在后台任务中检查
+     * @return 取消标记
+     */
+    public CancellationToken getToken() {
+        return token;
+    }
+
+    /**
+     * 是否已经完成（成功、失败或取消）
+     * @return 是否已经完成
+     */
+    public synchronized boolean isDone() {
+        return state != PENDING;
+    }
+
+    /**
+     * 是否已被取消
+     * @return 是否已被取消
+     */
+    public synchronized boolean isCancelled() {
+        return state == CANCELLED;
+    }
+
+    private <R> Task<R> chain(int mode, final Function<? super T, R> function) {
+        final Task<R> child = new Task<>(token);
+        addContinuation(new Continuation<T>(mode) {
+            @Override
+            boolean needsDispatch(Task<? extends T> parent) {
+                return parent.state == SUCCEEDED;
+            }
+
+            @Override
+            void onDone(Task<? extends T> parent) {
+                if (parent.state != SUCCEEDED || token.isCancelled()) {
+                    child.propagate(parent);
+                    return;
+                }
+                try {
+                    child.completeSucceeded(function.apply(parent.value));
+                } catch (Throwable t) {
+                    child.completeFailed(t);
+                }
+            }
+
+            @Override
+            void onRejected(Throwable t) {
+                child.completeRejected(t);
+            }
+        });
+        return child;
+    }
+
+    void addContinuation(Continuation<? super T> continuation) {
+        synchronized (this) {
+            if (state == PENDING) {
+                if (continuations == null) {
+                    continuations = new ArrayList<>(1);
+                }
+                continuations.add(continuation);
+                return;
+            }
+        }
+        dispatch(continuation, isMainThread());
+    }
+
+    private void propagate(Task<?> parent) {
+        if (parent.state == FAILED) {
+            completeFailed(parent.error);
+        } else {
+            completeCancelled();
+        }
+    }
+
+    void completeSucceeded(T result) {
+        complete(SUCCEEDED, result, null);
+    }
+
+    void completeFailed(Throwable t) {
+        complete(FAILED, null, t);
+    }
+
+    void completeCancelled() {
+        complete(CANCELLED, null, null);
+    }
+
+    /**
+     * 提交到线程池失败，任务链已被取消时以取消状态结束
+     */
+    private void completeRejected(Throwable t) {
+        if (token.isCancelled()) {
+            completeCancelled();
+        } else {
+            completeFailed(t);
+        }
+    }
+
+    /**
+     * 提交到线程池，不论 {@link ExecutorEngine.RejectionPolicy} 是什么，被拒绝或丢弃时都返回异常而不是抛出
+     * @return 提交失败的原因，已提交时返回 null
+     */
+    @Nullable
+    private static Throwable submit(ExecutorEngine.Pool pool, @Nullable Object owner, Runnable runnable) {
+        try {
+            BackgroundTask task = ThreadUtils.getExecutorEngine().submit(pool, BackgroundTask.PRIORITY_NORMAL, owner, runnable);
+            // DISCARD 策略直接取消任务，不会抛出异常
+            return task.isCancelled() ? new RejectedExecutionException("ExecutorEngine discarded the task") : null;
+        } catch (RejectedExecutionException e) {
+            return e;
+        }
+    }
+
+    private void complete(int newState, T result, Throwable t) {
+        List<Continuation<? super T>> list;
+        synchronized (this) {
+            if (state != PENDING) {
+                return;
+            }
+            state = newState;
+            value = result;
+            error = t;
+            list = continuations;
+            continuations = null;
+        }
+        token.detach(this);
+        if (list != null) {
+            boolean onMainThread = isMainThread();
+            for (Continuation<? super T> continuation : list) {
+                dispatch(continuation, onMainThread);
+            }
+        }
+    }
+
+    /**
+     * 决定在哪个线程运行下一步：能在当前线程直接运行时绝不切换线程
+     */
+    private void dispatch(final Continuation<? super T> continuation, boolean onMainThread) {
+        if (continuation.mode == Continuation.INLINE || !continuation.needsDispatch(this)
+                || (continuation.mode == Continuation.UI) == onMainThread) {
+            continuation.onDone(this);
+            return;
+        }
+        Runnable runnable = new Runnable() {
+            @Override
+            public void run() {
+                continuation.onDone(Task.this);
+            }
+        };
+        if (continuation.mode == Continuation.UI) {
+            ThreadUtils.runOnUIThread(runnable);
+        } else {
+            Throwable rejected = submit(ExecutorEngine.Pool.IO, token.getOwner(), runnable);
+            if (rejected != null) {
+                continuation.onRejected(rejected);
+            }
+        }
+    }
+
+    private static boolean isMainThread() {
+        return Looper.myLooper() == Looper.getMainLooper();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object o) {
+        return (T) o;
+    }
+
+    /**
+     * 上一步完成后需要运行的下一步
+     */
+    abstract static class Continuation<T> {
+
+        /**
+         * 在完成上一步的线程中直接运行
+         */
+        static final int INLINE = 0;
+        /**
+         * 在后台线程运行
+         */
+        static final int BACKGROUND = 1;
+        /**
+         * 在 UI 线程运行
+         */
+        static final int UI = 2;
+
+        final int mode;
+
+        Continuation(int mode) {
+            this.mode = mode;
+        }
+
+        /**
+         * 对于上一步的这个结果，是否需要切换到指定线程运行，不需要时直接在当前线程传递结果
+         */
+        boolean needsDispatch(Task<? extends T> parent) {
+            return true;
+        }
+
+        abstract void onDone(Task<? extends T> parent);
+
+        /**
+         * 需要切换到后台线程时线程池拒绝了任务，{@link #onDone(Task)} 不会再被调用
+         */
+        void onRejected(Throwable t) {
+
+        }
+
+    }
+
+}
@@ -7,13 +7,14 @@ import android.support.annotation.Nullable;
 import android.support.v4.app.Fragment;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * 线程管理器<br>
  *     在任何地方建立新线程、插入主线程的消息队列。将一个线程与其他东西（如 Activity 绑定）<br>
+ *     后台任务运行在 {@link ExecutorEngine} 的有界线程池中，而不是每次创建新的线程<br>
+ *     绑定关系只弱引用被绑定的对象，对象被回收或线程结束后绑定会被自动清除<br>
  *     请在 {@link Application} 中使用 {@link ThreadUtils#initialize(Application)} 进行初始化，或者使用 {@link moe.haruue.util.abstracts.HaruueApplication}<br>
  *     在需要停止的地方（如 {@link Activity#onDestroy()} 中）加入 {@link ThreadUtils#interruptThreadsByObject(Object, boolean)}，或者直接使用 {@link moe.haruue.util.abstracts.HaruueActivity}
  * @author Haruue Icymoon haruue@caoyue.com.cn
@@ -22,9 +23,14 @@ public class ThreadUtils {
 
     private static ThreadUtils utils;
     private Handler handler;
-    private Map<Thread, Object> objectThreadMap;
-
-    private final static Object objectMapLock = new Object();
+    private UiDispatcher uiDispatcher;
+    private volatile boolean frameAlignedDispatch = false;
+    private BindingRegistry<Thread> threadRegistry;
+    private BindingRegistry<BackgroundTask> taskRegistry;
+    private BindingRegistry<CancellationToken> tokenRegistry;
+    private BindingRegistry<ScheduledTask> scheduleRegistry;
+    private ScheduledThreadPoolExecutor timer;
+    private ExecutorEngine engine;
 
     private ThreadUtils() {
 
@@ -35,51 +41,346 @@ public class ThreadUtils {
      * @param application Application 的 this 引用
      */
     public static void initialize(Application application) {
+        initialize(application, new ExecutorEngine());
+    }
+
+    /**
+     * 使用自定义的线程池配置进行初始化
+     * @param application Application 的 this 引用
+     * @param engine 自定义配置的 {@link ExecutorEngine}
+     */
+    public static void initialize(Application application, ExecutorEngine engine) {
+        if (utils != null && utils.engine != null) {
+            utils.engine.shutdown();
+            utils.timer.shutdownNow();
+        }
         utils = new ThreadUtils();
         utils.handler = new Handler(application.getMainLooper());
-        utils.objectThreadMap = new HashMap<>(0);
+        utils.uiDispatcher = new UiDispatcher(utils.handler);
+        utils.threadRegistry = new BindingRegistry<Thread>() {
+            @Override
+            protected boolean isStale(Thread item) {
+                return item.getState() == Thread.State.TERMINATED;
+            }
+        };
+        utils.taskRegistry = new BindingRegistry<BackgroundTask>() {
+            @Override
+            protected boolean isStale(BackgroundTask item) {
+                return item.isDone();
+            }
+        };
+        utils.tokenRegistry = new BindingRegistry<CancellationToken>() {
+            @Override
+            protected boolean isStale(CancellationToken item) {
+                return item.isCancelled() || item.isIdle();
+            }
+        };
+        utils.scheduleRegistry = new BindingRegistry<ScheduledTask>() {
+            @Override
+            protected boolean isStale(ScheduledTask item) {
+                return item.isDone();
+            }
+        };
+        // 所有后台定时任务共用的计时线程，只负责计时，到期后交给线程池运行
+        utils.timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "HaruueUtils-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        utils.engine = engine;
     }
 
     /**
-     * 在新线程中运行
+     * 获取当前使用的线程池
+     * @return 当前的 {@link ExecutorEngine}
+     */
+    public static ExecutorEngine getExecutorEngine() {
+        return utils.engine;
+    }
+
+    /**
+     * 获取当前使用的线程池，尚未初始化时返回 null
+     */
+    static ExecutorEngine peekExecutorEngine() {
+        return utils == null ? null : utils.engine;
+    }
+
+    /**
+     * 在后台线程池中运行，与 {@link #runInBackground(Runnable)} 相同<br>
+     *     不再每次创建新线程，返回值由 {@link Thread} 改为 {@link BackgroundTask} ，迁移时：
+     *     {@link Thread#interrupt()} 改为 {@link BackgroundTask#cancel(boolean)} ，
+     *     {@link Thread#isAlive()} 改为 {@link BackgroundTask#isDone()} 取反，
+     *     {@link Thread#join()} 改为 {@link BackgroundTask#get()}
      * @param runnable 需要运行的 {@link Runnable}实例
-     * @return 正在运行的 {@link Thread}实例
+     * @return 已提交的 {@link BackgroundTask}实例
+     * @deprecated 名称已经与行为不符，请使用 {@link #runInBackground(Runnable)}
      */
-    public static Thread runOnNewThread(Runnable runnable) {
-        Thread thread = new Thread(runnable);
-        thread.start();
-        return thread;
+    @Deprecated
+    public static BackgroundTask runOnNewThread(Runnable runnable) {
+        return runInBackground(runnable);
     }
 
     /**
-     * 在主线程（UI 线程）中运行
+     * 在后台线程池中运行，使用 IO 线程池和默认优先级
+     * @param runnable 需要运行的 {@link Runnable}实例
+     * @return 已提交的 {@link BackgroundTask}实例
+     */
+    public static BackgroundTask runInBackground(Runnable runnable) {
+        return runInBackground(null, ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_NORMAL, runnable);
+    }
+
+    /**
+     * 在指定的后台线程池中以指定的优先级运行并绑定一个对象<br>
+     *     队列已满时按 {@link ExecutorEngine.RejectionPolicy} 处理：DISCARD 时返回已取消的任务，ABORT 时抛出异常
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param pool 使用的线程池，CPU 密集型任务请使用 {@link ExecutorEngine.Pool#CPU}
+     * @param priority 优先级，见 {@link BackgroundTask#PRIORITY_NORMAL} 等
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 已提交的 {@link BackgroundTask}实例
+     * @throws java.util.concurrent.RejectedExecutionException 队列已满且策略为 ABORT ，或线程池已关闭
+     */
+    public static BackgroundTask runInBackground(@Nullable Object object, ExecutorEngine.Pool pool, int priority, Runnable runnable) {
+        return utils.engine.submit(pool, priority, object, runnable);
+    }
+
+    /**
+     * 在主线程（UI 线程）中运行<br>
+     *     开启 {@link #setFrameAlignedDispatch(boolean)} 后，在主线程调用时直接运行，否则合并到下一帧统一运行
      * @param runnable 需要运行的 {@link Runnable}实例
      */
     public static void runOnUIThread(Runnable runnable) {
-        utils.handler.post(runnable);
+        if (utils.frameAlignedDispatch) {
+            utils.uiDispatcher.execute(runnable);
+        } else {
+            utils.handler.post(runnable);
+        }
     }
 
     /**
-     * 将一个线程和任何对象进行绑定，一个线程只能绑定一个对象，一个对象可以绑定多个线程
+     * 在主线程（UI 线程）中运行，并按 key 合并：在下一帧运行之前，同一个 key 只有最后一次提交的 {@link Runnable} 会运行<br>
+     *     适合高频的进度更新等场景，不受 {@link #setFrameAlignedDispatch(boolean)} 影响
+     * @param key 合并的依据，如进度条的 View
+     * @param runnable 需要运行的 {@link Runnable}实例
+     */
+    public static void runOnUIThreadCoalesced(Object key, Runnable runnable) {
+        utils.uiDispatcher.post(key, runnable);
+    }
+
+    /**
+     * 设定 {@link #runOnUIThread(Runnable)} 是否使用按帧对齐的调度方式<br>
+     *     开启后主线程中的调用直接运行，其他线程的调用在每一帧批量运行，并受每帧时间预算的限制
+     * @param enabled 是否开启，默认关闭，即每次调用发送一条 Handler 消息
+     */
+    public static void setFrameAlignedDispatch(boolean enabled) {
+        utils.frameAlignedDispatch = enabled;
+    }
+
+    /**
+     * 获取按帧对齐的 UI 线程调度器，可用于设置每帧的时间预算
+     * @return {@link UiDispatcher} 实例
+     */
+    public static UiDispatcher getUiDispatcher() {
+        return utils.uiDispatcher;
+    }
+
+    /**
+     * 延时后在后台线程池中运行一次
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param delayMillis 延时，毫秒
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 定时任务，可用于取消
+     */
+    public static ScheduledTask schedule(@Nullable Object object, long delayMillis, Runnable runnable) {
+        return startScheduledTask(new ScheduledTask(object, false, 0, runnable), object, delayMillis);
+    }
+
+    /**
+     * 延时后在主线程（UI 线程）中运行一次
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param delayMillis 延时，毫秒
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 定时任务，可用于取消
+     */
+    public static ScheduledTask scheduleOnUIThread(@Nullable Object object, long delayMillis, Runnable runnable) {
+        return startScheduledTask(new ScheduledTask(object, true, 0, runnable), object, delayMillis);
+    }
+
+    /**
+     * 以固定频率在后台线程池中运行，运行时间超过周期时下一次会在本次结束后立即运行，不会重叠
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param initialDelayMillis 第一次运行前的延时，毫秒
+     * @param periodMillis 周期，毫秒
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 定时任务，可用于取消
+     */
+    public static ScheduledTask scheduleAtFixedRate(@Nullable Object object, long initialDelayMillis, long periodMillis, Runnable runnable) {
+        checkPeriod(periodMillis);
+        return startScheduledTask(new ScheduledTask(object, false, periodMillis, runnable), object, initialDelayMillis);
+    }
+
+    /**
+     * 以固定频率在主线程（UI 线程）中运行
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param initialDelayMillis 第一次运行前的延时，毫秒
+     * @param periodMillis 周期，毫秒
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 定时任务，可用于取消
+     */
+    public static ScheduledTask scheduleOnUIThreadAtFixedRate(@Nullable Object object, long initialDelayMillis, long periodMillis, Runnable runnable) {
+        checkPeriod(periodMillis);
+        return startScheduledTask(new ScheduledTask(object, true, periodMillis, runnable), object, initialDelayMillis);
+    }
+
+    /**
+     * 创建一个防抖器，调用 {@link Debouncer#call()} 后经过 delayMillis 没有新的调用才会运行
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param delayMillis 静默时间，毫秒
+     * @param onUIThread 是否在主线程中运行，否则在后台线程池中运行
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 防抖器
+     */
+    public static Debouncer debounce(@Nullable Object object, long delayMillis, boolean onUIThread, Runnable runnable) {
+        Debouncer debouncer = new Debouncer(object, delayMillis, onUIThread, runnable);
+        // 有等待运行的调用时才绑定，见 Debouncer#call()
+        return debouncer;
+    }
+
+    /**
+     * 创建一个节流器，调用 {@link Throttler#call()} 时每 intervalMillis 最多运行一次
+     * @param object 需要绑定的对象，不需要绑定时传入 null
+     * @param intervalMillis 间隔，毫秒
+     * @param leading 间隔开始时的调用是否立即运行
+     * @param trailing 间隔内被忽略的调用是否在间隔结束时补运行一次
+     * @param onUIThread 是否在主线程中运行，否则在后台线程池中运行
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 节流器
+     */
+    public static Throttler throttle(@Nullable Object object, long intervalMillis, boolean leading, boolean trailing, boolean onUIThread, Runnable runnable) {
+        Throttler throttler = new Throttler(object, intervalMillis, leading, trailing, onUIThread, runnable);
+        // 有等待运行的调用时才绑定，见 Throttler#call()
+        return throttler;
+    }
+
+    private static ScheduledTask startScheduledTask(ScheduledTask task, @Nullable Object object, long delayMillis) {
+        if (object != null) {
+            utils.scheduleRegistry.bind(task, object);
+        }
+        task.start(delayMillis);
+        return task;
+    }
+
+    private static void checkPeriod(long periodMillis) {
+        if (periodMillis <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+    }
+
+    static ScheduledThreadPoolExecutor getTimer() {
+        return utils.timer;
+    }
+
+    static void postOnUIThreadDelayed(Runnable runnable, long delayMillis) {
+        utils.handler.postDelayed(runnable, delayMillis);
+    }
+
+    static void removeUICallbacks(Runnable runnable) {
+        utils.handler.removeCallbacks(runnable);
+    }
+
+    static void unbindScheduledTask(ScheduledTask task) {
+        utils.scheduleRegistry.unbind(task);
+    }
+
+    /**
+     * 重新绑定到创建时的对象，用于空闲后再次开始计时的防抖器和节流器
+     */
+    static void rebindScheduledTask(ScheduledTask task) {
+        Object owner = task.getOwner();
+        if (owner != null) {
+            utils.scheduleRegistry.bind(task, owner);
+        }
+    }
+
+    /**
+     * 将一个线程和任何对象进行绑定，一个线程只能绑定一个对象，一个对象可以绑定多个线程<br>
+     *     只保存对象的弱引用，对象按同一性（==）比较
      * @param thread 需要被绑定的线程
      * @param object 需要被绑定的对象
      */
     public static void bindThreadWithObject(Thread thread, Object object) {
-        synchronized (objectMapLock) {
-            utils.objectThreadMap.put(thread, object);
-        }
+        utils.threadRegistry.bind(thread, object);
     }
 
     /**
-     * 在新线程中运行并绑定一个对象
+     * 在后台线程池中运行并绑定一个对象，与 {@link #runInBackground(Object, Runnable)} 相同<br>
+     *     返回值由 {@link Thread} 改为 {@link BackgroundTask} ，迁移方法见 {@link #runOnNewThread(Runnable)}
      * @param object 需要绑定的对象
      * @param runnable 需要运行的 {@link Runnable}
-     * @return 正在运行的 {@link Thread} 实例
+     * @return 已提交的 {@link BackgroundTask}实例
+     * @deprecated 名称已经与行为不符，请使用 {@link #runInBackground(Object, Runnable)}
+     */
+    @Deprecated
+    public static BackgroundTask runOnNewThread(Object object, Runnable runnable) {
+        return runInBackground(object, runnable);
+    }
+
+    /**
+     * 在后台线程池中运行并绑定一个对象<br>
+     *     绑定的是任务而不是线程池中的线程，{@link #interruptThreadsByObject(Object, boolean)} 会取消队列中的任务并中断正在运行的任务
+     * @param object 需要绑定的对象
+     * @param runnable 需要运行的 {@link Runnable}
+     * @return 已提交的 {@link BackgroundTask}实例
+     */
+    public static BackgroundTask runInBackground(Object object, Runnable runnable) {
+        return runInBackground(object, ExecutorEngine.Pool.IO, BackgroundTask.PRIORITY_NORMAL, runnable);
+    }
+
+    /**
+     * 将一个后台任务和对象绑定，任务结束时自动解除绑定
+     * @param task 需要被绑定的任务
+     * @param object 需要被绑定的对象
+     */
+    static void bindTaskWithObject(BackgroundTask task, Object object) {
+        utils.taskRegistry.bind(task, object);
+    }
+
+    /**
+     * 解除后台任务和对象的绑定
+     * @param task 已绑定对象的任务
+     */
+    static void unbindTask(BackgroundTask task) {
+        utils.taskRegistry.unbind(task);
+    }
+
+    /**
+     * 利用一个后台任务来寻找绑定它的对象
+     * @param task 绑定有对象的任务
+     * @return 被这个任务绑定的对象，如果找不到，返回 null
+     */
+    @Nullable
+    static Object findObjectByTask(BackgroundTask task) {
+        return utils.taskRegistry.findObject(task);
+    }
+
+    /**
+     * 将 {@link Task} 链的取消标记和对象绑定，标记空闲或被取消后自动解除绑定
+     * @param token 取消标记
+     * @param object 需要被绑定的对象
+     */
+    static void bindToken(CancellationToken token, Object object) {
+        utils.tokenRegistry.bind(token, object);
+    }
+
+    /**
+     * 利用一个对象来寻找所有绑定它的后台任务
+     * @param object 绑定有任务的对象
+     * @return 包含有被绑定任务的 {@link ArrayList} ，如果没有任务与它绑定，返回一个空的 {@link ArrayList}
      */
-    public static Thread runOnNewThread(Object object, Runnable runnable) {
-        Thread thread = runOnNewThread(runnable);
-        bindThreadWithObject(thread, object);
-        return thread;
+    public static ArrayList<BackgroundTask> findTasksByObject(Object object) {
+        return utils.taskRegistry.find(object);
     }
 
     /**
@@ -88,15 +389,7 @@ public class ThreadUtils {
      * @return 包含有被绑定线程的 {@link ArrayList} ，如果没有线程与它绑定，返回一个空的 {@link ArrayList}
      */
     public static ArrayList<Thread> findThreadsByObject(Object object) {
-        ArrayList<Thread> list = new ArrayList<>(0);
-        synchronized (objectMapLock) {
-            for (Map.Entry<Thread, Object> entry : utils.objectThreadMap.entrySet()) {
-                if (entry.getValue().equals(object)) {
-                    list.add(entry.getKey());
-                }
-            }
-        }
-        return list;
+        return utils.threadRegistry.find(object);
     }
 
     /**
@@ -106,14 +399,7 @@ public class ThreadUtils {
      */
     @Nullable
     public static Object findObjectByThread(Thread thread) {
-        synchronized (objectMapLock) {
-            for (Map.Entry<Thread, Object> entry : utils.objectThreadMap.entrySet()) {
-                if (entry.getKey().equals(thread)) {
-                    return entry.getValue();
-                }
-            }
-        }
-        return null;
+        return utils.threadRegistry.findObject(thread);
     }
 
     /**
@@ -121,9 +407,7 @@ public class ThreadUtils {
      * @param thread 绑定有对象的线程
      */
     public static void unbindThread(Thread thread) {
-        synchronized (objectMapLock) {
-            utils.objectThreadMap.remove(thread);
-        }
+        utils.threadRegistry.unbind(thread);
     }
 
     /**
@@ -131,13 +415,13 @@ public class ThreadUtils {
      * @param object 绑定有线程的对象
      */
     public static void unbindObject(Object object) {
-        for (Thread t : findThreadsByObject(object)) {
-            unbindThread(t);
-        }
+        utils.threadRegistry.unbindObject(object);
     }
 
     /**
-     * 中断绑定某个对象的所有线程
+     * 中断绑定某个对象的所有线程，并取消绑定它的所有后台任务和 {@link Task} 链<br>
+     *     队列中尚未运行的任务会被移出队列，正在运行的任务会被中断，被取消的任务总是自动解除绑定<br>
+     *     {@link Task} 链中尚未运行的 UI 线程回调会被丢弃，定时任务、防抖器和节流器会被取消
      * @param object 绑定有线程的对象
      * @param autoUnbind 是否自动解除绑定
      */
@@ -148,23 +432,31 @@ public class ThreadUtils {
                 unbindThread(t);
             }
         }
+        for (CancellationToken token: utils.tokenRegistry.find(object)) {
+            token.cancel();
+        }
+        utils.tokenRegistry.unbindObject(object);
+        for (ScheduledTask task: utils.scheduleRegistry.find(object)) {
+            task.cancel();
+        }
+        for (BackgroundTask task: findTasksByObject(object)) {
+            if (task.cancel(true)) {
+                utils.engine.purge(task);
+            }
+        }
     }
 
     /**
-     * 清理停止的线程，避免内存泄漏
+     * 清理被中断或已经结束的线程，避免内存泄漏<br>
+     *     已经结束的线程和已被回收的对象平时也会被自动清理，一般无需手动调用
      */
     public static void clearInterruptThreads() {
-        List<Thread> list = new ArrayList<>(0);
-        synchronized (objectMapLock) {
-            for (Map.Entry<Thread, Object> entry: utils.objectThreadMap.entrySet()) {
-                if (entry.getKey().isInterrupted()) {
-                    list.add(entry.getKey());
-                }
+        utils.threadRegistry.reap();
+        for (Thread t: utils.threadRegistry.items()) {
+            if (t.isInterrupted()) {
+                unbindThread(t);
             }
         }
-        for (Thread t: list) {
-            unbindThread(t);
-        }
     }
 
     /**
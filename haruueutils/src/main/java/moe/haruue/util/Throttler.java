@@ -0,0 +1,101 @@
+package moe.haruue.util;
+
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+
+/**
+ * 节流：无论 {@link #call()} 多频繁，每个时间间隔内最多运行一次，适合传感器、滚动回调等场景<br>
+ *     <ul>
+ *         <li>leading：间隔开始时的第一次调用立即运行</li>
+ *         <li>trailing：间隔内被忽略的调用在间隔结束时补运行一次</li>
+ *     </ul>
+ *     没有等待补运行的调用时视为已结束，会从绑定的对象上解除，下一次需要补运行时重新绑定；
+ *     因此 {@link ThreadUtils#interruptThreadsByObject(Object, boolean)} 只会取消正在等待的补运行<br>
+ *     由 {@link ThreadUtils#throttle(Object, long, boolean, boolean, boolean, Runnable)} 创建
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class Throttler extends ScheduledTask {
+
+    private final long intervalMillis;
+    private final boolean leading;
+    private final boolean trailing;
+    private long lastRunTime;
+    private volatile boolean armed;
+    private boolean trailingPending;
+
+    Throttler(@Nullable Object object, long intervalMillis, boolean leading, boolean trailing, boolean onUIThread, Runnable runnable) {
+        super(object, onUIThread, 0, runnable);
+        if (!leading && !trailing) {
+            throw new IllegalArgumentException("at least one of leading and trailing must be true");
+        }
+        this.intervalMillis = intervalMillis;
+        this.leading = leading;
+        this.trailing = trailing;
+        this.lastRunTime = -intervalMillis;
+    }
+
+    /**
+     * 触发一次
+     */
+    public void call() {
+        if (isCancelled()) {
+            return;
+        }
+        boolean runNow = false;
+        long delay = 0;
+        synchronized (this) {
+            long now = SystemClock.uptimeMillis();
+            if (armed) {
+                trailingPending = trailing;
+                return;
+            }
+            if (leading && now - lastRunTime >= intervalMillis) {
+                lastRunTime = now;
+                runNow = true;
+            } else {
+                trailingPending = trailing;
+            }
+            if (trailing) {
+                // 间隔结束时检查是否需要补运行
+                armed = true;
+                delay = leading ? lastRunTime + intervalMillis - now : intervalMillis;
+            }
+        }
+        if (runNow && !runOnTarget(runnable)) {
+            synchronized (this) {
+                // 线程池队列已满，改为在间隔结束时补运行
+                trailingPending = trailing;
+            }
+        }
+        if (trailing) {
+            ThreadUtils.rebindScheduledTask(this);
+            arm(delay);
+        }
+    }
+
+    @Override
+    void onFire() {
+        boolean run;
+        synchronized (this) {
+            armed = false;
+            run = trailingPending;
+            trailingPending = false;
+            if (run) {
+                lastRunTime = SystemClock.uptimeMillis();
+            }
+        }
+        if (run) {
+            runnable.run();
+        }
+    }
+
+    /**
+     * 是否已经结束：已被取消，或者没有等待补运行的调用
+     * @return 是否已经结束
+     */
+    @Override
+    public boolean isDone() {
+        return isCancelled() || !armed;
+    }
+
+}
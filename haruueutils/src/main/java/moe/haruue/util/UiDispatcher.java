@@ -0,0 +1,218 @@
+package moe.haruue.util;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * 按帧对齐的 UI 线程调度器<br>
+ *     提交的任务不会各自发送一条 Handler 消息，而是先放进队列，每一帧通过 {@link Choreographer} 统一执行一次（API 16 以下退化为约 16ms 一次的 Handler 消息）<br>
+ *     <ul>
+ *         <li>带 key 提交的任务会被合并，同一个 key 在执行前只保留最后一次提交的任务</li>
+ *         <li>每一帧执行的时间不超过 {@link #setFrameBudgetMillis(long)} 设定的预算，剩下的任务留到下一帧</li>
+ *         <li>{@link #execute(Runnable)} 在主线程调用时直接运行，不经过队列</li>
+ *     </ul>
+ *     通过 {@link ThreadUtils#getUiDispatcher()} 获取
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class UiDispatcher {
+
+    /**
+     * 默认每帧的执行预算，留出一半的帧时间给绘制
+     */
+    public static final long DEFAULT_FRAME_BUDGET_MILLIS = 8;
+
+    private static final long FALLBACK_FRAME_INTERVAL_MILLIS = 16;
+
+    private final Handler handler;
+    private final Looper mainLooper;
+    private final FrameScheduler scheduler;
+
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private final Map<Object, Entry> keyedEntries = new HashMap<>();
+    private boolean frameScheduled;
+    private volatile long frameBudgetNanos = DEFAULT_FRAME_BUDGET_MILLIS * 1000000L;
+
+    /**
+     * 必须在主线程中创建
+     * @param handler 主线程的 {@link Handler}
+     */
+    UiDispatcher(Handler handler) {
+        this.handler = handler;
+        this.mainLooper = handler.getLooper();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            scheduler = new ChoreographerScheduler();
+        } else {
+            scheduler = new HandlerScheduler();
+        }
+    }
+
+    /**
+     * 设置每一帧最多用于执行任务的时间
+     * @param millis 毫秒数，至少会执行一个任务
+     */
+    public void setFrameBudgetMillis(long millis) {
+        frameBudgetNanos = millis * 1000000L;
+    }
+
+    /**
+     * 如果当前在主线程则直接运行，否则放入队列等待下一帧
+     * @param runnable 需要运行的 {@link Runnable}
+     */
+    public void execute(Runnable runnable) {
+        if (Looper.myLooper() == mainLooper) {
+            runnable.run();
+        } else {
+            post(runnable);
+        }
+    }
+
+    /**
+     * 放入队列等待下一帧执行
+     * @param runnable 需要运行的 {@link Runnable}
+     */
+    public void post(Runnable runnable) {
+        synchronized (queue) {
+            queue.add(new Entry(null, runnable));
+            scheduleFrameLocked();
+        }
+    }
+
+    /**
+     * 带 key 放入队列等待下一帧执行，执行前同一个 key 的多次提交只有最后一次会运行，执行顺序取第一次提交的位置
+     * @param key 合并的依据，按 {@link Object#equals(Object)} 比较
+     * @param runnable 需要运行的 {@link Runnable}
+     */
+    public void post(Object key, Runnable runnable) {
+        synchronized (queue) {
+            Entry entry = keyedEntries.get(key);
+            if (entry != null) {
+                entry.runnable = runnable;
+                return;
+            }
+            entry = new Entry(key, runnable);
+            keyedEntries.put(key, entry);
+            queue.add(entry);
+            scheduleFrameLocked();
+        }
+    }
+
+    /**
+     * 移除某个 key 尚未执行的任务
+     * @param key 提交时使用的 key
+     */
+    public void cancel(Object key) {
+        synchronized (queue) {
+            Entry entry = keyedEntries.remove(key);
+            if (entry != null) {
+                queue.remove(entry);
+            }
+        }
+    }
+
+    private void scheduleFrameLocked() {
+        if (!frameScheduled) {
+            frameScheduled = true;
+            scheduler.schedule();
+        }
+    }
+
+    /**
+     * 在一帧中执行队列里的任务，超出预算时把剩下的留到下一帧
+     */
+    private void drain() {
+        long deadline = System.nanoTime() + frameBudgetNanos;
+        synchronized (queue) {
+            frameScheduled = false;
+        }
+        for (;;) {
+            Runnable runnable;
+            synchronized (queue) {
+                Entry entry = queue.poll();
+                if (entry == null) {
+                    return;
+                }
+                if (entry.key != null) {
+                    keyedEntries.remove(entry.key);
+                }
+                runnable = entry.runnable;
+            }
+            boolean completed = false;
+            try {
+                runnable.run();
+                completed = true;
+            } finally {
+                if (!completed) {
+                    // 任务抛出异常时保证剩下的任务仍然会在下一帧执行
+                    scheduleIfPending();
+                }
+            }
+            if (System.nanoTime() >= deadline) {
+                scheduleIfPending();
+                return;
+            }
+        }
+    }
+
+    private void scheduleIfPending() {
+        synchronized (queue) {
+            if (!queue.isEmpty()) {
+                scheduleFrameLocked();
+            }
+        }
+    }
+
+    private static final class Entry {
+
+        final Object key;
+        Runnable runnable;
+
+        Entry(Object key, Runnable runnable) {
+            this.key = key;
+            this.runnable = runnable;
+        }
+
+    }
+
+    private interface FrameScheduler {
+        void schedule();
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private class ChoreographerScheduler implements FrameScheduler, Choreographer.FrameCallback {
+
+        private final Choreographer choreographer = Choreographer.getInstance();
+
+        @Override
+        public void schedule() {
+            choreographer.postFrameCallback(this);
+        }
+
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            drain();
+        }
+
+    }
+
+    private class HandlerScheduler implements FrameScheduler, Runnable {
+
+        @Override
+        public void schedule() {
+            handler.postDelayed(this, FALLBACK_FRAME_INTERVAL_MILLIS);
+        }
+
+        @Override
+        public void run() {
+            drain();
+        }
+
+    }
+
+}
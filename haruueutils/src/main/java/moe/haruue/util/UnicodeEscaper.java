@@ -0,0 +1,408 @@
+package moe.haruue.util;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/**
+ * Unicode 转义/反转义<br>
+ *     查表实现，不使用正则表达式，连续的不需要处理的字符会被整段追加；
+ *     可以从 {@link CharSequence} 输出到 {@link Appendable} ，也可以从 {@link Reader} 流式输出到 {@link Writer} ，转换大文件时占用的内存是固定的<br>
+ *     支持三种风格，见 {@link Style}，补充平面的字符（如 emoji）在 {@link Style#JAVA} 和 {@link Style#JSON} 中转义为代理对，
+ *     在 {@link Style#BRACED} 中转义为一个码点<br>
+ *     反转义时不合法或不完整的转义序列原样保留<br>
+ *     所有实例都是不可变且线程安全的
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class UnicodeEscaper {
+
+    /**
+     * 转义风格
+     */
+    public enum Style {
+        /**
+         * 与 native2ascii 相同，非 ASCII 字符转义为 &#92;u6625 的形式，ASCII 字符原样输出；
+         * 反转义时 &#92;&#92; 之后的 u 不视为转义，也接受 &#92;uuuu6625 和 &#92;U6625
+         */
+        JAVA,
+        /**
+         * JSON 字符串内容，非 ASCII 字符和控制字符转义为 &#92;u00e9 的形式，并转义 " 和 &#92; ；
+         * 反转义时同时处理 &#92;n 、&#92;" 等简单转义
+         */
+        JSON,
+        /**
+         * 非 ASCII 字符按码点转义为 &#92;u{1f600} 的形式；反转义时也接受 &#92;U{...} 和四位的 &#92;u 转义
+         */
+        BRACED
+    }
+
+    public static final UnicodeEscaper JAVA = new UnicodeEscaper(Style.JAVA);
+    public static final UnicodeEscaper JSON = new UnicodeEscaper(Style.JSON);
+    public static final UnicodeEscaper BRACED = new UnicodeEscaper(Style.BRACED);
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+    /**
+     * 流式转换时每次读取的字符数
+     */
+    private static final int BUFFER_SIZE = 8192;
+    /**
+     * 最长的转义序列，如 &#92;U{0010ffff}
+     */
+    private static final int MAX_ESCAPE_LENGTH = 12;
+    /**
+     * 表示需要以四位十六进制形式转义的 ASCII 字符
+     */
+    private static final char UNICODE = 'u';
+
+    private final Style style;
+    /**
+     * ASCII 字符的转义方式：0 原样输出，{@link #UNICODE} 转义为四位十六进制，其他值为反斜杠之后的字符
+     */
+    private final char[] asciiEscapes = new char[128];
+    /**
+     * 反斜杠之后的字符到反转义结果的映射，0 表示不是简单转义
+     */
+    private final char[] simpleUnescapes = new char[128];
+
+    private UnicodeEscaper(Style style) {
+        this.style = style;
+        if (style == Style.JSON) {
+            for (char c = 0; c < 0x20; c++) {
+                asciiEscapes[c] = UNICODE;
+            }
+            asciiEscapes[0x7f] = UNICODE;
+            String simple = "\"\"\\\\//\bb\ff\nn\rr\tt";
+            for (int i = 0; i < simple.length(); i += 2) {
+                if (simple.charAt(i) != '/') {
+                    asciiEscapes[simple.charAt(i)] = simple.charAt(i + 1);
+                }
+                simpleUnescapes[simple.charAt(i + 1)] = simple.charAt(i);
+            }
+        }
+    }
+
+    /**
+     * 获取指定风格的实例
+     * @param style 风格
+     * @return 实例
+     */
+    public static UnicodeEscaper of(Style style) {
+        switch (style) {
+            case JSON:
+                return JSON;
+            case BRACED:
+                return BRACED;
+            case JAVA:
+            default:
+                return JAVA;
+        }
+    }
+
+    public Style getStyle() {
+        return style;
+    }
+
+    /**
+     * 转义
+     * @param s 需要转义的字符串
+     * @return 转义结果
+     */
+    public String escape(CharSequence s) {
+        return escape(s, new StringBuilder(s.length() + 16)).toString();
+    }
+
+    /**
+     * 转义并追加到 {@link StringBuilder}
+     * @param s 需要转义的字符串
+     * @param sb 输出
+     * @return sb
+     */
+    public StringBuilder escape(CharSequence s, StringBuilder sb) {
+        try {
+            escape(s, 0, s.length(), sb, true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb;
+    }
+
+    /**
+     * 转义并输出到 {@link Appendable}
+     * @param s 需要转义的字符串
+     * @param out 输出
+     * @throws IOException 输出失败
+     */
+    public void escape(CharSequence s, Appendable out) throws IOException {
+        escape(s, 0, s.length(), out, true);
+    }
+
+    /**
+     * 流式转义，读取完毕后不会关闭流
+     * @param in 输入
+     * @param out 输出
+     * @throws IOException 读取或输出失败
+     */
+    public void escape(Reader in, Writer out) throws IOException {
+        transfer(in, out, true);
+    }
+
+    /**
+     * 反转义
+     * @param s 需要反转义的字符串
+     * @return 反转义结果
+     */
+    public String unescape(CharSequence s) {
+        return unescape(s, new StringBuilder(s.length())).toString();
+    }
+
+    /**
+     * 反转义并追加到 {@link StringBuilder}
+     * @param s 需要反转义的字符串
+     * @param sb 输出
+     * @return sb
+     */
+    public StringBuilder unescape(CharSequence s, StringBuilder sb) {
+        try {
+            unescape(s, 0, s.length(), sb, true);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return sb;
+    }
+
+    /**
+     * 反转义并输出到 {@link Appendable}
+     * @param s 需要反转义的字符串
+     * @param out 输出
+     * @throws IOException 输出失败
+     */
+    public void unescape(CharSequence s, Appendable out) throws IOException {
+        unescape(s, 0, s.length(), out, true);
+    }
+
+    /**
+     * 流式反转义，读取完毕后不会关闭流
+     * @param in 输入
+     * @param out 输出
+     * @throws IOException 读取或输出失败
+     */
+    public void unescape(Reader in, Writer out) throws IOException {
+        transfer(in, out, false);
+    }
+
+    /**
+     * 分块读取并转换，每块结尾不完整的代理对或转义序列留到下一块
+     */
+    private void transfer(Reader in, Writer out, boolean escape) throws IOException {
+        char[] buffer = new char[BUFFER_SIZE + MAX_ESCAPE_LENGTH];
+        CharBuffer view = CharBuffer.wrap(buffer);
+        StringBuilder sb = new StringBuilder(BUFFER_SIZE * 2);
+        char[] outBuffer = new char[0];
+        int length = 0;
+        boolean eof = false;
+        while (!eof || length > 0) {
+            if (!eof) {
+                int n = in.read(buffer, length, buffer.length - length);
+                if (n == -1) {
+                    eof = true;
+                } else {
+                    length += n;
+                }
+            }
+            CharSequence chunk = view.subSequence(0, length);
+            int consumed = escape ? escape(chunk, 0, length, sb, eof) : unescape(chunk, 0, length, sb, eof);
+            System.arraycopy(buffer, consumed, buffer, 0, length - consumed);
+            length -= consumed;
+            if (sb.length() > outBuffer.length) {
+                outBuffer = new char[sb.length()];
+            }
+            sb.getChars(0, sb.length(), outBuffer, 0);
+            out.write(outBuffer, 0, sb.length());
+            sb.setLength(0);
+            if (eof) {
+                break;
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * 转义 [start, end)
+     * @param endOfInput 之后是否还有输入，没有时结尾的高代理项也直接转义
+     * @return 处理到的位置
+     */
+    private int escape(CharSequence s, int start, int end, Appendable out, boolean endOfInput) throws IOException {
+        char[] table = asciiEscapes;
+        int run = start;
+        int i = start;
+        while (i < end) {
+            char c = s.charAt(i);
+            if (c < 0x80 && table[c] == 0) {
+                i++;
+                continue;
+            }
+            if (i > run) {
+                out.append(s, run, i);
+            }
+            if (c < 0x80) {
+                char e = table[c];
+                if (e == UNICODE) {
+                    appendUnicode(out, c);
+                } else {
+                    out.append('\\').append(e);
+                }
+                i++;
+            } else if (style != Style.BRACED) {
+                appendUnicode(out, c);
+                i++;
+            } else if (Character.isHighSurrogate(c) && i + 1 >= end && !endOfInput) {
+                return i;
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(s.charAt(i + 1))) {
+                appendBraced(out, Character.toCodePoint(c, s.charAt(i + 1)));
+                i += 2;
+            } else {
+                appendBraced(out, c);
+                i++;
+            }
+            run = i;
+        }
+        if (end > run) {
+            out.append(s, run, end);
+        }
+        return end;
+    }
+
+    private static void appendUnicode(Appendable out, char c) throws IOException {
+        out.append('\\').append('u')
+                .append(HEX[c >> 12]).append(HEX[(c >> 8) & 0xf])
+                .append(HEX[(c >> 4) & 0xf]).append(HEX[c & 0xf]);
+    }
+
+    private static void appendBraced(Appendable out, int codePoint) throws IOException {
+        out.append('\\').append('u').append('{');
+        int shift = 20;
+        while (shift > 0 && (codePoint >> shift) == 0) {
+            shift -= 4;
+        }
+        for (; shift >= 0; shift -= 4) {
+            out.append(HEX[(codePoint >> shift) & 0xf]);
+        }
+        out.append('}');
+    }
+
+    /**
+     * 反转义 [start, end)
+     * @param endOfInput 之后是否还有输入，没有时结尾不完整的转义序列原样输出
+     * @return 处理到的位置
+     */
+    private int unescape(CharSequence s, int start, int end, Appendable out, boolean endOfInput) throws IOException {
+        int run = start;
+        int i = start;
+        while (i < end) {
+            if (s.charAt(i) != '\\') {
+                i++;
+                continue;
+            }
+            if (i > run) {
+                out.append(s, run, i);
+            }
+            int next = unescapeAt(s, i, end, out, endOfInput);
+            if (next < 0) {
+                return i;
+            }
+            i = next;
+            run = i;
+        }
+        if (end > run) {
+            out.append(s, run, end);
+        }
+        return end;
+    }
+
+    /**
+     * 处理 i 处以反斜杠开始的序列
+     * @return 序列之后的位置，序列可能被截断且还有输入时返回 -1
+     */
+    private int unescapeAt(CharSequence s, int i, int end, Appendable out, boolean endOfInput) throws IOException {
+        if (i + 1 >= end) {
+            if (!endOfInput) {
+                return -1;
+            }
+            out.append('\\');
+            return i + 1;
+        }
+        char c = s.charAt(i + 1);
+        if (c < 0x80 && simpleUnescapes[c] != 0) {
+            out.append(simpleUnescapes[c]);
+            return i + 2;
+        }
+        if (c == '\\' && style == Style.JAVA) {
+            // 被转义的反斜杠，之后的 u 不是转义序列
+            out.append('\\').append('\\');
+            return i + 2;
+        }
+        boolean upper = c == 'U';
+        if (c != 'u' && !(upper && style != Style.JSON)) {
+            out.append('\\');
+            return i + 1;
+        }
+        int j = i + 2;
+        if (style == Style.BRACED && j < end && s.charAt(j) == '{') {
+            int codePoint = 0;
+            int k = j + 1;
+            for (; k < end && k - j <= 8; k++) {
+                char h = s.charAt(k);
+                int d = hexDigit(h);
+                if (d < 0) {
+                    break;
+                }
+                codePoint = (codePoint << 4) | d;
+            }
+            if (k >= end && !endOfInput) {
+                return -1;
+            }
+            if (k < end && s.charAt(k) == '}' && k > j + 1 && codePoint >= 0 && codePoint <= Character.MAX_CODE_POINT) {
+                out.append(new String(Character.toChars(codePoint)));
+                return k + 1;
+            }
+            out.append('\\');
+            return i + 1;
+        }
+        if (style == Style.JAVA && !upper) {
+            while (j < end && s.charAt(j) == 'u') {
+                j++;
+            }
+        }
+        if (j + 4 > end) {
+            if (!endOfInput && j - i < MAX_ESCAPE_LENGTH) {
+                return -1;
+            }
+            out.append('\\');
+            return i + 1;
+        }
+        int value = 0;
+        for (int k = j; k < j + 4; k++) {
+            int d = hexDigit(s.charAt(k));
+            if (d < 0) {
+                out.append('\\');
+                return i + 1;
+            }
+            value = (value << 4) | d;
+        }
+        out.append((char) value);
+        return j + 4;
+    }
+
+    private static int hexDigit(char c) {
+        if (c >= '0' && c <= '9') {
+            return c - '0';
+        } else if (c >= 'a' && c <= 'f') {
+            return c - 'a' + 10;
+        } else if (c >= 'A' && c <= 'F') {
+            return c - 'A' + 10;
+        }
+        return -1;
+    }
+
+}
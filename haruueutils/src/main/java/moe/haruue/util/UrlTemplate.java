@@ -0,0 +1,276 @@
+package moe.haruue.util;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 预编译的 URL 模板<br>
+ *     模板只解析一次，常量部分和查询参数的键在编译时编码并缓存，展开时只需要编码变量的值，例如：
+ *     <pre>
+ *     UrlTemplate t = UrlTemplate.compile("https://api.example.com/users/{id}/posts?fixed=1{&amp;page,size}");
+ *     t.expand(42, 2, null); // https://api.example.com/users/42/posts?fixed=1&amp;page=2
+ *     </pre>
+ *     支持的语法（RFC 6570 的子集）：
+ *     <ul>
+ *         <li>{@code {name}} ：值按 RFC 3986 编码后直接替换，/ 等保留字符也会被编码，适合路径片段</li>
+ *         <li>{@code {?a,b}} 和 {@code {&a,b}} ：展开为查询参数，值为 null 时省略该参数，{@link Iterable} 或数组展开为多个同名参数，
+ *         自动选择 ? 或 &amp; 作为分隔符</li>
+ *     </ul>
+ *     编译后的模板不可变，可以在多个线程中同时使用
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public final class UrlTemplate {
+
+    /**
+     * 展开时的查询字符串状态：还没有 ? 、需要 &amp; 分隔、刚写入 ? 或 &amp;
+     */
+    private static final int NO_QUERY = 0;
+    private static final int QUERY_NEED_SEPARATOR = 1;
+    private static final int QUERY_OPEN = 2;
+
+    private final String template;
+    private final PercentCodec queryCodec;
+    private final Part[] parts;
+    private final String[] variableNames;
+    /**
+     * 上一次展开结果的长度，用于预分配缓冲区
+     */
+    private volatile int sizeHint;
+
+    private UrlTemplate(String template, PercentCodec queryCodec, Part[] parts, String[] variableNames) {
+        this.template = template;
+        this.queryCodec = queryCodec;
+        this.parts = parts;
+        this.variableNames = variableNames;
+        this.sizeHint = template.length() + 16;
+    }
+
+    /**
+     * 编译模板，查询参数使用表单编码
+     * @param template 模板
+     * @return 编译后的模板
+     * @throws IllegalArgumentException 模板语法错误
+     */
+    public static UrlTemplate compile(String template) {
+        return compile(template, PercentCodec.FORM);
+    }
+
+    /**
+     * 编译模板
+     * @param template 模板
+     * @param queryCodec 查询参数的键和值使用的编码
+     * @return 编译后的模板
+     * @throws IllegalArgumentException 模板语法错误
+     */
+    public static UrlTemplate compile(String template, PercentCodec queryCodec) {
+        List<Part> parts = new ArrayList<>();
+        List<String> names = new ArrayList<>();
+        StringBuilder literal = new StringBuilder();
+        boolean literalHasQuery = false;
+        int i = 0;
+        int length = template.length();
+        while (i < length) {
+            char c = template.charAt(i);
+            if (c == '}') {
+                throw new IllegalArgumentException("unmatched '}' at " + i + " in " + template);
+            }
+            if (c != '{') {
+                literal.append(c);
+                literalHasQuery |= c == '?';
+                i++;
+                continue;
+            }
+            int close = template.indexOf('}', i);
+            if (close < 0) {
+                throw new IllegalArgumentException("unclosed '{' at " + i + " in " + template);
+            }
+            if (literal.length() > 0) {
+                parts.add(new Literal(literal.toString(), literalHasQuery));
+                literal.setLength(0);
+                literalHasQuery = false;
+            }
+            char operator = close > i + 1 ? template.charAt(i + 1) : 0;
+            boolean query = operator == '?' || operator == '&';
+            String body = template.substring(query ? i + 2 : i + 1, close);
+            if (body.isEmpty()) {
+                throw new IllegalArgumentException("empty expression at " + i + " in " + template);
+            }
+            if (query) {
+                int start = 0;
+                while (start <= body.length()) {
+                    int comma = body.indexOf(',', start);
+                    int end = comma < 0 ? body.length() : comma;
+                    String name = checkName(body.substring(start, end), template);
+                    parts.add(new QueryVariable(names.size(), queryCodec.encode(name, new StringBuilder()).append('=').toString()));
+                    names.add(name);
+                    start = end + 1;
+                }
+            } else {
+                parts.add(new PathVariable(names.size()));
+                names.add(checkName(body, template));
+            }
+            i = close + 1;
+        }
+        if (literal.length() > 0) {
+            parts.add(new Literal(literal.toString(), literalHasQuery));
+        }
+        return new UrlTemplate(template, queryCodec, parts.toArray(new Part[parts.size()]), names.toArray(new String[names.size()]));
+    }
+
+    private static String checkName(String name, String template) {
+        if (name.isEmpty() || PercentCodec.RFC3986.firstUnsafe(name, 0, name.length()) != name.length()) {
+            throw new IllegalArgumentException("illegal variable name '" + name + "' in " + template);
+        }
+        return name;
+    }
+
+    /**
+     * 按变量在模板中出现的顺序展开
+     * @param values 各变量的值，数量必须与 {@link #getVariableNames()} 相同
+     * @return 展开后的 URL
+     * @throws IllegalArgumentException 数量不符或路径变量的值为 null
+     */
+    public String expand(Object... values) {
+        if (values.length != variableNames.length) {
+            throw new IllegalArgumentException("expected " + variableNames.length + " values but got " + values.length);
+        }
+        return expandInternal(values, null);
+    }
+
+    /**
+     * 按变量名展开
+     * @param values 各变量的值，缺少的查询参数会被省略
+     * @return 展开后的 URL
+     * @throws IllegalArgumentException 缺少路径变量的值
+     */
+    public String expand(Map<String, ?> values) {
+        return expandInternal(null, values);
+    }
+
+    /**
+     * 获取变量名
+     * @return 按出现顺序排列的变量名
+     */
+    public List<String> getVariableNames() {
+        List<String> names = new ArrayList<>(variableNames.length);
+        Collections.addAll(names, variableNames);
+        return names;
+    }
+
+    public String getTemplate() {
+        return template;
+    }
+
+    @Override
+    public String toString() {
+        return template;
+    }
+
+    private String expandInternal(@Nullable Object[] positional, @Nullable Map<String, ?> named) {
+        StringBuilder sb = new StringBuilder(sizeHint);
+        int queryState = NO_QUERY;
+        for (Part part : parts) {
+            if (part instanceof Literal) {
+                Literal literal = (Literal) part;
+                sb.append(literal.text);
+                if (literal.hasQuery || queryState != NO_QUERY) {
+                    char last = literal.text.charAt(literal.text.length() - 1);
+                    queryState = last == '?' || last == '&' ? QUERY_OPEN : QUERY_NEED_SEPARATOR;
+                }
+                continue;
+            }
+            int index = ((Variable) part).index;
+            Object value = positional != null ? positional[index] : named.get(variableNames[index]);
+            if (part instanceof PathVariable) {
+                if (value == null) {
+                    throw new IllegalArgumentException("missing value for path variable " + variableNames[index]);
+                }
+                PercentCodec.RFC3986.encode(value.toString(), sb);
+                if (queryState == QUERY_OPEN) {
+                    queryState = QUERY_NEED_SEPARATOR;
+                }
+            } else {
+                String encodedKey = ((QueryVariable) part).encodedKey;
+                if (value instanceof Iterable) {
+                    for (Object v : (Iterable<?>) value) {
+                        queryState = appendQuery(sb, queryState, encodedKey, v);
+                    }
+                } else if (value instanceof Object[]) {
+                    for (Object v : (Object[]) value) {
+                        queryState = appendQuery(sb, queryState, encodedKey, v);
+                    }
+                } else if (value != null) {
+                    queryState = appendQuery(sb, queryState, encodedKey, value);
+                }
+            }
+        }
+        sizeHint = sb.length() + 16;
+        return sb.toString();
+    }
+
+    private int appendQuery(StringBuilder sb, int queryState, String encodedKey, @Nullable Object value) {
+        if (queryState == NO_QUERY) {
+            sb.append('?');
+        } else if (queryState == QUERY_NEED_SEPARATOR) {
+            sb.append('&');
+        }
+        sb.append(encodedKey);
+        if (value != null) {
+            queryCodec.encode(value.toString(), sb);
+        }
+        return QUERY_NEED_SEPARATOR;
+    }
+
+    private static abstract class Part {
+
+    }
+
+    private static final class Literal extends Part {
+
+        final String text;
+        final boolean hasQuery;
+
+        Literal(String text, boolean hasQuery) {
+            this.text = text;
+            this.hasQuery = hasQuery;
+        }
+
+    }
+
+    private static abstract class Variable extends Part {
+
+        final int index;
+
+        Variable(int index) {
+            this.index = index;
+        }
+
+    }
+
+    private static final class PathVariable extends Variable {
+
+        PathVariable(int index) {
+            super(index);
+        }
+
+    }
+
+    private static final class QueryVariable extends Variable {
+
+        /**
+         * 编码后的键，包含 =
+         */
+        final String encodedKey;
+
+        QueryVariable(int index, String encodedKey) {
+            super(index);
+            this.encodedKey = encodedKey;
+        }
+
+    }
+
+}
@@ -8,6 +8,7 @@ import android.view.View;
 
 import moe.haruue.util.ActivityCollector;
 import moe.haruue.util.InstanceSaver;
+import moe.haruue.util.SharedPreferencesUtils;
 import moe.haruue.util.StandardUtils;
 import moe.haruue.util.ThreadUtils;
 
@@ -27,7 +28,7 @@ public abstract class HaruueActivity extends AppCompatActivity {
     @Override
     protected void onRestoreInstanceState(Bundle savedInstanceState) {
         super.onRestoreInstanceState(savedInstanceState);
-        InstanceSaver.saveInstance(savedInstanceState);
+        InstanceSaver.restoreInstance(savedInstanceState);
     }
 
     @Override
@@ -36,6 +37,12 @@ public abstract class HaruueActivity extends AppCompatActivity {
         InstanceSaver.saveInstance(outState);
     }
 
+    @Override
+    protected void onPause() {
+        super.onPause();
+        SharedPreferencesUtils.flushAll();
+    }
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
@@ -4,6 +4,8 @@ import android.app.Application;
 
 import moe.haruue.util.ActivityCollector;
 import moe.haruue.util.InstanceSaver;
+import moe.haruue.util.MainThreadWatchdog;
+import moe.haruue.util.SharedPreferencesUtils;
 import moe.haruue.util.StandardUtils;
 import moe.haruue.util.ThreadUtils;
 
@@ -17,9 +19,45 @@ public abstract class HaruueApplication extends Application {
     public void onCreate() {
         super.onCreate();
         StandardUtils.initialize(this);
-        ActivityCollector.initialize();
-        InstanceSaver.initialize();
+        ActivityCollector.initialize(this);
         ThreadUtils.initialize(this);
+        InstanceSaver.initialize(this);
+        String[] preloadNames = getPreloadSharedPreferencesNames();
+        if (preloadNames.length > 0) {
+            SharedPreferencesUtils.preload(this, preloadNames);
+        }
+        long leakWatchMillis = getActivityLeakWatchMillis();
+        if (leakWatchMillis > 0) {
+            ActivityCollector.watchLeaks(leakWatchMillis);
+        }
+        long threshold = getMainThreadWatchdogThresholdMillis();
+        if (threshold > 0) {
+            MainThreadWatchdog.start(this, threshold);
+        }
+    }
+
+    /**
+     * 重写此方法以开启主线程卡顿检测 {@link MainThreadWatchdog}
+     * @return 卡顿阈值，毫秒，返回 0 则不开启，默认不开启
+     */
+    protected long getMainThreadWatchdogThresholdMillis() {
+        return 0;
+    }
+
+    /**
+     * 重写此方法以开启 Activity 泄漏检测，见 {@link ActivityCollector#watchLeaks(long)}
+     * @return destroy 后等待的时间，毫秒，返回 0 则不开启，默认不开启
+     */
+    protected long getActivityLeakWatchMillis() {
+        return 0;
+    }
+
+    /**
+     * 重写此方法以在启动时后台预加载 SharedPreferences 文件，见 {@link SharedPreferencesUtils#preload(android.content.Context, String...)}
+     * @return 需要预加载的名称，默认不预加载
+     */
+    protected String[] getPreloadSharedPreferencesNames() {
+        return new String[0];
     }
 
 }
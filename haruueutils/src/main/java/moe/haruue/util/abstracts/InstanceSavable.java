@@ -1,18 +1,59 @@
 package moe.haruue.util.abstracts;
 
 import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import moe.haruue.util.InstanceSaver;
 
 /**
  * 实现此虚类以进行全局数据的临时存储<br>
- *     全局数据存储的类必须使用单例模式
+ *     全局数据存储的类必须使用单例模式，需要自定义的二进制格式时同时实现 {@link SnapshotSavable}
  * @author Haruue Icymoon haruue@caoyue.com.cn
  */
 public abstract class InstanceSavable implements Serializable {
 
+    /**
+     * 不跟踪修改的版本号，每次保存都会重新编码
+     */
+    public static final long UNVERSIONED = -1;
+
+    /**
+     * 按类保存的版本号：同类的任意对象都代表同一个单例，{@link moe.haruue.util.InstanceSaver} 只持有第一个注册的对象
+     */
+    private static final ConcurrentHashMap<Class<?>, AtomicLong> versions = new ConcurrentHashMap<>();
+
     public InstanceSavable() {
 
     }
 
+    /**
+     * 数据被修改后调用，{@link moe.haruue.util.InstanceSaver} 保存时会重新编码；版本号按类记录，在同类的任意对象上调用都可以<br>
+     *     从未调用过此方法的单例每次保存都会重新编码，需要从一开始就跟踪修改时可以在构造时调用一次
+     */
+    public void markChanged() {
+        AtomicLong version = versions.get(getClass());
+        if (version == null) {
+            AtomicLong created = new AtomicLong(UNVERSIONED);
+            version = versions.putIfAbsent(getClass(), created);
+            if (version == null) {
+                version = created;
+            }
+        }
+        // 从 UNVERSIONED 开始，第一次调用后为 0
+        version.incrementAndGet();
+    }
+
+    /**
+     * 获取数据的版本号，版本号与上次保存时相同的单例会复用上次编码的结果<br>
+     *     默认由 {@link #markChanged()} 维护，也可以重写此方法使用自己的版本号，此时同类的所有对象必须返回相同的版本号
+     * @return 版本号，{@link #UNVERSIONED} 表示不跟踪修改
+     */
+    public long getVersion() {
+        AtomicLong version = versions.get(getClass());
+        return version == null ? UNVERSIONED : version.get();
+    }
+
     /**
      * 返回存储全局数据的静态单例
      * @return 全局数据的静态单例
@@ -25,6 +66,21 @@ public abstract class InstanceSavable implements Serializable {
      */
     public abstract void onRestoreInstance(Serializable instance);
 
+    /**
+     * 重写此方法并返回 true 以在第一次访问时才恢复数据，此时必须在读写数据前调用 {@link #ensureRestored()}
+     * @return 是否延迟恢复，默认不延迟
+     */
+    public boolean restoresLazily() {
+        return false;
+    }
+
+    /**
+     * 如果有尚未恢复的数据则立即恢复，见 {@link moe.haruue.util.InstanceSaver#ensureRestored(InstanceSavable)}
+     */
+    public final void ensureRestored() {
+        InstanceSaver.ensureRestored(this);
+    }
+
     /**
      * 单例模式，类名相同即判等
      * @param o 另一个类
@@ -32,6 +88,11 @@ public abstract class InstanceSavable implements Serializable {
      */
     @Override
     public boolean equals(Object o) {
-        return this.getClass().getName().equals(o.getClass().getName());
+        return o != null && this.getClass().getName().equals(o.getClass().getName());
+    }
+
+    @Override
+    public int hashCode() {
+        return getClass().getName().hashCode();
     }
 }
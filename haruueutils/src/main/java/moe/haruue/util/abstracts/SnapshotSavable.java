@@ -0,0 +1,27 @@
+package moe.haruue.util.abstracts;
+
+import moe.haruue.util.BinaryReader;
+import moe.haruue.util.BinaryWriter;
+
+/**
+ * {@link InstanceSavable} 的子类可以同时实现此接口，以使用自定义的二进制格式保存数据<br>
+ *     没有实现时由 {@link moe.haruue.util.InstanceSaver} 保存 {@link InstanceSavable#getSavableInstance()} 的结果：
+ *     能够被 {@link moe.haruue.util.BinaryCodec} 无损编码时使用它，否则使用 Java 序列化
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public interface SnapshotSavable {
+
+    /**
+     * 写入数据
+     * @param out 写入器
+     * @return 是否已写入，返回 false 时按没有实现此接口的方式保存
+     */
+    boolean writeSnapshot(BinaryWriter out);
+
+    /**
+     * 读取 {@link #writeSnapshot(BinaryWriter)} 写入的数据并恢复到静态单例
+     * @param in 读取器
+     */
+    void readSnapshot(BinaryReader in);
+
+}
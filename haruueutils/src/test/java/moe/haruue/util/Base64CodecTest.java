@@ -0,0 +1,40 @@
+package moe.haruue.util;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link Base64Codec} 的本地单元测试
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class Base64CodecTest {
+
+    private static final Charset US_ASCII = Charset.forName("US-ASCII");
+
+    @Test
+    public void lenientTrailingEqualsIsNotPadding() throws Exception {
+        byte[] abc = "ABC".getBytes(US_ASCII);
+        assertArrayEquals(abc, Base64Codec.MIME.decode("QUJD="));
+        assertArrayEquals(abc, Base64Codec.MIME.decode("QUJD==".getBytes(US_ASCII)));
+        assertArrayEquals(abc, Base64Codec.MIME.decode("QUJD\r\n=".getBytes(US_ASCII)));
+        ByteBuffer decoded = Base64Codec.MIME.decode(ByteBuffer.wrap("QUJD==".getBytes(US_ASCII)));
+        assertEquals(3, decoded.remaining());
+    }
+
+    @Test
+    public void paddingShrinksOutput() throws Exception {
+        assertArrayEquals("AB".getBytes(US_ASCII), Base64Codec.STANDARD.decode("QUI="));
+        assertArrayEquals("A".getBytes(US_ASCII), Base64Codec.STANDARD.decode("QQ==".getBytes(US_ASCII)));
+        assertArrayEquals("AB".getBytes(US_ASCII), Base64Codec.MIME.decode("QUI"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void strictRejectsStrayPadding() throws Exception {
+        Base64Codec.STANDARD.decode("QUJD=");
+    }
+
+}
@@ -0,0 +1,195 @@
+package moe.haruue.util;
+
+import android.content.SharedPreferences;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * {@link MappedSharedPreferences} 的本地单元测试
+ * @author Haruue Icymoon haruue@caoyue.com.cn
+ */
+public class MappedSharedPreferencesTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void putAndReopen() throws Exception {
+        File file = folder.newFile("prefs.kv");
+        MappedSharedPreferences prefs = new MappedSharedPreferences(file);
+        Set<String> set = new HashSet<>(Arrays.asList("a", "b", "中文"));
+        prefs.edit()
+                .putInt("int", 42)
+                .putLong("long", Long.MAX_VALUE)
+                .putFloat("float", 1.5f)
+                .putBoolean("boolean", true)
+                .putString("string", "こんにちは")
+                .putStringSet("set", set)
+                .commit();
+        prefs.edit().remove("boolean").apply();
+        prefs.close();
+
+        prefs = new MappedSharedPreferences(file);
+        assertEquals(42, prefs.getInt("int", 0));
+        assertEquals(Long.MAX_VALUE, prefs.getLong("long", 0));
+        assertEquals(1.5f, prefs.getFloat("float", 0), 0);
+        assertFalse(prefs.contains("boolean"));
+        assertTrue(prefs.getBoolean("boolean", true));
+        assertEquals("こんにちは", prefs.getString("string", null));
+        assertEquals(set, prefs.getStringSet("set", null));
+        assertEquals(5, prefs.getAll().size());
+
+        prefs.edit().clear().putString("after", "clear").commit();
+        prefs.close();
+        prefs = new MappedSharedPreferences(file);
+        assertEquals(1, prefs.getAll().size());
+        assertEquals("clear", prefs.getString("after", null));
+        prefs.close();
+    }
+
+    @Test
+    public void growBeyondInitialCapacity() throws Exception {
+        File file = folder.newFile("grow.kv");
+        MappedSharedPreferences prefs = new MappedSharedPreferences(file, Integer.MAX_VALUE, 1f);
+        char[] chars = new char[1000];
+        Arrays.fill(chars, 'x');
+        String value = new String(chars);
+        for (int i = 0; i < 100; i++) {
+            prefs.edit().putString("key" + i, value).apply();
+        }
+        prefs.close();
+        prefs = new MappedSharedPreferences(file);
+        assertEquals(100, prefs.getAll().size());
+        assertEquals(value, prefs.getString("key99", null));
+        prefs.close();
+    }
+
+    @Test
+    public void compactKeepsLatestValues() throws Exception {
+        File file = folder.newFile("compact.kv");
+        MappedSharedPreferences prefs = new MappedSharedPreferences(file, 1024, 0.5f);
+        for (int i = 0; i < 2000; i++) {
+            prefs.edit().putInt("counter", i).putString("name", "value" + i).apply();
+        }
+        // 无效数据很多，已经自动压缩过
+        assertTrue(prefs.getWritePosition() < 2048);
+        prefs.compact();
+        assertEquals(1999, prefs.getInt("counter", 0));
+        prefs.close();
+
+        prefs = new MappedSharedPreferences(file);
+        assertEquals(1999, prefs.getInt("counter", 0));
+        assertEquals("value1999", prefs.getString("name", null));
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+        prefs.close();
+    }
+
+    @Test
+    public void readDuringCompact() throws Exception {
+        final MappedSharedPreferences prefs = new MappedSharedPreferences(folder.newFile("concurrent.kv"));
+        SharedPreferences.Editor editor = prefs.edit();
+        for (int i = 0; i < 100; i++) {
+            editor.putString("key" + i, "value" + i);
+        }
+        editor.commit();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final AtomicReference<String> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int n = 0; running.get() && failure.get() == null; n++) {
+                        int i = n % 100;
+                        if (!("value" + i).equals(prefs.getString("key" + i, null)) || !prefs.contains("key" + i)) {
+                            failure.set("key" + i + " missing during compact");
+                        } else if (prefs.getAll().size() != 100) {
+                            failure.set("getAll() returned a partial map during compact");
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (int i = 0; i < 200 && failure.get() == null; i++) {
+            prefs.compact();
+        }
+        running.set(false);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+        prefs.close();
+    }
+
+    @Test
+    public void recoverFromTornWrite() throws Exception {
+        File file = folder.newFile("torn.kv");
+        MappedSharedPreferences prefs = new MappedSharedPreferences(file);
+        prefs.edit().putString("first", "ok").commit();
+        int end = prefs.getWritePosition();
+        prefs.edit().putString("second", "lost").commit();
+        prefs.close();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(end + 12);
+        raf.write(raf.read() ^ 0xff);
+        raf.close();
+
+        prefs = new MappedSharedPreferences(file);
+        assertEquals("ok", prefs.getString("first", null));
+        assertFalse(prefs.contains("second"));
+        assertEquals(end, prefs.getWritePosition());
+        prefs.edit().putString("third", "new").commit();
+        prefs.close();
+
+        prefs = new MappedSharedPreferences(file);
+        assertEquals("ok", prefs.getString("first", null));
+        assertEquals("new", prefs.getString("third", null));
+        assertFalse(prefs.contains("second"));
+        prefs.close();
+    }
+
+    @Test
+    public void notifyListeners() throws Exception {
+        MappedSharedPreferences prefs = new MappedSharedPreferences(folder.newFile("listen.kv"));
+        final List<String> keys = new ArrayList<>();
+        SharedPreferences.OnSharedPreferenceChangeListener listener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+            @Override
+            public void onSharedPreferenceChanged(SharedPreferences sharedPreferences, String key) {
+                keys.add(key);
+            }
+        };
+        prefs.registerOnSharedPreferenceChangeListener(listener);
+        prefs.edit().putInt("a", 1).putInt("b", 2).apply();
+        prefs.edit().clear().apply();
+        prefs.unregisterOnSharedPreferenceChangeListener(listener);
+        prefs.edit().putInt("c", 3).apply();
+        assertEquals(Arrays.asList("a", "b", null), keys);
+        prefs.close();
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void rejectForeignFile() throws Exception {
+        File file = folder.newFile("foreign.xml");
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.writeBytes("<?xml version='1.0' encoding='utf-8' standalone='yes' ?>");
+        raf.close();
+        new MappedSharedPreferences(file);
+    }
+
+}